@@ -26,6 +26,12 @@ public class CLAbsorber {
     /** Name of the class that is read. */
     private String className;
 
+    /**
+     * Class path from which classes are read, shared by all CLAbsorbers so
+     * that it is indexed only once.
+     */
+    private static CLPath classPath = new CLPath();
+
     /**
      * Print the specified warning to STDERR.
      * 
@@ -915,7 +921,6 @@ public class CLAbsorber {
     public CLAbsorber(String className) {
         try {
             this.className = className;
-            CLPath classPath = new CLPath();
             CLInputStream in = classPath.loadClass(className);
             errorHasOccurred = false;
             if (in == null) {
@@ -1031,6 +1036,7 @@ public class CLAbsorber {
             CLFile c = r.classFile();
             c.writeToStdOut();
         }
+        classPath.close();
     }
 
 }
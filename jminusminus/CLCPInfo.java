@@ -4,6 +4,7 @@ package jminusminus;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import static jminusminus.CLConstants.*;
 
 /**
@@ -99,6 +100,14 @@ class CLConstantClassInfo extends CLCPInfo {
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return 31 * tag + nameIndex;
+    }
+
     /**
      * @inheritDoc
      */
@@ -166,6 +175,14 @@ abstract class CLConstantMemberRefInfo extends CLCPInfo {
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return (31 * tag + classIndex) * 31 + nameAndTypeIndex;
+    }
+
 }
 
 /**
@@ -304,6 +321,14 @@ class CLConstantStringInfo extends CLCPInfo {
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return 31 * tag + stringIndex;
+    }
+
     /**
      * @inheritDoc
      */
@@ -380,6 +405,14 @@ class CLConstantIntegerInfo extends CLCPInfo {
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return 31 * tag + i;
+    }
+
     /**
      * @inheritDoc
      */
@@ -445,13 +478,23 @@ class CLConstantFloatInfo extends CLCPInfo {
     public boolean equals(Object obj) {
         if (obj instanceof CLConstantFloatInfo) {
             CLConstantFloatInfo c = (CLConstantFloatInfo) obj;
-            if (c.f == f) {
+
+            // Compare bits, so that 0.0f and -0.0f are told apart
+            if (Float.floatToIntBits(c.f) == Float.floatToIntBits(f)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return 31 * tag + Float.floatToIntBits(f);
+    }
+
     /**
      * @inheritDoc
      */
@@ -556,6 +599,14 @@ class CLConstantLongInfo extends CLCPInfo {
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return 31 * tag + (int) (l ^ (l >>> 32));
+    }
+
     /**
      * @inheritDoc
      */
@@ -653,13 +704,24 @@ class CLConstantDoubleInfo extends CLCPInfo {
     public boolean equals(Object obj) {
         if (obj instanceof CLConstantDoubleInfo) {
             CLConstantDoubleInfo c = (CLConstantDoubleInfo) obj;
-            if (c.d == d) {
+
+            // Compare bits, so that 0.0 and -0.0 are told apart
+            if (Double.doubleToLongBits(c.d) == Double.doubleToLongBits(d)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(d);
+        return 31 * tag + (int) (bits ^ (bits >>> 32));
+    }
+
     /**
      * @inheritDoc
      */
@@ -724,6 +786,14 @@ class CLConstantNameAndTypeInfo extends CLCPInfo {
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return (31 * tag + nameIndex) * 31 + descriptorIndex;
+    }
+
     /**
      * @inheritDoc
      */
@@ -782,13 +852,21 @@ class CLConstantUtf8Info extends CLCPInfo {
     public boolean equals(Object obj) {
         if (obj instanceof CLConstantUtf8Info) {
             CLConstantUtf8Info c = (CLConstantUtf8Info) obj;
-            if ((new String(b)).equals(new String(c.b))) {
+            if (Arrays.equals(b, c.b)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public int hashCode() {
+        return 31 * tag + Arrays.hashCode(b);
+    }
+
     /**
      * @inheritDoc
      */
@@ -4,6 +4,7 @@ package jminusminus;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Representation of a class' constant_pool table (JVM Spec Section 4.5). An
@@ -22,6 +23,15 @@ class CLConstantPool {
     /** List of constant pool items. */
     private ArrayList<CLCPInfo> cpItems;
 
+    /**
+     * Maps each constant pool item to the first equal item added to the pool,
+     * so that items can be found without scanning cpItems.
+     */
+    private HashMap<CLCPInfo, CLCPInfo> cpIndexMap;
+
+    /** Number of times findOrAdd() found its item already in the pool. */
+    private int dedupeHits;
+
     /**
      * Look for the specified item in the constant pool. If it exists, return
      * its index. Otherwise, add the item to the constant pool and return its
@@ -36,6 +46,8 @@ class CLConstantPool {
         int index = find(cpInfo);
         if (index == -1) {
             index = addCPItem(cpInfo);
+        } else {
+            dedupeHits++;
         }
         return index;
     }
@@ -47,6 +59,7 @@ class CLConstantPool {
     public CLConstantPool() {
         cpIndex = 1;
         cpItems = new ArrayList<CLCPInfo>();
+        cpIndexMap = new HashMap<CLCPInfo, CLCPInfo>();
     }
 
     /**
@@ -59,6 +72,17 @@ class CLConstantPool {
         return cpItems.size();
     }
 
+    /**
+     * Return the number of times an item that was asked for was found already
+     * in the constant pool, rather than being added to it.
+     * 
+     * @return the number of dedupe hits.
+     */
+
+    public int dedupeHits() {
+        return dedupeHits;
+    }
+
     /**
      * Return the constant pool index of the specified item if it exists in the
      * pool, -1 otherwise.
@@ -69,12 +93,8 @@ class CLConstantPool {
      */
 
     public int find(CLCPInfo cpInfo) {
-        int index = cpItems.indexOf(cpInfo);
-        if (index != -1) {
-            CLCPInfo c = cpItems.get(index);
-            index = c.cpIndex;
-        }
-        return index;
+        CLCPInfo c = cpIndexMap.get(cpInfo);
+        return c == null ? -1 : c.cpIndex;
     }
 
     /**
@@ -106,6 +126,9 @@ class CLConstantPool {
         int i = cpIndex++;
         cpInfo.cpIndex = i;
         cpItems.add(cpInfo);
+        if (!cpIndexMap.containsKey(cpInfo)) {
+            cpIndexMap.put(cpInfo, cpInfo);
+        }
 
         // long and double, with their lower and higher words,
         // are treated by JVM as two items in the constant pool. We
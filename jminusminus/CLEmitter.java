@@ -2,19 +2,23 @@
 
 package jminusminus;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.DataOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Stack;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.Map.Entry;
 import static jminusminus.CLConstants.*;
 import static jminusminus.CLConstants.Category.*;
 
@@ -43,6 +47,12 @@ public class CLEmitter {
     /** Destination directory for the class. */
     private String destDir;
 
+    /** Whether the code of each method is optimized; see optimizeCode(). */
+    private boolean optimize;
+
+    /** Whether the constant pool of each class written is reported. */
+    private boolean stats;
+
     /** In-memory representation of the class. */
     private CLFile clFile;
 
@@ -139,9 +149,18 @@ public class CLEmitter {
 
     /**
      * Class loader to use for creating in-memory representation of classes from
-     * byte streams.
+     * byte streams. There is one per thread, as each compilation unit is
+     * compiled on a single thread and must not see the partial classes of
+     * units being compiled in parallel.
      */
-    private static ByteClassLoader byteClassLoader;
+    private static ThreadLocal<ByteClassLoader> byteClassLoader = new ThreadLocal<ByteClassLoader>();
+
+    /**
+     * Buffer into which classes are serialized, one per thread. It is reused
+     * from one class to the next, and its bytes are handed to the class loader
+     * or the output file without being copied.
+     */
+    private static ThreadLocal<CLBuffer> classBuffer = new ThreadLocal<CLBuffer>();
 
     /**
      * Initialize all variables used for adding a method to the ClassFile
@@ -176,6 +195,9 @@ public class CLEmitter {
                 // Must jump to an instruction
                 addNoArgInstruction(NOP);
             }
+            if (optimize) {
+                optimizeCode();
+            }
 
             // Resolve jump labels in exception handlers
             ArrayList<CLExceptionInfo> exceptionTable = new ArrayList<CLExceptionInfo>();
@@ -285,6 +307,364 @@ public class CLEmitter {
         clFile.attributes = attributes;
     }
 
+    /**
+     * Optimize the code of the method last added, before its labels are
+     * resolved. The following rules are applied wherever they match, until
+     * none matches anywhere:
+     * 
+     * <pre>
+     *   push; POP                               =&gt; (nothing)
+     *   GOTO L; L: ...                          =&gt; L: ...
+     *   xSTORE n; xLOAD n                       =&gt; DUP; xSTORE n
+     *   xSTORE n                                =&gt; POP
+     *   IINC n c                                =&gt; (nothing)
+     *   ICONST_1; GOTO E; F: ICONST_0; E: IFEQ L =&gt; (nothing)
+     *   ICONST_1; GOTO E; F: ICONST_0; E: IFNE L =&gt; GOTO L
+     * </pre>
+     * 
+     * where push is an instruction that just pushes a constant, a local
+     * variable or a copy of the top of the stack; the rule for xSTORE n; xLOAD
+     * n applies only where the copy left by DUP does not make the stack deeper
+     * than it gets elsewhere in the method, so that max_stack is not raised;
+     * the rules for xSTORE and IINC apply only when local n is never loaded;
+     * and no instruction matched, but the first, and F, may be a jump target.
+     * Jumps to F are sent to where the test would have sent a false value, and
+     * jumps to the ICONST_1 to where it would have sent a true one. POP2, DUP2
+     * stand in for POP, DUP where the value is a long or a double.
+     * 
+     * While optimizing, each label is mapped to the instruction it leads to
+     * rather than to a pc, so that when an instruction is removed its labels
+     * move on to the next one; the pcs are computed afresh at the end. Code
+     * with subroutines, switches or wide instructions is left as it is.
+     */
+
+    private void optimizeCode() {
+        HashMap<Integer, CLInstruction> at = new HashMap<Integer, CLInstruction>();
+        for (CLInstruction instr : mCode) {
+            switch (instr.opcode()) {
+            case WIDE:
+            case GOTO_W:
+            case JSR:
+            case JSR_W:
+            case RET:
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                return;
+            }
+            at.put(instr.pc(), instr);
+        }
+        HashMap<String, CLInstruction> targets = new HashMap<String, CLInstruction>();
+        for (String label : mLabels.keySet()) {
+            targets.put(label, at.get(mLabels.get(label)));
+        }
+
+        boolean changed = true;
+        while (changed) {
+            // Count the jumps to each instruction, and find the instructions
+            // bounding exception handlers and the locals that are loaded
+            HashMap<CLInstruction, Integer> jumps = new HashMap<CLInstruction, Integer>();
+            HashSet<CLInstruction> pinned = new HashSet<CLInstruction>();
+            BitSet loaded = new BitSet();
+            for (CLInstruction instr : mCode) {
+                if (instr instanceof CLFlowControlInstruction) {
+                    CLInstruction target = targets
+                            .get(((CLFlowControlInstruction) instr)
+                                    .jumpToLabel());
+                    jumps.put(target, jumps.containsKey(target) ? jumps
+                            .get(target) + 1 : 1);
+                } else if (loadKind(instr.opcode()) >= 0) {
+                    loaded.set(instr.localVariableIndex());
+                }
+            }
+            for (CLException e : mExceptionHandlers) {
+                pinned.add(targets.get(e.startLabel));
+                pinned.add(targets.get(e.endLabel));
+                pinned.add(targets.get(e.handlerLabel));
+            }
+            int[] depths = stackDepths(targets);
+            int peak = 0;
+            for (int depth : depths) {
+                peak = Math.max(peak, depth);
+            }
+            changed = false;
+            for (int i = 0; i < mCode.size() && !changed; i++) {
+                changed = optimizeAt(i, targets, jumps, pinned, loaded,
+                        depths, peak);
+            }
+        }
+
+        // Lay the code out afresh
+        mPC = 0;
+        for (CLInstruction instr : mCode) {
+            instr.setPC(mPC);
+            mPC += instr.operandCount() + 1;
+        }
+        for (String label : targets.keySet()) {
+            CLInstruction target = targets.get(label);
+            mLabels.put(label, target == null ? mPC : target.pc());
+        }
+    }
+
+    /**
+     * Apply the first of the rules listed for optimizeCode() that matches the
+     * code starting at the specified index, if any.
+     * 
+     * @param i
+     *            index of the instruction.
+     * @param targets
+     *            labels mapped to the instructions they lead to.
+     * @param jumps
+     *            instructions mapped to the number of jumps to them.
+     * @param pinned
+     *            instructions that start or end an exception handler or the
+     *            code it covers.
+     * @param loaded
+     *            indices of the locals that are loaded.
+     * @param depths
+     *            depth of the operand stack after each instruction.
+     * @param peak
+     *            greatest depth of the operand stack.
+     * @return true if a rule matched, false otherwise.
+     */
+
+    private boolean optimizeAt(int i, HashMap<String, CLInstruction> targets,
+            HashMap<CLInstruction, Integer> jumps,
+            HashSet<CLInstruction> pinned, BitSet loaded, int[] depths,
+            int peak) {
+        CLInstruction instr = mCode.get(i);
+        CLInstruction next = i + 1 < mCode.size() ? mCode.get(i + 1) : null;
+        boolean nextIsFree = next != null && !jumps.containsKey(next)
+                && !pinned.contains(next);
+        int opcode = instr.opcode();
+        int store = storeKind(opcode);
+
+        // A value pushed only to be popped
+        if (nextIsFree
+                && (opcode >= ACONST_NULL && opcode <= LDC2_W
+                        || loadKind(opcode) >= 0 || opcode == DUP || opcode == DUP2)
+                && (next.opcode() == POP && instr.stackUnits() == 1 || next
+                        .opcode() == POP2
+                        && instr.stackUnits() == 2)) {
+            remove(i + 1, targets);
+            remove(i, targets);
+            return true;
+        }
+
+        // A jump to the next instruction
+        if (opcode == GOTO
+                && next != null
+                && targets.get(((CLFlowControlInstruction) instr)
+                        .jumpToLabel()) == next) {
+            remove(i, targets);
+            return true;
+        }
+
+        // A store followed by a load of the same local
+        if (store >= 0 && nextIsFree && loadKind(next.opcode()) == store
+                && next.localVariableIndex() == instr.localVariableIndex()
+                && depths[i] >= 0
+                && depths[i] - 2 * instr.stackUnits() <= peak) {
+            CLInstruction dup = new CLStackInstruction(
+                    instr.stackUnits() == -1 ? DUP : DUP2, instr.pc());
+            retarget(targets, instr, dup);
+            mCode.set(i, dup);
+            mCode.set(i + 1, instr);
+            return true;
+        }
+
+        // A store to, or an increment of, a local that is never loaded
+        if (store >= 0 && !loaded.get(instr.localVariableIndex())) {
+            CLInstruction pop = new CLStackInstruction(
+                    instr.stackUnits() == -1 ? POP : POP2, instr.pc());
+            retarget(targets, instr, pop);
+            mCode.set(i, pop);
+            return true;
+        }
+        if (opcode == IINC && !loaded.get(instr.localVariableIndex())) {
+            remove(i, targets);
+            return true;
+        }
+
+        // A boolean value computed only to be tested
+        if (opcode == ICONST_1 && i + 4 < mCode.size()) {
+            CLInstruction jump = next;
+            CLInstruction iconst0 = mCode.get(i + 2);
+            CLInstruction test = mCode.get(i + 3);
+            if (jump.opcode() != GOTO || iconst0.opcode() != ICONST_0
+                    || test.opcode() != IFEQ && test.opcode() != IFNE
+                    || jumps.containsKey(jump) || pinned.contains(instr)
+                    || pinned.contains(jump) || pinned.contains(iconst0)
+                    || pinned.contains(test)) {
+                return false;
+            }
+            String label = ((CLFlowControlInstruction) test).jumpToLabel();
+            CLInstruction target = targets.get(label);
+            if (targets.get(((CLFlowControlInstruction) jump).jumpToLabel()) != test
+                    || jumps.get(test) != 1 || target == instr
+                    || target == jump || target == iconst0 || target == test) {
+                return false;
+            }
+            if (test.opcode() == IFEQ) {
+                retarget(targets, iconst0, target);
+                for (int j = i + 3; j >= i; j--) {
+                    remove(j, targets);
+                }
+            } else {
+                CLInstruction go = new CLFlowControlInstruction(GOTO,
+                        instr.pc(), label);
+                retarget(targets, instr, go);
+                mCode.set(i, go);
+                for (int j = i + 3; j > i; j--) {
+                    remove(j, targets);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the instruction at the specified index from the code, moving its
+     * labels on to the next instruction.
+     * 
+     * @param i
+     *            index of the instruction.
+     * @param targets
+     *            labels mapped to the instructions they lead to.
+     */
+
+    private void remove(int i, HashMap<String, CLInstruction> targets) {
+        CLInstruction instr = mCode.remove(i);
+        retarget(targets, instr, i < mCode.size() ? mCode.get(i) : null);
+    }
+
+    /**
+     * Make the labels that lead to one instruction lead to another.
+     * 
+     * @param targets
+     *            labels mapped to the instructions they lead to.
+     * @param from
+     *            the one instruction.
+     * @param to
+     *            the other instruction.
+     */
+
+    private static void retarget(HashMap<String, CLInstruction> targets,
+            CLInstruction from, CLInstruction to) {
+        for (Entry<String, CLInstruction> entry : targets.entrySet()) {
+            if (entry.getValue() == from) {
+                entry.setValue(to);
+            }
+        }
+    }
+
+    /**
+     * Compute the depth of the operand stack after each instruction of the
+     * method last added, while it is being optimized, as stackDepth() does
+     * once its labels are resolved.
+     * 
+     * @param targets
+     *            labels mapped to the instructions they lead to.
+     * @return the depths, indexed as mCode; -1 for unreachable instructions.
+     */
+
+    private int[] stackDepths(HashMap<String, CLInstruction> targets) {
+        HashMap<CLInstruction, Integer> index = new HashMap<CLInstruction, Integer>();
+        for (int i = 0; i < mCode.size(); i++) {
+            index.put(mCode.get(i), i);
+        }
+        int[] depths = new int[mCode.size()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = -1;
+        }
+
+        // Instructions still to be visited, with the depth before each
+        Stack<Integer> pending = new Stack<Integer>();
+        Stack<Integer> pendingDepths = new Stack<Integer>();
+        pending.push(0);
+        pendingDepths.push(0);
+        for (CLException e : mExceptionHandlers) {
+            CLInstruction h = targets.get(e.handlerLabel);
+            if (h != null) {
+                // The exception thrown is pushed on the operand stack
+                pending.push(index.get(h));
+                pendingDepths.push(1);
+            }
+        }
+        while (!pending.isEmpty()) {
+            int i = pending.pop();
+            int depth = pendingDepths.pop();
+            while (i < mCode.size() && depths[i] < 0) {
+                CLInstruction instr = mCode.get(i);
+                int opcode = instr.opcode();
+                int stackUnits = instr.stackUnits();
+                if (stackUnits == EMPTY_STACK) {
+                    depth = 0;
+                } else if (stackUnits == UNIT_SIZE_STACK) {
+                    depth = 1;
+                } else {
+                    depth += stackUnits;
+                }
+                depths[i] = depth;
+                if (instr instanceof CLFlowControlInstruction) {
+                    CLInstruction target = targets
+                            .get(((CLFlowControlInstruction) instr)
+                                    .jumpToLabel());
+                    if (target != null) {
+                        pending.push(index.get(target));
+                        pendingDepths.push(depth);
+                    }
+                    if (opcode == GOTO) {
+                        break;
+                    }
+                } else if (opcode == ATHROW || opcode >= IRETURN
+                        && opcode <= RETURN) {
+                    break;
+                }
+                i++;
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * Return the kind (0 to 4, for int, long, float, double and reference) of
+     * the value loaded by the specified instruction, or -1 if it isn't a load
+     * from a local.
+     * 
+     * @param opcode
+     *            opcode of the instruction.
+     * @return the kind of value loaded.
+     */
+
+    private static int loadKind(int opcode) {
+        if (opcode >= ILOAD && opcode <= ALOAD) {
+            return opcode - ILOAD;
+        } else if (opcode >= ILOAD_0 && opcode <= ALOAD_3) {
+            return (opcode - ILOAD_0) / 4;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the kind (0 to 4, for int, long, float, double and reference) of
+     * the value stored by the specified instruction, or -1 if it isn't a store
+     * to a local.
+     * 
+     * @param opcode
+     *            opcode of the instruction.
+     * @return the kind of value stored.
+     */
+
+    private static int storeKind(int opcode) {
+        if (opcode >= ISTORE && opcode <= ASTORE) {
+            return opcode - ISTORE;
+        } else if (opcode >= ISTORE_0 && opcode <= ASTORE_3) {
+            return (opcode - ISTORE_0) / 4;
+        }
+        return -1;
+    }
+
     /**
      * Add a field.
      * 
@@ -910,6 +1290,31 @@ public class CLEmitter {
         this.destDir = destDir;
     }
 
+    /**
+     * Set whether the code of each method is to be optimized by a peephole
+     * pass before its labels are resolved. It is not, by default.
+     * 
+     * @param optimize
+     *            whether to optimize.
+     */
+
+    public void optimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Set whether the size of the constant pool of each class written, and
+     * the number of items asked for that were found already in the pool, are
+     * reported to STDERR. They are not, by default.
+     * 
+     * @param stats
+     *            whether to report.
+     */
+
+    public void stats(boolean stats) {
+        this.stats = stats;
+    }
+
     /**
      * Has an emitter error occurred up to now?
      * 
@@ -1880,11 +2285,41 @@ public class CLEmitter {
     }
 
     /**
-     * Set a new ByteClassLoader for loading classes from byte streams.
+     * Set a new ByteClassLoader for loading classes from byte streams on the
+     * current thread.
      */
 
     public static void initializeByteClassLoader() {
-        byteClassLoader = new ByteClassLoader();
+        byteClassLoader.set(new ByteClassLoader());
+    }
+
+    /**
+     * Drop the current thread's ByteClassLoader, and with it the partial
+     * classes it has loaded. Used once a unit is compiled.
+     */
+
+    public static void discardByteClassLoader() {
+        byteClassLoader.remove();
+    }
+
+    /**
+     * Serialize the class into this thread's class buffer, and return the
+     * buffer.
+     * 
+     * @return the buffer holding the bytes of the class.
+     * @throws IOException
+     *             if an error occurs while writing.
+     */
+
+    private CLBuffer serialize() throws IOException {
+        CLBuffer buffer = classBuffer.get();
+        if (buffer == null) {
+            buffer = new CLBuffer();
+            classBuffer.set(buffer);
+        }
+        buffer.reset();
+        clFile.write(new CLOutputStream(buffer));
+        return buffer;
     }
 
     /**
@@ -1906,19 +2341,14 @@ public class CLEmitter {
         Class theClass = null;
         try {
             // Extract the bytes from the class representation in
-            // memory into an array of bytes
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            CLOutputStream out = new CLOutputStream(new BufferedOutputStream(
-                    byteStream));
-            clFile.write(out);
-            out.close();
-            byte[] classBytes = byteStream.toByteArray();
-            byteStream.close();
+            // memory into the class buffer
+            CLBuffer buffer = serialize();
 
             // Load a Java Class instance from its byte
             // representation
-            byteClassLoader.setClassBytes(classBytes);
-            theClass = byteClassLoader.loadClass(name, true);
+            ByteClassLoader loader = byteClassLoader.get();
+            loader.setClassBytes(buffer.bytes(), buffer.size());
+            theClass = loader.loadClass(name, true);
         } catch (IOException e) {
             reportEmitterError("Cannot write class to byte stream");
         } catch (ClassNotFoundException e) {
@@ -1939,14 +2369,21 @@ public class CLEmitter {
             return;
         }
         String outFile = destDir + File.separator + name + ".class";
+        if (stats) {
+            System.err.printf("%s: %d constant pool items, %d reused\n",
+                    name, constantPool.size(), constantPool.dedupeHits());
+        }
         try {
             File file = new File(destDir + File.separator
                     + name.substring(0, name.lastIndexOf("/") + 1));
             file.mkdirs();
-            CLOutputStream out = new CLOutputStream(new BufferedOutputStream(
-                    new FileOutputStream(outFile)));
-            clFile.write(out);
-            out.close();
+            ByteBuffer bytes = serialize().toByteBuffer();
+            try (FileOutputStream out = new FileOutputStream(outFile)) {
+                FileChannel channel = out.getChannel();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
         } catch (FileNotFoundException e) {
             reportEmitterError("File %s not found", outFile);
         } catch (IOException e) {
@@ -2180,6 +2617,9 @@ class ByteClassLoader extends ClassLoader {
     /** Bytes representing the class. */
     private byte[] bytes;
 
+    /** Number of bytes (from the start of bytes) representing the class. */
+    private int length;
+
     /** Has a package been defined for this class loader? */
     private boolean pkgDefined = false;
 
@@ -2187,11 +2627,15 @@ class ByteClassLoader extends ClassLoader {
      * Set the bytes representing the class.
      * 
      * @param bytes
-     *            bytes representing the class.
+     *            array holding the bytes representing the class.
+     * @param length
+     *            number of bytes, from the start of the array, representing
+     *            the class.
      */
 
-    public void setClassBytes(byte[] bytes) {
+    public void setClassBytes(byte[] bytes, int length) {
         this.bytes = bytes;
+        this.length = length;
     }
 
     /**
@@ -2221,7 +2665,7 @@ class ByteClassLoader extends ClassLoader {
                 definePackage(pkg, "", "", "", "", "", "", null);
                 pkgDefined = true;
             }
-            cls = defineClass(name, bytes, 0, bytes.length);
+            cls = defineClass(name, bytes, 0, length);
             if (resolve && cls != null) {
                 resolveClass(cls);
             }
@@ -2231,6 +2675,108 @@ class ByteClassLoader extends ClassLoader {
 
 }
 
+/**
+ * A growable array of bytes into which classes are serialized. Unlike
+ * java.io.ByteArrayOutputStream, it is not synchronized, it can be reset and
+ * reused without giving up its array, and it gives access to its bytes without
+ * copying them.
+ */
+
+class CLBuffer extends OutputStream {
+
+    /** Initial capacity of the buffer. */
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /** The bytes written so far (and room for more). */
+    private byte[] bytes;
+
+    /** Number of bytes written so far. */
+    private int count;
+
+    /**
+     * Construct an empty CLBuffer.
+     */
+
+    public CLBuffer() {
+        bytes = new byte[INITIAL_CAPACITY];
+        count = 0;
+    }
+
+    /**
+     * Make sure there is room for the specified number of additional bytes.
+     * 
+     * @param n
+     *            number of additional bytes.
+     */
+
+    private void ensureCapacity(int n) {
+        if (count + n > bytes.length) {
+            byte[] newBytes = new byte[Math.max(2 * bytes.length, count + n)];
+            System.arraycopy(bytes, 0, newBytes, 0, count);
+            bytes = newBytes;
+        }
+    }
+
+    /**
+     * Discard the bytes written so far, keeping the array for reuse.
+     */
+
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public void write(int b) {
+        ensureCapacity(1);
+        bytes[count++] = (byte) b;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, bytes, count, len);
+        count += len;
+    }
+
+    /**
+     * Return the array holding the bytes written so far. Only the first size()
+     * bytes of the array are meaningful.
+     * 
+     * @return the array.
+     */
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Return the number of bytes written so far.
+     * 
+     * @return the number of bytes.
+     */
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return a ByteBuffer view of the bytes written so far.
+     * 
+     * @return the ByteBuffer.
+     */
+
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, count);
+    }
+
+}
+
 /**
  * Inherits from java.out.DataOutputStream and provides an extra function for
  * writing unsigned int to the output stream, which is required for writing Java
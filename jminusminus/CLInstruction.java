@@ -338,6 +338,17 @@ abstract class CLInstruction {
         return pc;
     }
 
+    /**
+     * Set the pc for this instruction, as when the code is laid out afresh.
+     * 
+     * @param pc
+     *            the pc.
+     */
+
+    public void setPC(int pc) {
+        this.pc = pc;
+    }
+
     /**
      * Return the stack units for this instruction.
      * 
@@ -1141,6 +1152,16 @@ class CLFlowControlInstruction extends CLInstruction {
         return jumpToOffset;
     }
 
+    /**
+     * Return the label to jump to.
+     * 
+     * @return label to jump to.
+     */
+
+    public String jumpToLabel() {
+        return jumpToLabel;
+    }
+
     /**
      * @inheritDoc
      */
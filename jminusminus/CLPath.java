@@ -8,6 +8,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.StringTokenizer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -16,6 +18,12 @@ import java.util.zip.ZipFile;
  * This class can be used to locate and load system, extension, and user-defined
  * class files from directories and zip (jar) files. The code for this class has
  * been adapted from the Kopi (http://www.dms.at/kopi/) project.
+ * 
+ * On the first lookup, the zip and jar files on the class path are opened and
+ * their class files indexed by name, so that a later lookup goes straight to
+ * the archive holding the class. The archives are kept open, one handle per
+ * archive, until close() is invoked. As with the JVM, the first entry on the
+ * class path that holds a class is the one it is loaded from.
  */
 
 class CLPath {
@@ -26,6 +34,19 @@ class CLPath {
      */
     private ArrayList<String> dirs;
 
+    /**
+     * Maps the name of each class file in a zip or jar file on the class path
+     * to the position on the class path of the first archive holding it;
+     * built on the first lookup.
+     */
+    private HashMap<String, Integer> index;
+
+    /** Positions on the class path of its directories. */
+    private ArrayList<Integer> directories;
+
+    /** Archives opened so far, keyed by their position on the class path. */
+    private HashMap<Integer, ZipFile> archives;
+
     /**
      * Return a list of conceptual directories defining the class path.
      * 
@@ -52,12 +73,11 @@ class CLPath {
                 container.add(entries.nextToken());
             }
         } else {
-            float version = Float
-                    .parseFloat(System.getProperty("java.version"));
-            if (version > 1.1) {
-                String dir = System.getProperty("java.home")
-                        + File.separatorChar + "lib" + File.separatorChar
-                        + "rt.jar";
+            // Parsing java.version fails for versions such as 1.8.0_201,
+            // so look for rt.jar itself
+            String dir = System.getProperty("java.home") + File.separatorChar
+                    + "lib" + File.separatorChar + "rt.jar";
+            if (new File(dir).isFile()) {
                 container.add(dir);
             }
         }
@@ -92,6 +112,7 @@ class CLPath {
             path = ".";
         }
         dirs = loadClassPath(path);
+        archives = new HashMap<Integer, ZipFile>();
         if (extdir == null) {
             // Java extension classes
             extdir = System.getProperty("java.ext.dirs");
@@ -105,7 +126,7 @@ class CLPath {
                     if (file.isFile()
                             && (file.getName().endsWith(".zip") || file
                                     .getName().endsWith(".jar"))) {
-                        dirs.add(file.getName());
+                        dirs.add(file.getPath());
                     } else {
                         // Wrong suffix; ignore
                     }
@@ -126,38 +147,111 @@ class CLPath {
      *         null if the class was not found.
      */
 
-    public CLInputStream loadClass(String name) {
-        CLInputStream reader = null;
+    public synchronized CLInputStream loadClass(String name) {
+        if (index == null) {
+            buildIndex();
+        }
+        String fileName = name + ".class";
+        Integer archive = index.get(fileName);
+
+        // Only the directories ahead of the archive holding the class (if
+        // any) might hold it first
+        for (int i : directories) {
+            if (archive != null && i > archive) {
+                break;
+            }
+            File theClass = new File(dirs.get(i), fileName.replace('/',
+                    File.separatorChar));
+            if (theClass.canRead()) {
+                try {
+                    return new CLInputStream(new BufferedInputStream(
+                            new FileInputStream(theClass)));
+                } catch (FileNotFoundException e) {
+                    // Ignore
+                }
+            }
+        }
+        if (archive != null) {
+            try {
+                ZipFile zip = archive(archive);
+                ZipEntry entry = zip == null ? null : zip.getEntry(fileName);
+                if (entry != null) {
+                    return new CLInputStream(zip.getInputStream(entry));
+                }
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Close the zip and jar files opened so far. Streams returned by
+     * loadClass() for classes in them can no longer be read; a later lookup
+     * opens the archives again.
+     */
+
+    public synchronized void close() {
+        for (ZipFile zip : archives.values()) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        archives.clear();
+    }
+
+    /**
+     * Find the directories on the class path, and index the class files in
+     * its zip and jar files.
+     */
+
+    private void buildIndex() {
+        index = new HashMap<String, Integer>();
+        directories = new ArrayList<Integer>();
         for (int i = 0; i < dirs.size(); i++) {
-            String dir = dirs.get(i);
-            File file = new File(dir);
+            File file = new File(dirs.get(i));
             if (file.isDirectory()) {
-                File theClass = new File(dir, name.replace('/',
-                        File.separatorChar)
-                        + ".class");
-                if (theClass.canRead()) {
-                    try {
-                        reader = new CLInputStream(new BufferedInputStream(
-                                new FileInputStream(theClass)));
-                    } catch (FileNotFoundException e) {
-                        // Ignore
-                    }
-                }
+                directories.add(i);
             } else if (file.isFile()) {
-                try {
-                    ZipFile zip = new ZipFile(dir);
-                    ZipEntry entry = zip.getEntry(name + ".class");
-                    if (entry != null) {
-                        reader = new CLInputStream(zip.getInputStream(entry));
+                ZipFile zip = archive(i);
+                if (zip == null) {
+                    continue;
+                }
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    String entry = entries.nextElement().getName();
+                    if (entry.endsWith(".class") && !index.containsKey(entry)) {
+                        index.put(entry, i);
                     }
-                } catch (IOException e) {
-                    // Ignore
                 }
             } else {
                 // Bogus entry; ignore
             }
         }
-        return reader;
+    }
+
+    /**
+     * Return the zip or jar file at the specified position on the class path,
+     * opening it if it is not open already.
+     * 
+     * @param i
+     *            position of the archive on the class path.
+     * @return the archive, or null if it cannot be opened.
+     */
+
+    private ZipFile archive(int i) {
+        ZipFile zip = archives.get(i);
+        if (zip == null) {
+            try {
+                zip = new ZipFile(dirs.get(i));
+                archives.put(i, zip);
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        return zip;
     }
 
 }
@@ -8,8 +8,13 @@ package jminusminus;
 
 abstract class JAST {
 
-    /** Current compilation unit (set in JCompilationUnit()). */
-    public static JCompilationUnit compilationUnit;
+    /**
+     * Compilation unit being compiled by the current thread (set in
+     * JCompilationUnit()). A compilation unit is compiled start to finish on a
+     * single thread, so keeping one per thread allows several units to be
+     * compiled in parallel.
+     */
+    private static ThreadLocal<JCompilationUnit> compilationUnit = new ThreadLocal<JCompilationUnit>();
 
     /** Line in which the source for the AST was found. */
     protected int line;
@@ -25,6 +30,27 @@ abstract class JAST {
         this.line = line;
     }
 
+    /**
+     * Return the compilation unit being compiled by the current thread.
+     * 
+     * @return the current compilation unit.
+     */
+
+    public static JCompilationUnit compilationUnit() {
+        return compilationUnit.get();
+    }
+
+    /**
+     * Make the specified compilation unit the current one for this thread.
+     * 
+     * @param unit
+     *            the compilation unit.
+     */
+
+    protected static void setCompilationUnit(JCompilationUnit unit) {
+        compilationUnit.set(unit);
+    }
+
     /**
      * Return the line in which the source for the AST was found.
      * 
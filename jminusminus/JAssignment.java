@@ -63,7 +63,7 @@ class JAssignOp extends JAssignment {
 
 	public JExpression analyze(Context context) {
 		if (!(lhs instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line(), "Illegal lhs for assignment");
+			JAST.compilationUnit().reportSemanticError(line(), "Illegal lhs for assignment");
 		} else {
 			lhs = (JExpression) ((JLhs) lhs).analyzeLhs(context);
 		}
@@ -136,7 +136,7 @@ class JPlusAssignOp extends JAssignment {
 
 	public JExpression analyze(Context context) {
 		if (!(lhs instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line(), "Illegal lhs for assignment");
+			JAST.compilationUnit().reportSemanticError(line(), "Illegal lhs for assignment");
 			return this;
 		} else {
 			lhs = (JExpression) ((JLhs) lhs).analyzeLhs(context);
@@ -152,7 +152,7 @@ class JPlusAssignOp extends JAssignment {
 			rhs = (new JStringConcatenationOp(line, lhs, rhs)).analyze(context);
 			type = Type.STRING;
 		} else {
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid lhs type for +=: " + lhs.type());
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid lhs type for +=: " + lhs.type());
 		}
 		return this;
 	}
@@ -223,7 +223,7 @@ class JMinusAssignOp extends JAssignment {
 
 	public JExpression analyze(Context context) {
 		if (!(lhs instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line(), "Illegal lhs for assignment");
+			JAST.compilationUnit().reportSemanticError(line(), "Illegal lhs for assignment");
 			return this;
 		} else {
 			lhs = (JExpression) ((JLhs) lhs).analyzeLhs(context);
@@ -236,7 +236,7 @@ class JMinusAssignOp extends JAssignment {
 			rhs.type().mustMatchExpected(line(), Type.DOUBLE);
 			type = Type.DOUBLE;
 		} else {
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid lhs type for -=: " + lhs.type());
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid lhs type for -=: " + lhs.type());
 		}
 		return this;
 	}
@@ -305,7 +305,7 @@ class JStarAssignOp extends JAssignment {
 
 	public JExpression analyze(Context context) {
 		if (!(lhs instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line(), "Illegal lhs for assignment");
+			JAST.compilationUnit().reportSemanticError(line(), "Illegal lhs for assignment");
 			return this;
 		} else {
 			lhs = (JExpression) ((JLhs) lhs).analyzeLhs(context);
@@ -318,7 +318,7 @@ class JStarAssignOp extends JAssignment {
 			rhs.type().mustMatchExpected(line(), Type.DOUBLE);
 			type = Type.DOUBLE;
 		} else {
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid lhs type for *=: " + lhs.type());
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid lhs type for *=: " + lhs.type());
 		}
 		return this;
 	}
@@ -387,7 +387,7 @@ class JDivAssignOp extends JAssignment {
 
 	public JExpression analyze(Context context) {
 		if (!(lhs instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line(), "Illegal lhs for assignment");
+			JAST.compilationUnit().reportSemanticError(line(), "Illegal lhs for assignment");
 			return this;
 		} else {
 			lhs = (JExpression) ((JLhs) lhs).analyzeLhs(context);
@@ -400,7 +400,7 @@ class JDivAssignOp extends JAssignment {
 			rhs.type().mustMatchExpected(line(), Type.DOUBLE);
 			type = Type.DOUBLE;
 		} else {
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid lhs type for /=: " + lhs.type());
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid lhs type for /=: " + lhs.type());
 		}
 		return this;
 	}
@@ -468,7 +468,7 @@ class JRemAssignOp extends JAssignment {
 
 	public JExpression analyze(Context context) {
 		if (!(lhs instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line(), "Illegal lhs for assignment");
+			JAST.compilationUnit().reportSemanticError(line(), "Illegal lhs for assignment");
 			return this;
 		} else {
 			lhs = (JExpression) ((JLhs) lhs).analyzeLhs(context);
@@ -478,7 +478,7 @@ class JRemAssignOp extends JAssignment {
 			rhs.type().mustMatchExpected(line(), Type.INT);
 			type = Type.INT;
 		} else {
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid lhs type for /=: " + lhs.type());
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid lhs type for /=: " + lhs.type());
 		}
 		return this;
 	}
@@ -65,6 +65,40 @@ abstract class JBinaryExpression extends JExpression {
         p.printf("</JBinaryExpression>\n");
     }
 
+    /**
+     * Return a literal for the value of this expression if its operands are
+     * constants (see JExpression.constantValue()) and fold() can compute the
+     * value; otherwise, return this.
+     * 
+     * @param context
+     *            context in which names are resolved.
+     * @return the folded (or same) AST subtree.
+     */
+
+    protected JExpression fold(Context context) {
+        Object lhsValue = lhs.constantValue();
+        Object rhsValue = rhs.constantValue();
+        if (lhsValue == null || rhsValue == null) {
+            return this;
+        }
+        return literal(fold(lhsValue, rhsValue), context);
+    }
+
+    /**
+     * Return the value of this operation on the specified constant operands,
+     * or null if it is not to be computed at compile time, as by default.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        return null;
+    }
+
 }
 
 /**
@@ -114,10 +148,30 @@ class JPlusOp extends JBinaryExpression {
             type = Type.DOUBLE;
         } else {
             type = Type.ANY;
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Invalid operand types for +");
         }
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the sum of the constant operands if they are both ints or both
+     * doubles, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue + (Integer) rhsValue;
+        } else if (lhsValue instanceof Double && rhsValue instanceof Double) {
+            return (Double) lhsValue + (Double) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -184,10 +238,30 @@ class JSubtractOp extends JBinaryExpression {
             type = Type.DOUBLE;
         } else {
             type = Type.ANY;
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Invalid operand types for -");
         }
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the difference of the constant operands if they are both ints or
+     * both doubles, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue - (Integer) rhsValue;
+        } else if (lhsValue instanceof Double && rhsValue instanceof Double) {
+            return (Double) lhsValue - (Double) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -252,10 +326,30 @@ class JMultiplyOp extends JBinaryExpression {
             type = Type.DOUBLE;
         } else {
             type = Type.ANY;
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Invalid operand types for *");
         }
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the product of the constant operands if they are both ints or
+     * both doubles, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue * (Integer) rhsValue;
+        } else if (lhsValue instanceof Double && rhsValue instanceof Double) {
+            return (Double) lhsValue * (Double) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -320,10 +414,32 @@ class JDivideOp extends JBinaryExpression {
             type = Type.DOUBLE;
         } else {
             type = Type.ANY;
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Invalid operand types for /");
         }
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the quotient of the constant operands if they are both doubles,
+     * or both ints and the divisor is not zero (the division must throw at run
+     * time then); null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer
+                && (Integer) rhsValue != 0) {
+            return (Integer) lhsValue / (Integer) rhsValue;
+        } else if (lhsValue instanceof Double && rhsValue instanceof Double) {
+            return (Double) lhsValue / (Double) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -385,7 +501,26 @@ class JRemainderOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the remainder of the constant operands if they are both ints and
+     * the divisor is not zero; null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer
+                && (Integer) rhsValue != 0) {
+            return (Integer) lhsValue % (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -443,7 +578,25 @@ class JArithRightShiftOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the lhs shifted by the rhs if both constant operands are ints,
+     * and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue >> (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -501,7 +654,25 @@ class JArithLeftShiftOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the lhs shifted by the rhs if both constant operands are ints,
+     * and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue << (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -559,7 +730,25 @@ class JLogicRightShiftOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the lhs shifted by the rhs if both constant operands are ints,
+     * and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue >>> (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -617,7 +806,25 @@ class JAndOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the bitwise and of the constant operands if they are both ints,
+     * and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue & (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -675,7 +882,25 @@ class JExclusiveOrOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the bitwise exclusive or of the constant operands if they are both
+     * ints, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue ^ (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
@@ -733,7 +958,25 @@ class JInclusiveOrOp extends JBinaryExpression {
         lhs.type().mustMatchExpected(line(), Type.INT);
         rhs.type().mustMatchExpected(line(), Type.INT);
         type = Type.INT;
-        return this;
+        return fold(context);
+    }
+
+    /**
+     * Return the bitwise inclusive or of the constant operands if they are both
+     * ints, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue | (Integer) rhsValue;
+        }
+        return null;
     }
 
     /**
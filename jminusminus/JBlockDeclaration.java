@@ -81,7 +81,7 @@ class JBlockDeclaration extends JAST implements JMember {
 
     public void preAnalyze(Context context, CLEmitter partial) {
     	if (isAbstract || isPublic || isPrivate || isProtected) {
-    		JAST.compilationUnit.reportSemanticError(line(),
+    		JAST.compilationUnit().reportSemanticError(line(),
                     "bad modifier");
     	}
     }
@@ -90,7 +90,29 @@ class JEqualOp extends JBooleanBinaryExpression {
 		rhs = (JExpression) rhs.analyze(context);
 		lhs.type().mustMatchExpected(line(), rhs.type());
 		type = Type.BOOLEAN;
-		return this;
+		return fold(context);
+	}
+
+	/**
+	 * Return whether the constant operands are equal if they are both ints,
+	 * doubles, booleans or chars, and null otherwise.
+	 * 
+	 * @param lhsValue
+	 *            value of the lhs operand.
+	 * @param rhsValue
+	 *            value of the rhs operand.
+	 * @return the value, or null.
+	 */
+
+	protected Object fold(Object lhsValue, Object rhsValue) {
+		if (lhsValue instanceof Double && rhsValue instanceof Double) {
+			return ((Double) lhsValue).doubleValue() == ((Double) rhsValue)
+					.doubleValue();
+		} else if (lhsValue instanceof String
+				|| lhsValue.getClass() != rhsValue.getClass()) {
+			return null;
+		}
+		return lhsValue.equals(rhsValue);
 	}
 
 	/**
@@ -156,6 +178,27 @@ class JLogicalAndOp extends JBooleanBinaryExpression {
 		lhs.type().mustMatchExpected(line(), Type.BOOLEAN);
 		rhs.type().mustMatchExpected(line(), Type.BOOLEAN);
 		type = Type.BOOLEAN;
+		return fold(context);
+	}
+
+	/**
+	 * A constant lhs decides the value (false), or leaves it to the rhs
+	 * (true); a constant true rhs leaves it to the lhs.
+	 * 
+	 * @param context
+	 *            context in which names are resolved.
+	 * @return the folded (or same) AST subtree.
+	 */
+
+	protected JExpression fold(Context context) {
+		Object lhsValue = lhs.constantValue();
+		if (Boolean.FALSE.equals(lhsValue)) {
+			return literal(false, context);
+		} else if (Boolean.TRUE.equals(lhsValue)) {
+			return rhs;
+		} else if (Boolean.TRUE.equals(rhs.constantValue())) {
+			return lhs;
+		}
 		return this;
 	}
 
@@ -224,6 +267,27 @@ class JLogicalOROp extends JBooleanBinaryExpression {
 		lhs.type().mustMatchExpected(line(), Type.BOOLEAN);
 		rhs.type().mustMatchExpected(line(), Type.BOOLEAN);
 		type = Type.BOOLEAN;
+		return fold(context);
+	}
+
+	/**
+	 * A constant lhs decides the value (true), or leaves it to the rhs
+	 * (false); a constant false rhs leaves it to the lhs.
+	 * 
+	 * @param context
+	 *            context in which names are resolved.
+	 * @return the folded (or same) AST subtree.
+	 */
+
+	protected JExpression fold(Context context) {
+		Object lhsValue = lhs.constantValue();
+		if (Boolean.TRUE.equals(lhsValue)) {
+			return literal(true, context);
+		} else if (Boolean.FALSE.equals(lhsValue)) {
+			return rhs;
+		} else if (Boolean.FALSE.equals(rhs.constantValue())) {
+			return lhs;
+		}
 		return this;
 	}
 
@@ -141,8 +141,8 @@ class JClassDeclaration extends JAST implements JTypeDecl {
      */
 
     public void declareThisType(Context context) {
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ? name
-                : JAST.compilationUnit.packageName() + "/" + name;
+        String qualifiedName = JAST.compilationUnit().packageName() == "" ? name
+                : JAST.compilationUnit().packageName() + "/" + name;
         CLEmitter partial = new CLEmitter(false);
         ArrayList StringInterfaces = new ArrayList<String>();
         partial.addClass(mods, qualifiedName, Type.OBJECT.jvmName(), null,
@@ -177,7 +177,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         
        for (Type inter : superInterfaces) {
     	   if(!inter.isInterface()) {
-    		   JAST.compilationUnit.reportSemanticError(line,
+    		   JAST.compilationUnit().reportSemanticError(line,
                        "%s is not an interface", inter.toString());
     	   }
        }
@@ -187,7 +187,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         // violated, so we can't defer these checks to analyze()
         thisType.checkAccess(line, superType);
         if (superType.isFinal()) {
-            JAST.compilationUnit.reportSemanticError(line,
+            JAST.compilationUnit().reportSemanticError(line,
                     "Cannot extend a final type: %s", superType.toString());
         }
 
@@ -195,8 +195,8 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         CLEmitter partial = new CLEmitter(false);
 
         // Add the class header to the partial class
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ? name
-                : JAST.compilationUnit.packageName() + "/" + name;
+        String qualifiedName = JAST.compilationUnit().packageName() == "" ? name
+                : JAST.compilationUnit().packageName() + "/" + name;
         ArrayList<String> stringInterfaces = new ArrayList<String>();
         for(Type inter : superInterfaces) {
         	stringInterfaces.add(inter.jvmName());
@@ -222,7 +222,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         // the
         // representation for this type
         Type id = this.context.lookupType(name);
-        if (id != null && !JAST.compilationUnit.errorHasOccurred()) {
+        if (id != null && !JAST.compilationUnit().errorHasOccurred()) {
             id.setClassRep(partial.toClass());
         }
     }
@@ -246,7 +246,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
 
         String int_methods = thisType.allInstanceMethods();
         if(int_methods != null)
-        	JAST.compilationUnit.reportSemanticError(line,
+        	JAST.compilationUnit().reportSemanticError(line,
                     "The following methods%s from implemented "
                     + "interface are not overwrited",int_methods);
 
@@ -282,7 +282,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
             for (Method method : thisType.abstractMethods()) {
                 methods += "\n" + method;
             }
-            JAST.compilationUnit.reportSemanticError(line,
+            JAST.compilationUnit().reportSemanticError(line,
                     "Class must be declared abstract since it defines "
                             + "the following abstract methods: %s", methods);
 
@@ -300,8 +300,8 @@ class JClassDeclaration extends JAST implements JTypeDecl {
 
     public void codegen(CLEmitter output) {
         // The class header
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ? name
-                : JAST.compilationUnit.packageName() + "/" + name;
+        String qualifiedName = JAST.compilationUnit().packageName() == "" ? name
+                : JAST.compilationUnit().packageName() + "/" + name;
         ArrayList<String> stringInterfaces = new ArrayList<String>();
         for(Type inter : superInterfaces) {
         	stringInterfaces.add(inter.jvmName());
@@ -45,7 +45,7 @@ abstract class JComparison extends JBooleanBinaryExpression {
         lhs.type().mustMatchOneOf(line(), types);
         rhs.type().mustMatchExpected(line(), lhs.type());
         type = Type.BOOLEAN;
-        return this;
+        return fold(context);
     }
 
 }
@@ -74,6 +74,26 @@ class JGreaterThanOp extends JComparison {
         super(line, ">", lhs, rhs);
     }
 
+    /**
+     * Return whether the lhs is greater than the rhs if the constant operands
+     * are both ints or both doubles, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue > (Integer) rhsValue;
+        } else if (lhsValue instanceof Double && rhsValue instanceof Double) {
+            return (Double) lhsValue > (Double) rhsValue;
+        }
+        return null;
+    }
+
     /**
      * Branching code generation for > operation.
      * 
@@ -120,6 +140,26 @@ class JLessEqualOp extends JComparison {
         super(line, "<=", lhs, rhs);
     }
 
+    /**
+     * Return whether the lhs is less than or equal to the rhs if the constant
+     * operands are both ints or both doubles, and null otherwise.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value, or null.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        if (lhsValue instanceof Integer && rhsValue instanceof Integer) {
+            return (Integer) lhsValue <= (Integer) rhsValue;
+        } else if (lhsValue instanceof Double && rhsValue instanceof Double) {
+            return (Double) lhsValue <= (Double) rhsValue;
+        }
+        return null;
+    }
+
     /**
      * Branching code generation for <= operation.
      * 
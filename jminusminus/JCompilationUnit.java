@@ -89,7 +89,7 @@ class JCompilationUnit extends JAST {
         this.imports = imports;
         this.typeDeclarations = typeDeclarations;
         clFiles = new ArrayList<CLFile>();
-        compilationUnit = this;
+        setCompilationUnit(this);
     }
 
     /**
@@ -126,9 +126,11 @@ class JCompilationUnit extends JAST {
     public void reportSemanticError(int line, String message,
             Object... arguments) {
         isInError = true;
-        System.err.printf("%s:%d: ", fileName, line);
-        System.err.printf(message, arguments);
-        System.err.println();
+
+        // Print the whole message at once, so that messages from units
+        // compiled in parallel are not interleaved
+        System.err.printf("%s:%d: %s\n", fileName, line, String.format(
+                message, arguments));
     }
 
     /**
@@ -151,7 +153,7 @@ class JCompilationUnit extends JAST {
                 Class<?> classRep = Class.forName(imported.toString());
                 context.addType(imported.line(), Type.typeFor(classRep));
             } catch (Exception e) {
-                JAST.compilationUnit.reportSemanticError(imported.line(),
+                JAST.compilationUnit().reportSemanticError(imported.line(),
                         "Unable to find %s", imported.toString());
             }
         }
@@ -113,6 +113,11 @@ class JConditionalExprOp extends JConditionalExpression {
         rexp = (JExpression) rexp.analyze(context);
         lexp.type().mustMatchExpected(line(), rexp.type());
         type = lexp.type();
+        Object value = condition.constantValue();
+        if (value instanceof Boolean) {
+            // A constant condition picks one of the expressions
+            return (Boolean) value ? lexp : rexp;
+        }
         return this;
     }
 
@@ -59,10 +59,10 @@ class JConstructorDeclaration extends JMethodDeclaration implements JMember {
     public void preAnalyze(Context context, CLEmitter partial) {
         super.preAnalyze(context, partial);
         if (isStatic) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Constructor cannot be declared static");
         } else if (isAbstract) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Constructor cannot be declared abstract");
         }
         if (body.statements().size() > 0
@@ -123,7 +123,7 @@ class JConstructorDeclaration extends JMethodDeclaration implements JMember {
             		for(Type exp : exceptions) 
                 		if(exp.equals(throwed)) found = true;
             		if(!found) {
-            			JAST.compilationUnit.reportSemanticError(line(),
+            			JAST.compilationUnit().reportSemanticError(line(),
             				    "Exception throwed but not declared as throws");
             		}
         		}
@@ -53,7 +53,7 @@ class JExceptionThrow extends JStatement {
     	name = name.resolve(context);
     	exception = (JNewOp) exception.analyze(context);
         if(!(Throwable.class.isAssignableFrom(exception.type().classRep()))) {
-        	JAST.compilationUnit.reportSemanticError(line(),
+        	JAST.compilationUnit().reportSemanticError(line(),
 				    "Throwed parameter must be throwable");
         }
         return this;
@@ -64,6 +64,57 @@ abstract class JExpression extends JStatement {
 
     public abstract JExpression analyze(Context context);
 
+    /**
+     * Return the value of this expression if it is a constant, ie, a literal
+     * or a negated int literal (the way a negative int is written); null
+     * otherwise. The value is an Integer, Double, Boolean, Character or String.
+     * 
+     * @return the value of this constant, or null.
+     */
+
+    public Object constantValue() {
+        return null;
+    }
+
+    /**
+     * Return an analyzed AST node for the specified constant value, on the line
+     * of this expression. If there is no literal for the value (it is null,
+     * Integer.MIN_VALUE, or -0.0, which a literal would lose the sign of),
+     * return this expression instead. This is how constant subexpressions are
+     * folded during analysis.
+     * 
+     * @param value
+     *            the constant value.
+     * @param context
+     *            context in which names are resolved.
+     * @return the literal, or this expression.
+     */
+
+    protected JExpression literal(Object value, Context context) {
+        JExpression literal = this;
+        if (value instanceof Integer) {
+            int i = (Integer) value;
+            if (i >= 0) {
+                literal = new JLiteralInt(line, Integer.toString(i));
+            } else if (i != Integer.MIN_VALUE) {
+                literal = new JNegateOp(line, new JLiteralInt(line, Integer
+                        .toString(-i)));
+            }
+        } else if (value instanceof Double) {
+            if (Double.doubleToRawLongBits((Double) value) != Double
+                    .doubleToRawLongBits(-0.0)) {
+                literal = new JLiteralDouble(line, value.toString());
+            }
+        } else if (value instanceof Boolean) {
+            literal = (Boolean) value ? new JLiteralTrue(line)
+                    : new JLiteralFalse(line);
+        } else if (value instanceof String) {
+            literal = new JLiteralString(line, "\""
+                    + Util.escape((String) value) + "\"");
+        }
+        return literal == this ? this : literal.analyze(context);
+    }
+
     /**
      * Perform (short-circuit) code generation for a boolean expression, given
      * the code emitter, a target label, and whether we branch to that label on
@@ -92,8 +92,8 @@ class JInterfaceDeclaration extends JAST implements JTypeDecl {
      */
 
     public void declareThisType(Context context) {
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ? name
-                : JAST.compilationUnit.packageName() + "/" + name;
+        String qualifiedName = JAST.compilationUnit().packageName() == "" ? name
+                : JAST.compilationUnit().packageName() + "/" + name;
         CLEmitter partial = new CLEmitter(false);
         mods.add("interface");
         partial.addClass(mods, qualifiedName, Type.OBJECT.jvmName(), null,
@@ -114,7 +114,7 @@ class JInterfaceDeclaration extends JAST implements JTypeDecl {
     public void preAnalyze(Context context) {
     	
         if(mods.contains("final")) {
-        	JAST.compilationUnit.reportSemanticError(line,
+        	JAST.compilationUnit().reportSemanticError(line,
                     "Interface cannot be a final type");
         }
 
@@ -131,7 +131,7 @@ class JInterfaceDeclaration extends JAST implements JTypeDecl {
         
         for (Type inter : superInterfaces) {
      	   if(!inter.isInterface()) {
-     		   JAST.compilationUnit.reportSemanticError(line,
+     		   JAST.compilationUnit().reportSemanticError(line,
                         "%s is not an interface", inter.toString());
      	   }
         }
@@ -140,8 +140,8 @@ class JInterfaceDeclaration extends JAST implements JTypeDecl {
         CLEmitter partial = new CLEmitter(false);
 
         // Add the class header to the partial class
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ? name
-                : JAST.compilationUnit.packageName() + "/" + name;
+        String qualifiedName = JAST.compilationUnit().packageName() == "" ? name
+                : JAST.compilationUnit().packageName() + "/" + name;
         ArrayList<String> stringInterfaces = new ArrayList<String>();
         for(Type inter : superInterfaces) {
         	stringInterfaces.add(inter.jvmName());
@@ -164,7 +164,7 @@ class JInterfaceDeclaration extends JAST implements JTypeDecl {
         // the
         // representation for this type
         Type id = this.context.lookupType(name);
-        if (id != null && !JAST.compilationUnit.errorHasOccurred()) {
+        if (id != null && !JAST.compilationUnit().errorHasOccurred()) {
             id.setClassRep(partial.toClass());
         }
     }
@@ -197,8 +197,8 @@ class JInterfaceDeclaration extends JAST implements JTypeDecl {
      */
 
     public void codegen(CLEmitter output) {
-    	String qualifiedName = JAST.compilationUnit.packageName() == "" ? name
-                : JAST.compilationUnit.packageName() + "/" + name;
+    	String qualifiedName = JAST.compilationUnit().packageName() == "" ? name
+                : JAST.compilationUnit().packageName() + "/" + name;
     	ArrayList<String> stringInterfaces = new ArrayList<String>();
         for(Type inter : superInterfaces) {
         	stringInterfaces.add(inter.jvmName());
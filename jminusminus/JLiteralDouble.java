@@ -41,6 +41,14 @@ class JLiteralDouble extends JExpression {
         return this;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public Object constantValue() {
+        return Double.parseDouble(text);
+    }
+
     /**
      * Generating code for an double literal means generating code to push it onto
      * the stack.
@@ -41,6 +41,14 @@ class JLiteralInt extends JExpression {
         return this;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public Object constantValue() {
+        return Integer.parseInt(text);
+    }
+
     /**
      * Generating code for an int literal means generating code to push it onto
      * the stack.
@@ -34,6 +34,14 @@ class JLiteralTrue extends JExpression {
         return this;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public Object constantValue() {
+        return true;
+    }
+
     /**
      * Generating code for a boolean literal means generating code to push it
      * onto the stack.
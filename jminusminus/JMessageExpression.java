@@ -96,7 +96,7 @@ class JMessageExpression extends JExpression {
                     target = expr;
                 } else {
                     // Can't even happen syntactically
-                    JAST.compilationUnit.reportSemanticError(line(),
+                    JAST.compilationUnit().reportSemanticError(line(),
                             "Badly formed suffix");
                 }
             }
@@ -126,7 +126,7 @@ class JMessageExpression extends JExpression {
         } else {
             target = (JExpression) target.analyze(context);
             if (target.type().isPrimitive()) {
-                JAST.compilationUnit.reportSemanticError(line(),
+                JAST.compilationUnit().reportSemanticError(line(),
                         "cannot invoke a message on a primitive type:"
                                 + target.type());
             }
@@ -135,7 +135,7 @@ class JMessageExpression extends JExpression {
         // Find appropriate Method for this message expression
         method = target.type().methodFor(messageName, argTypes);
         if (method == null) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "Cannot find method for: "
                             + Type.signatureFor(messageName, argTypes));
             type = Type.ANY;
@@ -147,7 +147,7 @@ class JMessageExpression extends JExpression {
             if (!method.isStatic()) {
                 if (target instanceof JVariable
                         && ((JVariable) target).iDefn() instanceof TypeNameDefn) {
-                    JAST.compilationUnit
+                    JAST.compilationUnit()
                             .reportSemanticError(
                                     line(),
                                     "Non-static method "
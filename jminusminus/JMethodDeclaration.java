@@ -47,6 +47,12 @@ class JMethodDeclaration
     /** Is method private. */
     protected boolean isPrivate;
 
+    /**
+     * Whether analyze() has been done in an earlier compile, its results
+     * still holding (see MemberCache).
+     */
+    protected boolean isAnalyzed;
+
     /**
      * Construct an AST node for a method declaration given the
      * line number, method name, return type, formal parameters,
@@ -95,6 +101,25 @@ class JMethodDeclaration
     	}
     }
 
+    /**
+     * Is this method analyzed already, from an earlier compile?
+     * 
+     * @return true or false.
+     */
+
+    public boolean isAnalyzed() {
+        return isAnalyzed;
+    }
+
+    /**
+     * Record that this method is analyzed, so that it need not be analyzed in
+     * a later compile.
+     */
+
+    public void setAnalyzed() {
+        isAnalyzed = true;
+    }
+
     /**
      * Declare this method in the parent (class) context.
      * 
@@ -123,16 +148,16 @@ class JMethodDeclaration
 
         // Check proper local use of abstract
         if (isAbstract && body != null) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                 "abstract method cannot have a body");
         } else if (body == null && !isAbstract) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                 "Method with null body must be abstarct");
         } else if (isAbstract && isPrivate) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                 "private method cannot be declared abstract");
         } else if (isAbstract && isStatic) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                 "static method cannot be declared abstract");
         }
 
@@ -161,6 +186,9 @@ class JMethodDeclaration
      */
 
     public JAST analyze(Context context) {
+        if (isAnalyzed) {
+            return this;
+        }
         MethodContext methodContext = 
 	    new MethodContext(context, isStatic, returnType);
 	this.context = methodContext;
@@ -184,7 +212,7 @@ class JMethodDeclaration
         if (body != null) {
             body = body.analyze(this.context);
 		    if (returnType!=Type.VOID && ! methodContext.methodHasReturn()){
-			JAST.compilationUnit.reportSemanticError(line(),
+			JAST.compilationUnit().reportSemanticError(line(),
 			    "Non-void method must have a return statement");
 		    }
         }
@@ -197,7 +225,7 @@ class JMethodDeclaration
             		for(Type exp : exceptions) 
                 		if(exp.equals(throwed)) found = true;
             		if(!found) {
-            			JAST.compilationUnit.reportSemanticError(line(),
+            			JAST.compilationUnit().reportSemanticError(line(),
             				    "Exception throwed but not declared as throws");
             		}
         		}
@@ -2,6 +2,7 @@
 
 package jminusminus;
 
+import java.util.ArrayList;
 import static jminusminus.CLConstants.*;
 
 /**
@@ -33,7 +34,8 @@ class JStringConcatenationOp extends JBinaryExpression {
 
     /**
      * Analysis is simple here. The operands have already been analyzed (in
-     * JPlusOp) so we simply set the result type.
+     * JPlusOp) so we simply set the result type, and fold the concatenation if
+     * both operands are constants.
      * 
      * @param context
      *            context in which names are resolved.
@@ -42,14 +44,33 @@ class JStringConcatenationOp extends JBinaryExpression {
 
     public JExpression analyze(Context context) {
         type = Type.STRING;
-        return this;
+        return fold(context);
     }
 
     /**
-     * Code generation generates code for creating a StringBuilder atop the
-     * runtime stack, appending the operands (which might contain nested
-     * concatenations; these are handled by cascadingCodegen()), and then for
-     * converting the StringBuilder to a String.
+     * Return the concatenation of the constant operands, each converted to a
+     * string as StringBuilder.append() would.
+     * 
+     * @param lhsValue
+     *            value of the lhs operand.
+     * @param rhsValue
+     *            value of the rhs operand.
+     * @return the value.
+     */
+
+    protected Object fold(Object lhsValue, Object rhsValue) {
+        return lhsValue.toString() + rhsValue.toString();
+    }
+
+    /**
+     * Code generation first gathers the operands (which might contain nested
+     * concatenations; these are flattened by gatherOperands()), merging
+     * adjacent constants into a single string and dropping empty ones. A lone
+     * operand left over is then simply loaded (if a constant) or converted
+     * with String.valueOf(). Otherwise we generate code for creating a
+     * StringBuilder atop the runtime stack, with room for the constant parts
+     * and some more, appending the parts, and then for converting the
+     * StringBuilder to a String.
      * 
      * @param output
      *            the code emitter (basically an abstraction for producing the
@@ -57,52 +78,94 @@ class JStringConcatenationOp extends JBinaryExpression {
      */
 
     public void codegen(CLEmitter output) {
-        // Firstly, create a StringBuilder
-        output.addReferenceInstruction(NEW, "java/lang/StringBuilder");
-        output.addNoArgInstruction(DUP);
-        output.addMemberAccessInstruction(INVOKESPECIAL,
-                "java/lang/StringBuilder", "<init>", "()V");
-
-        // Lhs and Rhs
-        nestedCodegen(output);
-
-        // Finally, make into a String
-        output.addMemberAccessInstruction(INVOKEVIRTUAL,
-                "java/lang/StringBuilder", "toString", "()Ljava/lang/String;");
+        ArrayList<JExpression> operands = new ArrayList<JExpression>();
+        gatherOperands(operands);
+
+        // The parts are the operands, with runs of constants merged into
+        // Strings
+        ArrayList<Object> parts = new ArrayList<Object>();
+        int length = 0;
+        for (JExpression operand : operands) {
+            Object value = operand.constantValue();
+            int last = parts.size() - 1;
+            if (value == null) {
+                parts.add(operand);
+            } else if (last >= 0 && parts.get(last) instanceof String) {
+                parts.set(last, parts.get(last) + value.toString());
+                length += value.toString().length();
+            } else if (!value.toString().equals("")) {
+                parts.add(value.toString());
+                length += value.toString().length();
+            }
+        }
+
+        if (parts.isEmpty()) {
+            output.addLDCInstruction("");
+        } else if (parts.size() == 1 && parts.get(0) instanceof String) {
+            output.addLDCInstruction((String) parts.get(0));
+        } else if (parts.size() == 1) {
+            JExpression operand = (JExpression) parts.get(0);
+            String argumentType = operand.type().argumentTypeForAppend();
+            if (operand.type() == Type.STRING) {
+                // There's no String.valueOf(String); valueOf(Object) will do
+                argumentType = "Ljava/lang/Object;";
+            }
+            operand.codegen(output);
+            output.addMemberAccessInstruction(INVOKESTATIC, "java/lang/String",
+                    "valueOf", "(" + argumentType + ")Ljava/lang/String;");
+        } else {
+            // Firstly, create a StringBuilder of the right capacity, give
+            // or take the non-constant parts
+            output.addReferenceInstruction(NEW, "java/lang/StringBuilder");
+            output.addNoArgInstruction(DUP);
+            new JLiteralInt(line, Integer.toString(length + 16))
+                    .codegen(output);
+            output.addMemberAccessInstruction(INVOKESPECIAL,
+                    "java/lang/StringBuilder", "<init>", "(I)V");
+
+            // Append the parts
+            for (Object part : parts) {
+                String argumentType = "Ljava/lang/String;";
+                if (part instanceof String) {
+                    output.addLDCInstruction((String) part);
+                } else {
+                    ((JExpression) part).codegen(output);
+                    argumentType = ((JExpression) part).type()
+                            .argumentTypeForAppend();
+                }
+                output.addMemberAccessInstruction(INVOKEVIRTUAL,
+                        "java/lang/StringBuilder", "append", "("
+                                + argumentType + ")Ljava/lang/StringBuilder;");
+            }
+
+            // Finally, make into a String
+            output.addMemberAccessInstruction(INVOKEVIRTUAL,
+                    "java/lang/StringBuilder", "toString",
+                    "()Ljava/lang/String;");
+        }
     }
 
     /**
-     * Like a codegen() but we needn't (and shouldn't) create a StringBuilder
-     * nor convert the result to a String, as that will be done in a parent.
+     * Add the operands of this concatenation, and of the concatenations nested
+     * in it, to the specified list, in order.
      * 
-     * @param output
-     *            the code emitter (basically an abstraction for producing the
-     *            .class file).
+     * @param operands
+     *            list of operands.
      */
 
-    void nestedCodegen(CLEmitter output) {
+    void gatherOperands(ArrayList<JExpression> operands) {
         // Lhs
         if (lhs instanceof JStringConcatenationOp) {
-            // This appends lhs
-            ((JStringConcatenationOp) lhs).nestedCodegen(output);
+            ((JStringConcatenationOp) lhs).gatherOperands(operands);
         } else {
-            lhs.codegen(output);
-            output.addMemberAccessInstruction(INVOKEVIRTUAL,
-                    "java/lang/StringBuilder", "append", "("
-                            + lhs.type().argumentTypeForAppend()
-                            + ")Ljava/lang/StringBuilder;");
+            operands.add(lhs);
         }
 
         // Rhs
         if (rhs instanceof JStringConcatenationOp) {
-            // This appends rhs
-            ((JStringConcatenationOp) rhs).nestedCodegen(output);
+            ((JStringConcatenationOp) rhs).gatherOperands(operands);
         } else {
-            rhs.codegen(output);
-            output.addMemberAccessInstruction(INVOKEVIRTUAL,
-                    "java/lang/StringBuilder", "append", "("
-                            + rhs.type().argumentTypeForAppend()
-                            + ")Ljava/lang/StringBuilder;");
+            operands.add(rhs);
         }
     }
 
@@ -73,7 +73,7 @@ class JSuperConstruction extends JExpression {
         }
 
         if (!properUseOfConstructor) {
-            JAST.compilationUnit.reportSemanticError(line(), "super"
+            JAST.compilationUnit().reportSemanticError(line(), "super"
                     + Type.argTypesAsString(argTypes)
                     + " must be first statement in the constructor's body.");
             return this;
@@ -83,14 +83,14 @@ class JSuperConstruction extends JExpression {
         Type superClass = ((JTypeDecl) context.classContext.definition())
                 .thisType().superClass();
         if (superClass == null) {
-            JAST.compilationUnit.reportSemanticError(line,
+            JAST.compilationUnit().reportSemanticError(line,
                     ((JTypeDecl) context.classContext.definition()).thisType()
                             + " has no super class.");
         }
         constructor = superClass.constructorFor(argTypes);
 
         if (constructor == null) {
-            JAST.compilationUnit.reportSemanticError(line(),
+            JAST.compilationUnit().reportSemanticError(line(),
                     "No such constructor: super"
                             + Type.argTypesAsString(argTypes));
 
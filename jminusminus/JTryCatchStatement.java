@@ -96,7 +96,7 @@ class JTryCatchStatement extends JStatement {
         
         for (JFormalParameter param : exception) {
             if(!(Throwable.class.isAssignableFrom(param.type().classRep()))) {
-            	JAST.compilationUnit.reportSemanticError(line(),
+            	JAST.compilationUnit().reportSemanticError(line(),
     				    "Catch parameter must be throwable");
             }
         }
@@ -51,6 +51,34 @@ abstract class JUnaryExpression extends JExpression {
 		p.printf("</JUnaryExpression>\n");
 	}
 
+	/**
+	 * Return a literal for the value of this expression if its operand is a
+	 * constant (see JExpression.constantValue()) and fold() can compute the
+	 * value; otherwise, return this.
+	 * 
+	 * @param context
+	 *            context in which names are resolved.
+	 * @return the folded (or same) AST subtree.
+	 */
+
+	protected JExpression fold(Context context) {
+		Object value = arg.constantValue();
+		return value == null ? this : literal(fold(value), context);
+	}
+
+	/**
+	 * Return the value of this operation on the specified constant operand, or
+	 * null if it is not to be computed at compile time, as by default.
+	 * 
+	 * @param value
+	 *            value of the operand.
+	 * @return the value, or null.
+	 */
+
+	protected Object fold(Object value) {
+		return null;
+	}
+
 }
 
 /**
@@ -90,9 +118,41 @@ class JNegateOp extends JUnaryExpression {
 			type = Type.DOUBLE;
 		} else {
 			type = Type.ANY;
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid argument type for -");
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid argument type for -");
 		}
-		return this;
+		if (arg instanceof JLiteralInt) {
+			// Already as folded as it gets
+			return this;
+		}
+		return fold(context);
+	}
+
+	/**
+	 * A negated int literal is how a negative int constant is written.
+	 * 
+	 * @return the value of this constant, or null.
+	 */
+
+	public Object constantValue() {
+		return arg instanceof JLiteralInt ? fold(arg.constantValue()) : null;
+	}
+
+	/**
+	 * Return the negation of the constant operand if it is an int or a double, and
+	 * null otherwise.
+	 * 
+	 * @param value
+	 *            value of the operand.
+	 * @return the value, or null.
+	 */
+
+	protected Object fold(Object value) {
+		if (value instanceof Integer) {
+			return -(Integer) value;
+		} else if (value instanceof Double) {
+			return -(Double) value;
+		}
+		return null;
 	}
 
 	/**
@@ -106,7 +166,7 @@ class JNegateOp extends JUnaryExpression {
 
 	public void codegen(CLEmitter output) {
 		arg.codegen(output);
-		output.addNoArgInstruction(INEG);
+		output.addNoArgInstruction(type == Type.DOUBLE ? DNEG : INEG);
 	}
 
 }
@@ -144,7 +204,20 @@ class JLogicalNotOp extends JUnaryExpression {
 		arg = (JExpression) arg.analyze(context);
 		arg.type().mustMatchExpected(line(), Type.BOOLEAN);
 		type = Type.BOOLEAN;
-		return this;
+		return fold(context);
+	}
+
+	/**
+	 * Return the logical not of the constant operand if it is a boolean, and
+	 * null otherwise.
+	 * 
+	 * @param value
+	 *            value of the operand.
+	 * @return the value, or null.
+	 */
+
+	protected Object fold(Object value) {
+		return value instanceof Boolean ? !(Boolean) value : null;
 	}
 
 	/**
@@ -213,7 +286,7 @@ class JPostDecrementOp extends JUnaryExpression {
 
 	public JExpression analyze(Context context) {
 		if (!(arg instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line, "Operand to expr-- must have an LValue.");
+			JAST.compilationUnit().reportSemanticError(line, "Operand to expr-- must have an LValue.");
 			type = Type.ANY;
 		} else {
 			arg = (JExpression) arg.analyze(context);
@@ -223,7 +296,7 @@ class JPostDecrementOp extends JUnaryExpression {
 				type = Type.DOUBLE;
 			} else {
 				type = Type.ANY;
-				JAST.compilationUnit.reportSemanticError(line(), "Invalid argument type for expr--");
+				JAST.compilationUnit().reportSemanticError(line(), "Invalid argument type for expr--");
 			}
 		}
 		return this;
@@ -304,7 +377,7 @@ class JPostIncrementOp extends JUnaryExpression {
 
 	public JExpression analyze(Context context) {
 		if (!(arg instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line, "Operand to expr++ must have an LValue.");
+			JAST.compilationUnit().reportSemanticError(line, "Operand to expr++ must have an LValue.");
 			type = Type.ANY;
 		} else {
 			arg = (JExpression) arg.analyze(context);
@@ -314,7 +387,7 @@ class JPostIncrementOp extends JUnaryExpression {
 				type = Type.DOUBLE;
 			} else {
 				type = Type.ANY;
-				JAST.compilationUnit.reportSemanticError(line(), "Invalid argument type for expr++");
+				JAST.compilationUnit().reportSemanticError(line(), "Invalid argument type for expr++");
 			}
 		}
 		return this;
@@ -395,7 +468,7 @@ class JPreIncrementOp extends JUnaryExpression {
 
 	public JExpression analyze(Context context) {
 		if (!(arg instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line, "Operand to ++expr must have an LValue.");
+			JAST.compilationUnit().reportSemanticError(line, "Operand to ++expr must have an LValue.");
 			type = Type.ANY;
 		} else {
 			arg = (JExpression) arg.analyze(context);
@@ -405,7 +478,7 @@ class JPreIncrementOp extends JUnaryExpression {
 				type = Type.DOUBLE;
 			} else {
 				type = Type.ANY;
-				JAST.compilationUnit.reportSemanticError(line(), "Invalid argument type for ++expr");
+				JAST.compilationUnit().reportSemanticError(line(), "Invalid argument type for ++expr");
 			}
 		}
 		return this;
@@ -484,7 +557,7 @@ class JPreDecrementOp extends JUnaryExpression {
 
 	public JExpression analyze(Context context) {
 		if (!(arg instanceof JLhs)) {
-			JAST.compilationUnit.reportSemanticError(line, "Operand to --expr must have an LValue.");
+			JAST.compilationUnit().reportSemanticError(line, "Operand to --expr must have an LValue.");
 			type = Type.ANY;
 		} else {
 			arg = (JExpression) arg.analyze(context);
@@ -494,7 +567,7 @@ class JPreDecrementOp extends JUnaryExpression {
 				type = Type.DOUBLE;
 			} else {
 				type = Type.ANY;
-				JAST.compilationUnit.reportSemanticError(line(), "Invalid argument type for --expr");
+				JAST.compilationUnit().reportSemanticError(line(), "Invalid argument type for --expr");
 			}
 		}
 		return this;
@@ -578,7 +651,20 @@ class JUnaryComplementOp extends JUnaryExpression {
 		arg = (JExpression) arg.analyze(context);
 		arg.type().mustMatchExpected(line(), Type.INT);
 		type = Type.INT;
-		return this;
+		return fold(context);
+	}
+
+	/**
+	 * Return the bitwise complement of the constant operand if it is an int, and
+	 * null otherwise.
+	 * 
+	 * @param value
+	 *            value of the operand.
+	 * @return the value, or null.
+	 */
+
+	protected Object fold(Object value) {
+		return value instanceof Integer ? ~(Integer) value : null;
 	}
 
 	/**
@@ -639,9 +725,27 @@ class JPositiveOp extends JUnaryExpression {
 			type = Type.DOUBLE;
 		} else {
 			type = Type.ANY;
-			JAST.compilationUnit.reportSemanticError(line(), "Invalid argument type for +");
+			JAST.compilationUnit().reportSemanticError(line(), "Invalid argument type for +");
 		}
-		return this;
+		return fold(context);
+	}
+
+	/**
+	 * Return the value of the constant operand if it is an int or a double, and
+	 * null otherwise.
+	 * 
+	 * @param value
+	 *            value of the operand.
+	 * @return the value, or null.
+	 */
+
+	protected Object fold(Object value) {
+		if (value instanceof Integer) {
+			return (Integer) value;
+		} else if (value instanceof Double) {
+			return (Double) value;
+		}
+		return null;
 	}
 
 	/**
@@ -2,14 +2,20 @@
 
 package jminusminus;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 
 /**
  * Driver class for j-- compiler using JavaCC front-end. This is the main entry
  * point for the compiler. The compiler proceeds as follows:
  * 
- * (1) It reads arguments that affects its behavior.
+ * (1) It reads arguments that affects its behavior, and collects the source
+ * files to compile. Source files may be named individually, listed (one per
+ * line) in a file named with an @ prefix, or found by recursively searching a
+ * directory. Steps (2) through (6) are repeated for each source file, all
+ * within the same JVM.
  * 
  * (2) It builds a scanner.
  * 
@@ -37,23 +43,57 @@ public class JavaCCMain {
     /** Whether an error occurred during compilation. */
     private static boolean errorHasOccurred;
 
+    /** Debug option (-t, -p, -pa or -a); empty if none. */
+    private static String debugOption;
+
+    /** Directory in which output files are placed. */
+    private static String outputDir;
+
+    /** Whether SPIM code is to be generated. */
+    private static boolean spimOutput;
+
+    /** Register allocation scheme for SPIM code generation. */
+    private static String registerAllocation;
+
+    /** HIR optimization passes for SPIM code generation. */
+    private static ArrayList<String> optimizations = new ArrayList<String>();
+
+    /** Peephole rules for SPIM code generation. */
+    private static ArrayList<String> peepholeRules = new ArrayList<String>();
+
+    /** Whether JVM code is optimized. */
+    private static boolean jvmOptimization;
+
+    /** Whether register allocation statistics are reported. */
+    private static boolean allocationStats;
+
     /**
      * Entry point.
      */
 
     public static void main(String args[]) {
         String caller = "java jminusminus.JavaCCMain";
-        String sourceFile = "";
-        String debugOption = "";
-        String outputDir = ".";
-        boolean spimOutput = false;
-        String registerAllocation = "";
+        ArrayList<String> sourceFiles = new ArrayList<String>();
+        debugOption = "";
+        outputDir = ".";
+        spimOutput = false;
+        registerAllocation = "";
+        optimizations.clear();
+        peepholeRules.clear();
+        jvmOptimization = false;
+        allocationStats = false;
         errorHasOccurred = false;
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("javaccj--")) {
                 caller = "javaccj--";
             } else if (args[i].endsWith(".java")) {
-                sourceFile = args[i];
+                sourceFiles.add(args[i]);
+            } else if (args[i].startsWith("@") && args[i].length() > 1) {
+                if (!Util.readSourceList(args[i].substring(1),
+                        sourceFiles)) {
+                    errorHasOccurred = true;
+                    return;
+                }
             } else if (args[i].equals("-t") || args[i].equals("-p")
                     || args[i].equals("-pa") || args[i].equals("-a")) {
                 debugOption = args[i];
@@ -69,27 +109,72 @@ public class JavaCCMain {
                     printUsage(caller);
                     return;
                 }
+            } else if (args[i].equals("-O") && (i + 1) < args.length) {
+                if (!Util.select(args[++i], NControlFlowGraph.OPTIMIZATIONS,
+                        optimizations)) {
+                    printUsage(caller);
+                    return;
+                }
+            } else if (args[i].equals("-P") && (i + 1) < args.length) {
+                if (!Util.select(args[++i], NPeephole.RULES,
+                        peepholeRules)) {
+                    printUsage(caller);
+                    return;
+                }
+            } else if (args[i].equals("-Ojvm")) {
+                jvmOptimization = true;
+            } else if (args[i].equals("-stats")) {
+                allocationStats = true;
             } else if (args[i].endsWith("-r") && (i + 1) < args.length) {
                 NPhysicalRegister.MAX_COUNT = Math.min(18, Integer
                         .parseInt(args[++i]));
                 NPhysicalRegister.MAX_COUNT = Math.max(1,
                         NPhysicalRegister.MAX_COUNT);
+            } else if (new File(args[i]).isDirectory()) {
+                Util.findSourceFiles(new File(args[i]), sourceFiles);
             } else {
                 printUsage(caller);
                 return;
             }
         }
-        if (sourceFile.equals("")) {
+        if (sourceFiles.isEmpty()) {
             printUsage(caller);
             return;
         }
 
+        // Compile each source file in turn; an error in one file does
+        // not stop the others from being compiled. Once a file is
+        // compiled, its partial classes are forgotten.
+        for (String sourceFile : sourceFiles) {
+            errorHasOccurred |= compile(sourceFile);
+            Type.discardPartialTypes();
+            MemberIndex.discardPartialIndices();
+            CLEmitter.discardByteClassLoader();
+        }
+        if (allocationStats) {
+            System.err.printf("member indices: %d hits, %d misses\n",
+                    MemberIndex.hits(), MemberIndex.misses());
+        }
+    }
+
+    /**
+     * Compile a single source file, using the options gathered by main().
+     * 
+     * @param sourceFile
+     *            the source file to compile.
+     * @return true if an error occurred while compiling the file; false
+     *         otherwise.
+     */
+
+    private static boolean compile(String sourceFile) {
+        boolean errorHasOccurred = false;
         JavaCCParserTokenManager javaCCScanner = null;
         try {
             javaCCScanner = new JavaCCParserTokenManager(new SimpleCharStream(
                     new FileInputStream(sourceFile), 1, 1));
         } catch (FileNotFoundException e) {
             System.err.println("Error: file " + sourceFile + " not found.");
+            return true;
         }
 
         if (debugOption.equals("-t")) {
@@ -108,7 +193,7 @@ public class JavaCCMain {
                             token.image);
                 }
             } while (token.kind != JavaCCParserConstants.EOF);
-            return;
+            return errorHasOccurred;
         }
 
         // Parse input
@@ -120,44 +205,47 @@ public class JavaCCMain {
             errorHasOccurred |= javaCCParser.errorHasOccurred();
         } catch (ParseException e) {
             System.err.println(e.getMessage());
+            return true;
         }
         if (debugOption.equals("-p")) {
             ast.writeToStdOut(new PrettyPrinter());
-            return;
+            return errorHasOccurred;
         }
         if (errorHasOccurred) {
-            return;
+            return true;
         }
 
         // Do pre-analysis
         ast.preAnalyze();
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        errorHasOccurred |= JAST.compilationUnit().errorHasOccurred();
         if (debugOption.equals("-pa")) {
             ast.writeToStdOut(new PrettyPrinter());
-            return;
+            return errorHasOccurred;
         }
         if (errorHasOccurred) {
-            return;
+            return true;
         }
 
         // Do analysis
         ast.analyze(null);
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        errorHasOccurred |= JAST.compilationUnit().errorHasOccurred();
         if (debugOption.equals("-a")) {
             ast.writeToStdOut(new PrettyPrinter());
-            return;
+            return errorHasOccurred;
         }
         if (errorHasOccurred) {
-            return;
+            return true;
         }
 
         // Generate JVM code
         CLEmitter clEmitter = new CLEmitter(!spimOutput);
         clEmitter.destinationDir(outputDir);
+        clEmitter.optimize(jvmOptimization && !spimOutput);
+        clEmitter.stats(allocationStats && !spimOutput);
         ast.codegen(clEmitter);
         errorHasOccurred |= clEmitter.errorHasOccurred();
         if (errorHasOccurred) {
-            return;
+            return true;
         }
 
         // If SPIM output was asked for, convert the in-memory
@@ -165,11 +253,13 @@ public class JavaCCMain {
         // allocation scheme.
         if (spimOutput) {
             NEmitter nEmitter = new NEmitter(sourceFile, ast.clFiles(),
-                    registerAllocation);
+                    registerAllocation, optimizations, peepholeRules,
+                    allocationStats);
             nEmitter.destinationDir(outputDir);
             nEmitter.write();
             errorHasOccurred |= nEmitter.errorHasOccurred();
         }
+        return errorHasOccurred;
     }
 
     /**
@@ -192,8 +282,11 @@ public class JavaCCMain {
     private static void printUsage(String caller) {
         String usage = "Usage: "
                 + caller
-                + " <options> <source file>\n"
-                + "where possible options include:\n"
+                + " <options> <source files>\n"
+                + "where a source file is a .java file, a directory (searched "
+                + "recursively for .java files),\n"
+                + "or @<file> naming a file that lists source files one per "
+                + "line, and possible options include:\n"
                 + "  -t Only tokenize input and print tokens to STDOUT\n"
                 + "  -p Only parse input and print AST to STDOUT\n"
                 + "  -pa Only parse and pre-analyze input and print "
@@ -201,7 +294,15 @@ public class JavaCCMain {
                 + "  -a Only parse, pre-analyze, and analyze input "
                 + "and print AST to STDOUT\n"
                 + "  -s <naive|linear|graph> Generate SPIM code\n"
+                + "  -O <passes> Comma-separated HIR optimizations for SPIM code "
+                + "(inline, sccp, fold, copy, cse, licm, dce), or all; default = none\n"
                 + "  -r <num> Max. physical registers (1-18) available for allocation; default = 8\n"
+                + "  -P <rules> Comma-separated peephole rules for SPIM code "
+                + "(move, load, jump, branch), or all; default = none\n"
+                + "  -Ojvm Peephole-optimize the JVM code (ignored with -s)\n"
+                + "  -stats Report register allocation time and spills, and "
+                + "peephole rules fired, per method, constant pool sizes per "
+                + "class, and member index hits and misses to STDERR\n"
                 + "  -d <dir> Specify where to place output files; default = .";
         System.out.println(usage);
     }
@@ -3,13 +3,17 @@
 package jminusminus;
 
 import java.io.FileNotFoundException;
-import java.util.Stack;
-import java.util.Vector;
+import java.util.Arrays;
 
 /**
  * A lexical analyzer for j-- that interfaces with the hand-written parser
  * (Parser.java). It provides a backtracking mechanism, and makes use of the
  * underlying hand-written Scanner.
+ * 
+ * The tokens scanned are kept in a buffer, and a position in the input is just
+ * an index into it, so recording a position, returning to it, and moving on to
+ * the next token each take constant time. When no position is recorded, the
+ * tokens already consumed are dropped and the buffer is reused from the start.
  */
 
 class LookaheadScanner {
@@ -17,14 +21,20 @@ class LookaheadScanner {
     /** The underlying hand-written scanner. */
     private Scanner scanner;
 
-    /** Backtracking queue. */
-    private Vector<TokenInfo> backtrackingQueue;
+    /** Buffer of scanned tokens. */
+    private TokenInfo[] tokens;
 
-    /** Token queue. */
-    private Vector<TokenInfo> nextQueue;
+    /** Number of tokens in the buffer. */
+    private int count;
 
-    /** Stack of token queues for nested lookahead. */
-    private Stack<Vector<TokenInfo>> queueStack;
+    /** Index of the current token in the buffer. */
+    private int position;
+
+    /** Stack of recorded positions, for nested lookahead. */
+    private int[] marks;
+
+    /** Number of recorded positions on the stack. */
+    private int depth;
 
     /** Whether we are looking ahead. */
     public boolean isLookingAhead;
@@ -46,9 +56,11 @@ class LookaheadScanner {
 
     public LookaheadScanner(String fileName) throws FileNotFoundException {
         scanner = new Scanner(fileName);
-        backtrackingQueue = new Vector<TokenInfo>();
-        nextQueue = new Vector<TokenInfo>();
-        queueStack = new Stack<Vector<TokenInfo>>();
+        tokens = new TokenInfo[64];
+        count = 1;
+        position = 0;
+        marks = new int[16];
+        depth = 0;
         isLookingAhead = false;
     }
 
@@ -58,47 +70,49 @@ class LookaheadScanner {
 
     public void next() {
         previousToken = token;
-        if (backtrackingQueue.size() == 0) {
-            token = scanner.getNextToken();
-        } else {
-            token = backtrackingQueue.remove(0);
-        }
-        if (isLookingAhead) {
-            nextQueue.add(token);
+        if (position + 1 == count) {
+            if (depth == 0) {
+                // Nothing to return to but the current token, which is about
+                // to become the previous one
+                tokens[0] = token;
+                count = 1;
+                position = 0;
+            } else if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, 2 * count);
+            }
+            tokens[count++] = scanner.getNextToken();
         }
+        token = tokens[++position];
     }
 
     /**
      * Record the current position in the input, so that we can start looking
-     * ahead in the input (and later return to this position). We'll queue up
-     * the current and subsequent tokens until returnToPosition() is invoked.
-     * These recordPosition's can be nested.
+     * ahead in the input (and later return to this position). We'll keep the
+     * current and subsequent tokens until returnToPosition() is invoked. These
+     * recordPosition's can be nested.
      */
 
     public void recordPosition() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, 2 * depth);
+        }
+        marks[depth++] = position;
         isLookingAhead = true;
-        queueStack.push(nextQueue);
-        nextQueue = new Vector<TokenInfo>();
-        nextQueue.add(previousToken);
-        nextQueue.add(token);
     }
 
     /**
      * Return to the previously recorded position in the input stream of tokens.
-     * If this is a nested lookahead, then return to the previous token queue.
+     * If this is a nested lookahead, then we are still looking ahead from the
+     * enclosing position.
      */
 
     public void returnToPosition() {
-        while (backtrackingQueue.size() > 0) {
-            nextQueue.add(backtrackingQueue.remove(0));
-        }
-        backtrackingQueue = nextQueue;
-        nextQueue = queueStack.pop();
-        isLookingAhead = !(queueStack.empty());
+        position = marks[--depth];
+        isLookingAhead = depth > 0;
 
         // Restore previous and current tokens
-        previousToken = backtrackingQueue.remove(0);
-        token = backtrackingQueue.remove(0);
+        previousToken = position > 0 ? tokens[position - 1] : null;
+        token = tokens[position];
     }
 
     /**
@@ -2,15 +2,40 @@
 
 package jminusminus;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import static jminusminus.TokenKind.EOF;
 
 /**
  * Driver class for j-- compiler using hand-written front-end. This is the main
  * entry point for the compiler. The compiler proceeds as follows:
  * 
- * (1) It reads arguments that affects its behavior.
+ * (1) It reads arguments that affects its behavior, and collects the source
+ * files to compile. Source files may be named individually, listed (one per
+ * line) in a file named with an @ prefix, or found by recursively searching a
+ * directory. Steps (2) through (6) are repeated for each source file, all
+ * within the same JVM. Source files are independent of one another, so they
+ * are compiled in parallel, on as many threads as there are processors unless
+ * the -j option says otherwise.
+ * 
+ * With the -server option, the compiler instead stays up and reads compile
+ * requests (each a command line as above) from STDIN, so that repeated
+ * compiles run on an already warmed-up JVM. The methods parsed from each
+ * source file are also kept between requests, so that a later compile of the
+ * same file need only parse and analyze the methods that have changed (see
+ * MemberCache).
  * 
  * (2) It builds a scanner.
  * 
@@ -38,23 +63,83 @@ public class Main {
     /** Whether an error occurred during compilation. */
     private static boolean errorHasOccurred;
 
+    /** Debug option (-t, -p, -pa or -a); empty if none. */
+    private static String debugOption;
+
+    /** Directory in which output files are placed. */
+    private static String outputDir;
+
+    /** Whether SPIM code is to be generated. */
+    private static boolean spimOutput;
+
+    /** Register allocation scheme for SPIM code generation. */
+    private static String registerAllocation;
+
+    /** HIR optimization passes for SPIM code generation. */
+    private static ArrayList<String> optimizations = new ArrayList<String>();
+
+    /** Peephole rules for SPIM code generation. */
+    private static ArrayList<String> peepholeRules = new ArrayList<String>();
+
+    /** Whether JVM code is optimized. */
+    private static boolean jvmOptimization;
+
+    /** Whether register allocation statistics are reported. */
+    private static boolean allocationStats;
+
+    /** Number of source files compiled in parallel. */
+    private static int jobs;
+
+    /** Whether compile requests are being served from STDIN. */
+    private static boolean serving;
+
+    /**
+     * Class members kept from the last parse of each source file while
+     * serving, keyed by the file's absolute path.
+     */
+    private static HashMap<String, MemberCache> memberCaches = new HashMap<String, MemberCache>();
+
     /**
      * Entry point.
      */
 
     public static void main(String args[]) {
+        run(args);
+    }
+
+    /**
+     * Compile the source files named in the specified command line, with the
+     * options it specifies.
+     * 
+     * @param args
+     *            the command line.
+     */
+
+    private static void run(String args[]) {
         String caller = "java jminusminus.Main";
-        String sourceFile = "";
-        String debugOption = "";
-        String outputDir = ".";
-        boolean spimOutput = false;
-        String registerAllocation = "";
+        ArrayList<String> sourceFiles = new ArrayList<String>();
+        debugOption = "";
+        outputDir = ".";
+        spimOutput = false;
+        registerAllocation = "";
+        NPhysicalRegister.MAX_COUNT = 8;
+        optimizations.clear();
+        peepholeRules.clear();
+        jvmOptimization = false;
+        allocationStats = false;
+        jobs = Runtime.getRuntime().availableProcessors();
         errorHasOccurred = false;
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("j--")) {
                 caller = "j--";
             } else if (args[i].endsWith(".java")) {
-                sourceFile = args[i];
+                sourceFiles.add(args[i]);
+            } else if (args[i].startsWith("@") && args[i].length() > 1) {
+                if (!Util.readSourceList(args[i].substring(1),
+                        sourceFiles)) {
+                    errorHasOccurred = true;
+                    return;
+                }
             } else if (args[i].equals("-t") || args[i].equals("-p")
                     || args[i].equals("-pa") || args[i].equals("-a")) {
                 debugOption = args[i];
@@ -70,95 +155,293 @@ public class Main {
                     printUsage(caller);
                     return;
                 }
+            } else if (args[i].equals("-O") && (i + 1) < args.length) {
+                if (!Util.select(args[++i], NControlFlowGraph.OPTIMIZATIONS,
+                        optimizations)) {
+                    printUsage(caller);
+                    return;
+                }
+            } else if (args[i].equals("-P") && (i + 1) < args.length) {
+                if (!Util.select(args[++i], NPeephole.RULES,
+                        peepholeRules)) {
+                    printUsage(caller);
+                    return;
+                }
+            } else if (args[i].equals("-Ojvm")) {
+                jvmOptimization = true;
+            } else if (args[i].equals("-stats")) {
+                allocationStats = true;
             } else if (args[i].endsWith("-r") && (i + 1) < args.length) {
                 NPhysicalRegister.MAX_COUNT = Math.min(18, Integer
                         .parseInt(args[++i]));
                 NPhysicalRegister.MAX_COUNT = Math.max(1,
                         NPhysicalRegister.MAX_COUNT);
+            } else if (args[i].equals("-j") && (i + 1) < args.length) {
+                jobs = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-server") && !serving) {
+                serve();
+                return;
+            } else if (new File(args[i]).isDirectory()) {
+                Util.findSourceFiles(new File(args[i]), sourceFiles);
             } else {
                 printUsage(caller);
                 return;
             }
         }
-        if (sourceFile.equals("")) {
+        if (sourceFiles.isEmpty()) {
             printUsage(caller);
             return;
         }
 
+        // Counts of member index lookups before this run, as a server
+        // keeps the indices of library classes from one run to the next
+        int hits = MemberIndex.hits();
+        int misses = MemberIndex.misses();
+
+        // Compile the source files; an error in one file does not stop
+        // the others from being compiled. Debug output is written a file
+        // at a time, so the debug options always compile sequentially.
+        if (jobs == 1 || sourceFiles.size() == 1 || !debugOption.equals("")) {
+            for (String sourceFile : sourceFiles) {
+                errorHasOccurred |= compile(sourceFile);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(Math.min(jobs, sourceFiles
+                    .size()));
+            ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<ForkJoinTask<Boolean>>();
+            for (final String sourceFile : sourceFiles) {
+                tasks.add(pool.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return compile(sourceFile);
+                    }
+                }));
+            }
+            for (ForkJoinTask<Boolean> task : tasks) {
+                errorHasOccurred |= task.join();
+            }
+            pool.shutdown();
+        }
+        if (allocationStats) {
+            System.err.printf("member indices: %d hits, %d misses\n",
+                    MemberIndex.hits() - hits, MemberIndex.misses() - misses);
+        }
+    }
+
+    /**
+     * Serve compile requests read from STDIN, one per line, until the end of
+     * input or a line reading "exit". Each request is a command line that is
+     * compiled just as run() would compile it. Once a request has been
+     * handled, a line reading "ok" or "error" is written to STDOUT.
+     * 
+     * Since the JVM stays up, later requests find the compiler already
+     * JIT-compiled, the Types for library classes already resolved, and the
+     * scanner's keyword table already built. The Types and member indices for
+     * classes compiled by earlier requests are not kept, as those requests'
+     * partial classes are forgotten once each file is compiled.
+     */
+
+    private static void serve() {
+        serving = true;
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                System.in));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.equals("exit")) {
+                    break;
+                }
+                if (line.equals("")) {
+                    continue;
+                }
+                try {
+                    run(line.split("\\s+"));
+                } catch (RuntimeException e) {
+                    System.err.println("Error: " + e);
+                    errorHasOccurred = true;
+                }
+                System.err.flush();
+                System.out.println(errorHasOccurred ? "error" : "ok");
+                System.out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: cannot read compile request.");
+            errorHasOccurred = true;
+        }
+        serving = false;
+    }
+
+    /**
+     * Compile a single source file, using the options gathered by run(). While
+     * serving (and with no debug option), the methods kept from the last
+     * compile of the file are handed to the parser, and are put back (with
+     * those it parsed anew) once the file is compiled. If the compile fails
+     * with an exception, they are dropped instead, as analysis may have left
+     * them half rewritten. A file that is named twice in one request may be
+     * compiled on two threads at once, and then one of the two is parsed in
+     * full.
+     * 
+     * A failure inside the compiler is reported as an error in the file, so
+     * that it does not stop the other files from being compiled. Once the file
+     * is compiled, its partial classes, along with their Types and member
+     * indices, are forgotten: the thread may go on to compile another file
+     * that declares classes of the same names, and they would otherwise stay
+     * alive to the end of the run.
+     * 
+     * @param sourceFile
+     *            the source file to compile.
+     * @return true if an error occurred while compiling the file; false
+     *         otherwise.
+     */
+
+    private static boolean compile(String sourceFile) {
+        try {
+            if (!serving || !debugOption.equals("")) {
+                return compile(sourceFile, null);
+            }
+            String path = new File(sourceFile).getAbsolutePath();
+            MemberCache memberCache;
+            synchronized (memberCaches) {
+                memberCache = memberCaches.remove(path);
+            }
+            if (memberCache == null) {
+                memberCache = new MemberCache();
+            }
+            boolean errorHasOccurred = compile(sourceFile, memberCache);
+            synchronized (memberCaches) {
+                memberCaches.put(path, memberCache);
+            }
+            return errorHasOccurred;
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + sourceFile + ": " + e);
+            return true;
+        } catch (LinkageError e) {
+            System.err.println("Error: " + sourceFile + ": " + e);
+            return true;
+        } finally {
+            Type.discardPartialTypes();
+            MemberIndex.discardPartialIndices();
+            CLEmitter.discardByteClassLoader();
+        }
+    }
+
+    /**
+     * Compile a single source file, using the options gathered by run().
+     * 
+     * @param sourceFile
+     *            the source file to compile.
+     * @param memberCache
+     *            methods kept from the last compile of the file; null if the
+     *            file is to be parsed and analyzed in full.
+     * @return true if an error occurred while compiling the file; false
+     *         otherwise.
+     */
+
+    private static boolean compile(String sourceFile, MemberCache memberCache) {
+        boolean errorHasOccurred = false;
         LookaheadScanner scanner = null;
         try {
             scanner = new LookaheadScanner(sourceFile);
         } catch (FileNotFoundException e) {
             System.err.println("Error: file " + sourceFile + " not found.");
-            return;
+            return true;
         }
 
         if (debugOption.equals("-t")) {
-            // Just tokenize input and print the tokens to STDOUT
+            // Just tokenize input and print the tokens to STDOUT,
+            // flushing once at the end rather than at every line
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(System.out)));
             TokenInfo token;
             do {
                 scanner.next();
                 token = scanner.token();
-                System.out.printf("%d\t : %s = %s\n", token.line(), token
+                out.printf("%d\t : %s = %s\n", token.line(), token
                         .tokenRep(), token.image());
             } while (token.kind() != EOF);
-            errorHasOccurred |= scanner.errorHasOccured();
-            return;
+            out.flush();
+            return scanner.errorHasOccured();
         }
 
         // Parse input
-        Parser parser = new Parser(scanner);
+        Parser parser = new Parser(scanner, memberCache);
         JCompilationUnit ast = parser.compilationUnit();
         errorHasOccurred |= parser.errorHasOccurred();
         if (debugOption.equals("-p")) {
             ast.writeToStdOut(new PrettyPrinter());
-            return;
+            return errorHasOccurred;
         }
         if (errorHasOccurred) {
-            return;
+            return true;
+        }
+        if (memberCache != null && memberCache.isStale()) {
+            // Methods were reused that were analyzed in an outline
+            // that has since changed, so parse the file in full
+            memberCache.clear();
+            return compile(sourceFile, memberCache);
         }
 
         // Do pre-analysis
         ast.preAnalyze();
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        errorHasOccurred |= JAST.compilationUnit().errorHasOccurred();
         if (debugOption.equals("-pa")) {
             ast.writeToStdOut(new PrettyPrinter());
-            return;
+            return errorHasOccurred;
         }
         if (errorHasOccurred) {
-            return;
+            if (memberCache != null) {
+                memberCache.clear();
+            }
+            return true;
         }
 
         // Do analysis
         ast.analyze(null);
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        errorHasOccurred |= JAST.compilationUnit().errorHasOccurred();
         if (debugOption.equals("-a")) {
             ast.writeToStdOut(new PrettyPrinter());
-            return;
+            return errorHasOccurred;
+        }
+        if (memberCache != null) {
+            // Methods analyzed in error may be left half analyzed
+            if (errorHasOccurred) {
+                memberCache.clear();
+            } else {
+                memberCache.analyzed();
+            }
         }
         if (errorHasOccurred) {
-            return;
+            return true;
         }
 
         // Generate JVM code
         CLEmitter clEmitter = new CLEmitter(!spimOutput);
         clEmitter.destinationDir(outputDir);
+        clEmitter.optimize(jvmOptimization && !spimOutput);
+        clEmitter.stats(allocationStats && !spimOutput);
         ast.codegen(clEmitter);
         errorHasOccurred |= clEmitter.errorHasOccurred();
         if (errorHasOccurred) {
-            return;
+            return true;
         }
 
         // If SPIM output was asked for, convert the in-memory
         // JVM instructions to SPIM using the specified register
-        // allocation scheme.
+        // allocation scheme. The SPIM back end numbers blocks,
+        // instructions and registers using static counters, and
+        // writes its intermediate forms to STDOUT, so only one unit
+        // may be in it at a time.
         if (spimOutput) {
-            NEmitter nEmitter = new NEmitter(sourceFile, ast.clFiles(),
-                    registerAllocation);
-            nEmitter.destinationDir(outputDir);
-            nEmitter.write();
-            errorHasOccurred |= nEmitter.errorHasOccurred();
+            synchronized (NEmitter.class) {
+                NEmitter nEmitter = new NEmitter(sourceFile, ast.clFiles(),
+                        registerAllocation, optimizations, peepholeRules,
+                        allocationStats);
+                nEmitter.destinationDir(outputDir);
+                nEmitter.write();
+                errorHasOccurred |= nEmitter.errorHasOccurred();
+            }
         }
+        return errorHasOccurred;
     }
 
     /**
@@ -181,8 +464,11 @@ public class Main {
     private static void printUsage(String caller) {
         String usage = "Usage: "
                 + caller
-                + " <options> <source file>\n"
-                + "where possible options include:\n"
+                + " <options> <source files>\n"
+                + "where a source file is a .java file, a directory (searched "
+                + "recursively for .java files),\n"
+                + "or @<file> naming a file that lists source files one per "
+                + "line, and possible options include:\n"
                 + "  -t Only tokenize input and print tokens to STDOUT\n"
                 + "  -p Only parse input and print AST to STDOUT\n"
                 + "  -pa Only parse and pre-analyze input and print "
@@ -190,8 +476,20 @@ public class Main {
                 + "  -a Only parse, pre-analyze, and analyze input "
                 + "and print AST to STDOUT\n"
                 + "  -s <naive|linear|graph> Generate SPIM code\n"
+                + "  -O <passes> Comma-separated HIR optimizations for SPIM code "
+                + "(inline, sccp, fold, copy, cse, licm, dce), or all; default = none\n"
                 + "  -r <num> Max. physical registers (1-18) available for allocation; default = 8\n"
-                + "  -d <dir> Specify where to place output files; default = .";
+                + "  -P <rules> Comma-separated peephole rules for SPIM code "
+                + "(move, load, jump, branch), or all; default = none\n"
+                + "  -Ojvm Peephole-optimize the JVM code (ignored with -s)\n"
+                + "  -stats Report register allocation time and spills, and "
+                + "peephole rules fired, per method, constant pool sizes per "
+                + "class, and member index hits and misses to STDERR\n"
+                + "  -d <dir> Specify where to place output files; default = .\n"
+                + "  -j <num> Number of source files compiled in parallel; "
+                + "default = number of processors\n"
+                + "  -server Read compile requests, one command line per line, "
+                + "from STDIN";
         System.out.println(usage);
     }
 
@@ -0,0 +1,217 @@
+// Copyright 2013 Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.util.HashMap;
+
+/**
+ * The methods parsed from a source file, kept from one compile of the file to
+ * the next so that only the methods that have changed in between need be
+ * parsed and analyzed again. Each method is keyed by a hash of its tokens
+ * (their kinds, images, and lines), and stored along with the tokens
+ * themselves. When the parser meets a method whose tokens are just those of a
+ * method in the cache, it skips over them and reuses that method's AST.
+ * 
+ * Analysis rewrites a method's AST in place, and what it makes of the method
+ * body depends on the rest of the compilation unit, but only so far as the
+ * unit's outline: its package, imports, type headers, field declarations, and
+ * member headers. So a method analyzed without error is not analyzed again so
+ * long as the outline stays the same. Once the outline changes, the methods
+ * that were analyzed are stale, and the file must be parsed in full.
+ * 
+ * Since a token's line is part of the key, a method is only reused if it starts
+ * on the same line as before; methods that an edit has moved up or down are
+ * parsed anew. Constructors, fields, and blocks are always parsed anew, as
+ * their analysis is bound up with that of the enclosing class.
+ */
+
+class MemberCache {
+
+    /** Methods from the last parse, keyed by the hash of their tokens. */
+    private HashMap<Integer, CachedMember> previous;
+
+    /** Methods from the parse under way, keyed likewise. */
+    private HashMap<Integer, CachedMember> current;
+
+    /** Outline of the compilation unit in the last parse. */
+    private String parsedOutline;
+
+    /** Outline in which the analyzed methods in the cache were analyzed. */
+    private String analyzedOutline;
+
+    /** Whether the parse under way has reused a method that was analyzed. */
+    private boolean reusedAnalyzed;
+
+    /** Whether the last parse reused stale methods. */
+    private boolean isStale;
+
+    /**
+     * Construct an empty MemberCache.
+     */
+
+    public MemberCache() {
+        clear();
+    }
+
+    /**
+     * Return the method made up of the specified tokens by the last parse, and
+     * keep it for the next; return null if there is no such method. A method
+     * is reused only once in a parse.
+     * 
+     * @param tokens
+     *            tokens of the member.
+     * @return the method's AST, or null.
+     */
+
+    public JMember reuse(TokenInfo[] tokens) {
+        int hash = hash(tokens);
+        CachedMember cached = previous.get(hash);
+        if (cached == null || !cached.matches(tokens)) {
+            return null;
+        }
+        previous.remove(hash);
+        current.put(hash, cached);
+        reusedAnalyzed |= cached.member.isAnalyzed();
+        return cached.member;
+    }
+
+    /**
+     * Keep the specified member, freshly parsed from the specified tokens, for
+     * the next parse, if it is a method.
+     * 
+     * @param tokens
+     *            tokens of the member.
+     * @param member
+     *            the member's AST.
+     */
+
+    public void add(TokenInfo[] tokens, JMember member) {
+        if (member instanceof JMethodDeclaration
+                && !(member instanceof JConstructorDeclaration)) {
+            current.put(hash(tokens), new CachedMember(tokens,
+                    (JMethodDeclaration) member));
+        }
+    }
+
+    /**
+     * End the parse under way: the methods it reused or added are the ones
+     * kept for the next parse, and the rest are dropped.
+     * 
+     * @param outline
+     *            outline of the compilation unit parsed.
+     */
+
+    public void endParse(String outline) {
+        previous = current;
+        current = new HashMap<Integer, CachedMember>();
+        parsedOutline = outline;
+        isStale = reusedAnalyzed && !outline.equals(analyzedOutline);
+        reusedAnalyzed = false;
+    }
+
+    /**
+     * Did the last parse reuse methods that were analyzed in an outline other
+     * than its own? If so, the file must be parsed again in full.
+     * 
+     * @return true or false.
+     */
+
+    public boolean isStale() {
+        return isStale;
+    }
+
+    /**
+     * Record that the compilation unit from the last parse has been analyzed
+     * without error, so that its methods need not be analyzed again.
+     */
+
+    public void analyzed() {
+        for (CachedMember cached : previous.values()) {
+            cached.member.setAnalyzed();
+        }
+        analyzedOutline = parsedOutline;
+    }
+
+    /**
+     * Drop all methods, as after a parse that has reused stale methods, or an
+     * analysis that may have left methods half analyzed.
+     */
+
+    public void clear() {
+        previous = new HashMap<Integer, CachedMember>();
+        current = new HashMap<Integer, CachedMember>();
+        parsedOutline = null;
+        analyzedOutline = null;
+        reusedAnalyzed = false;
+        isStale = false;
+    }
+
+    /**
+     * Return a hash of the specified tokens.
+     * 
+     * @param tokens
+     *            the tokens.
+     * @return the hash.
+     */
+
+    private static int hash(TokenInfo[] tokens) {
+        int hash = 0;
+        for (TokenInfo token : tokens) {
+            hash = 31 * hash + token.kind().ordinal();
+            hash = 31 * hash + token.image().hashCode();
+            hash = 31 * hash + token.line();
+        }
+        return hash;
+    }
+
+}
+
+/**
+ * A method in a MemberCache, along with the tokens it was parsed from.
+ */
+
+class CachedMember {
+
+    /** Tokens of the method. */
+    private TokenInfo[] tokens;
+
+    /** The method's AST. */
+    public JMethodDeclaration member;
+
+    /**
+     * Construct a CachedMember.
+     * 
+     * @param tokens
+     *            tokens of the method.
+     * @param member
+     *            the method's AST.
+     */
+
+    public CachedMember(TokenInfo[] tokens, JMethodDeclaration member) {
+        this.tokens = tokens;
+        this.member = member;
+    }
+
+    /**
+     * Is this method made up of the specified tokens?
+     * 
+     * @param tokens
+     *            the tokens.
+     * @return true or false.
+     */
+
+    public boolean matches(TokenInfo[] tokens) {
+        if (tokens.length != this.tokens.length) {
+            return false;
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].kind() != this.tokens[i].kind()
+                    || tokens[i].line() != this.tokens[i].line()
+                    || !tokens[i].image().equals(this.tokens[i].image())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
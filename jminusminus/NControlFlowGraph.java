@@ -5,8 +5,13 @@ package jminusminus;
 import static jminusminus.CLConstants.*;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.Queue;
@@ -132,6 +137,12 @@ class NBasicBlock {
     /** The dominator of this block. */
     public NBasicBlock dom;
 
+    /**
+     * The dominance frontier of this block: the blocks that have a predecessor
+     * it dominates, but that it does not strictly dominate itself.
+     */
+    public ArrayList<NBasicBlock> dominanceFrontier;
+
     /** All virtual registers locally defined within this block. */
     public BitSet liveDef;
 
@@ -248,8 +259,9 @@ class NBasicBlock {
         s = "Locals: ";
         if (locals != null) {
             for (int i = 0; i < locals.length; i++) {
-                if (!(cfg.hirMap.get(locals[i]) instanceof NHIRLocal)) {
-                    s += cfg.hirMap.get(locals[i]).id() + " ";
+                NHIRInstruction local = cfg.hirMap.get(locals[i]);
+                if (local != null && !(local instanceof NHIRLocal)) {
+                    s += local.id() + " ";
                 }
             }
         }
@@ -394,6 +406,16 @@ class NControlFlowGraph {
     /** Loop identifier. */
     public static int loopIndex;
 
+    /**
+     * Names of the HIR optimization passes: inlining ("inline", see
+     * inlineCalls()), and the ones optimize() knows of.
+     */
+    public static final String[] OPTIMIZATIONS = { "inline", "sccp", "fold",
+            "copy", "cse", "licm", "dce" };
+
+    /** Most HIR instructions a method may have for calls to it to be inlined. */
+    public static final int MAX_INLINE_SIZE = 24;
+
     /** Name of the method this cfg corresponds to. */
     public String name;
 
@@ -672,6 +694,25 @@ class NControlFlowGraph {
         }
     }
 
+    /**
+     * Set the loop depth of each block in this cfg, i.e., the number of loops
+     * it is in.
+     */
+
+    public void computeLoopDepths() {
+        for (NBasicBlock block : basicBlocks) {
+            block.loopDepth = 0;
+        }
+        for (NBasicBlock head : basicBlocks) {
+            ArrayList<NBasicBlock> body = loopBody(head);
+            if (body != null) {
+                for (NBasicBlock block : body) {
+                    block.loopDepth++;
+                }
+            }
+        }
+    }
+
     /**
      * Remove blocks that cannot be reached from the begin block (B0). Also
      * removes these blocks from the predecessor lists.
@@ -687,48 +728,166 @@ class NControlFlowGraph {
         }
 
         // From the predecessor list for each blocks, remove
-        // the ones that are in toRemove list.
+        // the ones that are in toRemove list, along with the
+        // arguments they supply to phi functions (if any).
         for (NBasicBlock block : basicBlocks) {
-            for (NBasicBlock pred : toRemove) {
-                block.predecessors.remove(pred);
+            for (int i = block.predecessors.size() - 1; i >= 0; i--) {
+                if (!block.predecessors.get(i).visited) {
+                    removePredecessor(block, i);
+                }
             }
         }
 
         // From the list of all blocks, remove the ones that
-        // are in toRemove list.
+        // are in toRemove list, and forget their hir instructions.
         for (NBasicBlock block : toRemove) {
             basicBlocks.remove(block);
         }
+        if (hirMap != null && !toRemove.isEmpty()) {
+            for (int id : new ArrayList<Integer>(hirMap.keySet())) {
+                if (!hirMap.get(id).block.visited) {
+                    hirMap.remove(id);
+                }
+            }
+        }
     }
 
     /**
-     * Compute the dominator of each block in this cfg recursively given the
-     * starting block and its predecessor.
+     * Remove the predecessor at the specified index from the specified
+     * block, along with the argument it supplies to each phi function in the
+     * block.
      * 
      * @param block
-     *            starting block.
-     * @param pred
-     *            block's predecessor.
+     *            the block.
+     * @param i
+     *            index of the predecessor.
      */
 
-    public void computeDominators(NBasicBlock block, NBasicBlock pred) {
-        if (block.ref > 0) {
-            block.ref--;
+    private void removePredecessor(NBasicBlock block, int i) {
+        block.predecessors.remove(i);
+        for (int id : block.hir) {
+            NHIRInstruction ins = hirMap.get(id);
+            if (ins instanceof NHIRPhiFunction && ins.id == id) {
+                ((NHIRPhiFunction) ins).arguments.remove(i);
+            }
         }
-        if (block.dom == null) {
-            block.dom = pred;
-        } else {
-            block.dom = commonDom(block.dom, pred);
+    }
+
+    /**
+     * Compute the (immediate) dominator of each block in this cfg, and the
+     * dominance frontier of each block. The dominators are found iteratively,
+     * after Cooper, Harvey and Kennedy: visiting the blocks in reverse
+     * postorder, the dominator of a block is the nearest common dominator of
+     * its predecessors that have one so far, until nothing changes.
+     */
+
+    public void computeDominators() {
+        ArrayList<NBasicBlock> order = reversePostorder();
+        HashMap<NBasicBlock, Integer> rank = new HashMap<NBasicBlock, Integer>();
+        for (int i = 0; i < order.size(); i++) {
+            rank.put(order.get(i), i);
+        }
+        for (NBasicBlock block : basicBlocks) {
+            block.dom = null;
+            block.dominanceFrontier = new ArrayList<NBasicBlock>();
+        }
+        NBasicBlock entry = order.get(0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.size(); i++) {
+                NBasicBlock block = order.get(i);
+                NBasicBlock dom = null;
+                for (NBasicBlock pred : block.predecessors) {
+                    if (!rank.containsKey(pred)
+                            || (pred.dom == null && pred != entry)) {
+                        continue;
+                    }
+                    if (dom == null) {
+                        dom = pred;
+                    } else {
+                        // Walk up from both until they meet; a block
+                        // comes after its dominators in the order.
+                        NBasicBlock other = pred;
+                        while (dom != other) {
+                            while (rank.get(dom) > rank.get(other)) {
+                                dom = dom.dom;
+                            }
+                            while (rank.get(other) > rank.get(dom)) {
+                                other = other.dom;
+                            }
+                        }
+                    }
+                }
+                if (dom != block.dom) {
+                    block.dom = dom;
+                    changed = true;
+                }
+            }
+        }
+
+        // A join point is in the dominance frontier of each block on the
+        // way up the dominator tree from each of its predecessors, up to
+        // (but not including) its own dominator.
+        for (NBasicBlock block : order) {
+            if (block == entry || block.predecessors.size() < 2) {
+                continue;
+            }
+            for (NBasicBlock pred : block.predecessors) {
+                if (!rank.containsKey(pred)) {
+                    continue;
+                }
+                for (NBasicBlock runner = pred; runner != block.dom; runner = runner
+                        .dom) {
+                    if (!runner.dominanceFrontier.contains(block)) {
+                        runner.dominanceFrontier.add(block);
+                    }
+                }
+            }
         }
-        if (block.ref == block.bwdBranches) {
-            for (NBasicBlock s : block.successors) {
-                computeDominators(s, block);
+    }
+
+    /**
+     * Return the blocks of this cfg that can be reached from the entry block,
+     * in reverse postorder of a depth first search from it; a block comes
+     * before its successors, other than along back edges.
+     * 
+     * @return the blocks in reverse postorder.
+     */
+
+    public ArrayList<NBasicBlock> reversePostorder() {
+        ArrayList<NBasicBlock> order = new ArrayList<NBasicBlock>();
+        HashMap<NBasicBlock, Integer> next = new HashMap<NBasicBlock, Integer>();
+        Stack<NBasicBlock> stack = new Stack<NBasicBlock>();
+        NBasicBlock entry = basicBlocks.get(0);
+        next.put(entry, 0);
+        stack.push(entry);
+        while (!stack.isEmpty()) {
+            NBasicBlock block = stack.peek();
+            int i = next.get(block);
+            if (i < block.successors.size()) {
+                next.put(block, i + 1);
+                NBasicBlock succ = block.successors.get(i);
+                if (succ != null && !next.containsKey(succ)) {
+                    next.put(succ, 0);
+                    stack.push(succ);
+                }
+            } else {
+                order.add(stack.pop());
             }
         }
+        Collections.reverse(order);
+        return order;
     }
 
     /**
-     * Convert tuples in each block to their high-level (HIR) representations.
+     * Convert tuples in each block to their high-level (HIR) representations,
+     * in SSA form. A phi function for a local variable is placed in each block
+     * in the iterated dominance frontier of the blocks that store to it, so
+     * long as the variable is live on entry to the block; the value of a
+     * variable on entry to a block without such a phi function is its value on
+     * exit from the block's dominator. The arguments of the phi functions are
+     * filled in once every block has been converted.
      */
 
     public void tuplesToHir() {
@@ -754,6 +913,8 @@ class NControlFlowGraph {
             locals[i] = ins.id;
         }
         beginBlock.locals = locals;
+        HashMap<NBasicBlock, BitSet> phiLocals = placePhiFunctions(numLocals);
+        ArrayList<NHIRPhiFunction> phis = new ArrayList<NHIRPhiFunction>();
         Stack<Integer> operandStack = new Stack<Integer>();
         Queue<NBasicBlock> q = new LinkedList<NBasicBlock>();
         beginBlock.visited = true;
@@ -767,37 +928,26 @@ class NControlFlowGraph {
                 }
             }
 
-            // Convert tuples in block to HIR instructions.
-            if (block.predecessors.size() == 1) {
-                block.locals = block.predecessors.get(0).locals.clone();
-            } else if (block.predecessors.size() > 1) {
-                if (block.isLoopHead) {
-                    for (NBasicBlock pred : block.predecessors) {
-                        if (pred.locals != null) {
-                            block.locals = pred.locals.clone();
-                            break;
-                        }
-                    }
-                    for (int i = 0; i < block.locals.length; i++) {
-                        ArrayList<Integer> args = new ArrayList<Integer>();
-                        NHIRPhiFunction phi = new NHIRPhiFunction(block,
-                                hirId++, args, i);
-                        block.hir.add(phi.id);
-                        block.cfg.hirMap.put(phi.id, phi);
-                        phi.arguments.add(block.locals[i]);
-                        for (int j = 1; j < block.predecessors.size(); j++) {
-                            phi.arguments.add(phi.id);
-                        }
-                        block.locals[i] = phi.id;
-                        phi.inferType();
-                    }
-                } else {
-                    block.locals = block.predecessors.get(0).locals.clone();
-                    for (int i = 1; i < block.predecessors.size(); i++) {
-                        NBasicBlock pred = block.predecessors.get(i);
-                        mergeLocals(block, pred);
-                    }
+            // Convert tuples in block to HIR instructions. A block is
+            // reached in this (breadth first) order only after its
+            // dominator, which every path to it goes through.
+            if (block != beginBlock) {
+                block.locals = block.dom.locals.clone();
+            }
+            BitSet phiLocal = phiLocals.get(block);
+            for (int i = phiLocal.nextSetBit(0); i >= 0; i = phiLocal
+                    .nextSetBit(i + 1)) {
+                ArrayList<Integer> args = new ArrayList<Integer>();
+                NHIRPhiFunction phi = new NHIRPhiFunction(block, hirId++,
+                        args, i);
+                block.hir.add(phi.id);
+                block.cfg.hirMap.put(phi.id, phi);
+                for (int j = 0; j < block.predecessors.size(); j++) {
+                    phi.arguments.add(block.locals[i]);
                 }
+                block.locals[i] = phi.id;
+                phi.inferType();
+                phis.add(phi);
             }
             for (NTuple tuple : block.tuples) {
                 CLInsInfo insInfo = CLInstruction.instructionInfo[tuple.opcode];
@@ -1038,6 +1188,28 @@ class NControlFlowGraph {
                     block.hir.add(ins.id);
                     break;
                 }
+                case IFEQ:
+                case IFNE: {
+                    // Compare the operand with zero.
+                    operandByte1 = tuple.operands.get(0);
+                    operandByte2 = tuple.operands.get(1);
+                    offset = shortValue(operandByte1, operandByte2);
+                    NHIRInstruction zero = new NHIRIntConstant(block,
+                            hirId++, 0);
+                    block.cfg.hirMap.put(zero.id, zero);
+                    block.hir.add(zero.id);
+                    NBasicBlock trueDestination = pcToBasicBlock.get(tuple.pc
+                            + offset);
+                    NBasicBlock falseDestination = pcToBasicBlock
+                            .get(tuple.pc + 3);
+                    ins = new NHIRConditionalJump(block, hirId++,
+                            operandStack.pop(), zero.id,
+                            insInfo.opcode == IFEQ ? IF_ICMPEQ : IF_ICMPNE,
+                            trueDestination, falseDestination);
+                    block.cfg.hirMap.put(ins.id, ins);
+                    block.hir.add(ins.id);
+                    break;
+                }
                 case GOTO: {
                     operandByte1 = tuple.operands.get(0);
                     operandByte2 = tuple.operands.get(1);
@@ -1111,7 +1283,7 @@ class NControlFlowGraph {
                     }
                     String returnType = returnType(desc);
                     ins = new NHIRInvoke(block, hirId++, insInfo.opcode,
-                            target, name, args, shortType(returnType),
+                            target, name, desc, args, shortType(returnType),
                             returnType);
                     if (!returnType.equals("V")) {
                         operandStack.push(ins.id);
@@ -1137,42 +1309,1136 @@ class NControlFlowGraph {
                 }
             }
         }
+
+        // Each phi function takes its arguments from the locals its
+        // block's predecessors end with.
+        for (NHIRPhiFunction phi : phis) {
+            for (int i = 0; i < phi.arguments.size(); i++) {
+                phi.arguments.set(i,
+                        phi.block.predecessors.get(i).locals[phi.local]);
+            }
+        }
+        for (NHIRPhiFunction phi : phis) {
+            phi.inferType();
+        }
     }
 
     /**
-     * Carry out optimizations on the high-level instructions.
+     * Decide where phi functions are needed, by local variable: in the blocks
+     * in the iterated dominance frontier of the blocks that store to the
+     * variable (the entry block counting as storing to every variable), but
+     * only those in which the variable is live on entry (pruned SSA).
+     * 
+     * @param numLocals
+     *            the number of local variables.
+     * @return maps each block to the local variables needing phi functions in
+     *         it.
      */
 
-    public void optimize() {
-        // TBD
+    private HashMap<NBasicBlock, BitSet> placePhiFunctions(int numLocals) {
+        final HashMap<NBasicBlock, BitSet> uses = new HashMap<NBasicBlock, BitSet>();
+        final HashMap<NBasicBlock, BitSet> defs = new HashMap<NBasicBlock, BitSet>();
+        ArrayList<ArrayList<NBasicBlock>> stores = new ArrayList<ArrayList<NBasicBlock>>();
+        for (int i = 0; i < numLocals; i++) {
+            stores.add(new ArrayList<NBasicBlock>());
+            stores.get(i).add(basicBlocks.get(0));
+        }
+        for (NBasicBlock block : basicBlocks) {
+            BitSet use = new BitSet(numLocals);
+            BitSet def = new BitSet(numLocals);
+            for (NTuple tuple : block.tuples) {
+                int local = CLInstruction.instructionInfo[tuple.opcode].localVariableIndex;
+                if (tuple.opcode == ILOAD || tuple.opcode == ALOAD
+                        || tuple.opcode == IINC || tuple.opcode == ISTORE
+                        || tuple.opcode == ASTORE) {
+                    local = tuple.operands.get(0);
+                }
+                switch (tuple.opcode) {
+                case ILOAD:
+                case ALOAD:
+                case ILOAD_0:
+                case ILOAD_1:
+                case ILOAD_2:
+                case ILOAD_3:
+                case ALOAD_0:
+                case ALOAD_1:
+                case ALOAD_2:
+                case ALOAD_3:
+                    if (!def.get(local)) {
+                        use.set(local);
+                    }
+                    break;
+                case IINC:
+                    if (!def.get(local)) {
+                        use.set(local);
+                    }
+                    def.set(local);
+                    break;
+                case ISTORE:
+                case ASTORE:
+                case ISTORE_0:
+                case ISTORE_1:
+                case ISTORE_2:
+                case ISTORE_3:
+                case ASTORE_0:
+                case ASTORE_1:
+                case ASTORE_2:
+                case ASTORE_3:
+                    def.set(local);
+                    break;
+                }
+            }
+            uses.put(block, use);
+            defs.put(block, def);
+            for (int i = def.nextSetBit(0); i >= 0; i = def.nextSetBit(i + 1)) {
+                if (!stores.get(i).contains(block)) {
+                    stores.get(i).add(block);
+                }
+            }
+        }
+        NDataflow liveness = new NDataflow(this, false, true, numLocals) {
+            protected BitSet gen(NBasicBlock block) {
+                return uses.get(block);
+            }
+
+            protected BitSet kill(NBasicBlock block) {
+                return defs.get(block);
+            }
+        };
+        liveness.solve();
+
+        HashMap<NBasicBlock, BitSet> phiLocals = new HashMap<NBasicBlock, BitSet>();
+        for (NBasicBlock block : basicBlocks) {
+            phiLocals.put(block, new BitSet(numLocals));
+        }
+        for (int i = 0; i < numLocals; i++) {
+            // The blocks storing to the variable, and those given phi
+            // functions for it, which store to it too.
+            ArrayList<NBasicBlock> work = new ArrayList<NBasicBlock>(stores
+                    .get(i));
+            HashSet<NBasicBlock> queued = new HashSet<NBasicBlock>(work);
+            while (!work.isEmpty()) {
+                NBasicBlock block = work.remove(work.size() - 1);
+                for (NBasicBlock frontier : block.dominanceFrontier) {
+                    if (!phiLocals.get(frontier).get(i)
+                            && liveness.in(frontier).get(i)) {
+                        phiLocals.get(frontier).set(i);
+                        if (queued.add(frontier)) {
+                            work.add(frontier);
+                        }
+                    }
+                }
+            }
+        }
+        return phiLocals;
     }
 
     /**
-     * Eliminate redundant phi functions of the form x = (y, x, x, ..., x) with
-     * y.
+     * Replace the calls in this cfg to small static methods of the same class
+     * (see inlinable()) with the bodies of the methods. Only the calls there
+     * are to begin with are inlined; the calls in an inlined body are left
+     * as they are, so that the inlining of (mutually) recursive methods ends.
+     * 
+     * @param className
+     *            name of the class containing the method.
+     * @param cfgs
+     *            the cfgs of the methods in the class.
+     * @return true if a call was inlined, false otherwise.
      */
 
-    public void eliminateRedundantPhiFunctions() {
-        for (int ins : hirMap.keySet()) {
-            NHIRInstruction hir = hirMap.get(ins);
-            if (hir instanceof NHIRPhiFunction) {
-                NHIRPhiFunction phi = (NHIRPhiFunction) hir;
-                int firstArg = phi.arguments.get(0);
-                boolean match = true;
-                NBasicBlock block = phi.block;
-                if (!block.isLoopHead) {
+    public boolean inlineCalls(String className,
+            Collection<NControlFlowGraph> cfgs) {
+        resumeIds();
+        ArrayList<NHIRInvoke> calls = new ArrayList<NHIRInvoke>();
+        for (NBasicBlock block : basicBlocks) {
+            for (int id : block.hir) {
+                NHIRInstruction ins = hirMap.get(id);
+                if (ins.id == id && ins instanceof NHIRInvoke) {
+                    calls.add((NHIRInvoke) ins);
+                }
+            }
+        }
+        boolean changed = false;
+        for (NHIRInvoke call : calls) {
+            if (call.opcode != INVOKESTATIC || !call.target.equals(className)) {
+                continue;
+            }
+            for (NControlFlowGraph callee : cfgs) {
+                if (callee != this && callee.name.equals(call.name)
+                        && callee.desc.equals(call.desc)
+                        && callee.inlinable(className)) {
+                    inline(call, callee);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            computeDominators();
+        }
+        return changed;
+    }
+
+    /**
+     * Return true if calls to the method of this cfg may be replaced with its
+     * body, i.e., if it has no more than MAX_INLINE_SIZE HIR instructions, it
+     * returns, and it does not call itself; false otherwise.
+     * 
+     * @param className
+     *            name of the class containing the method.
+     * @return true or false.
+     */
+
+    private boolean inlinable(String className) {
+        int size = 0;
+        boolean returns = false;
+        for (NBasicBlock block : basicBlocks) {
+            for (int id : block.hir) {
+                NHIRInstruction ins = hirMap.get(id);
+                if (ins.id != id || ins instanceof NHIRLoadLocal) {
+                    continue;
+                }
+                if (ins instanceof NHIRInvoke) {
+                    NHIRInvoke call = (NHIRInvoke) ins;
+                    if (call.target.equals(className)
+                            && call.name.equals(name)
+                            && call.desc.equals(desc)) {
+                        return false;
+                    }
+                }
+                returns |= ins instanceof NHIRReturn;
+                size++;
+            }
+        }
+        return returns && size <= MAX_INLINE_SIZE;
+    }
+
+    /**
+     * Inline the specified call to the method of the specified cfg. The block
+     * holding the call is split after it, and a copy of the callee's blocks
+     * placed in between the two halves, with the arguments of the call
+     * standing for the callee's parameters; each of the callee's returns
+     * becomes an edge to the second half, where the value returned (merged by
+     * a phi function if it is returned in more than one place) stands for
+     * the value of the call.
+     * 
+     * @param call
+     *            the call.
+     * @param callee
+     *            the cfg of the method called.
+     */
+
+    private void inline(NHIRInvoke call, NControlFlowGraph callee) {
+        // Split the block after the call, which is dropped; the second half
+        // takes over the successors.
+        NBasicBlock block = call.block;
+        NBasicBlock rest = new NBasicBlock(this, blockId++);
+        int at = block.hir.indexOf(call.id);
+        rest.hir.addAll(block.hir.subList(at + 1, block.hir.size()));
+        block.hir.subList(at, block.hir.size()).clear();
+        for (int id : rest.hir) {
+            NHIRInstruction ins = hirMap.get(id);
+            if (ins.id == id) {
+                ins.block = rest;
+            }
+        }
+        rest.locals = block.locals;
+        rest.isLoopTail = block.isLoopTail;
+        block.isLoopTail = false;
+        for (NBasicBlock succ : block.successors) {
+            for (int i = 0; i < succ.predecessors.size(); i++) {
+                if (succ.predecessors.get(i) == block) {
+                    succ.predecessors.set(i, rest);
+                }
+            }
+        }
+        rest.successors.addAll(block.successors);
+        block.successors.clear();
+
+        // Copy the callee's blocks, with edges to match.
+        HashMap<NBasicBlock, NBasicBlock> blocks = new HashMap<NBasicBlock, NBasicBlock>();
+        ArrayList<NBasicBlock> copies = new ArrayList<NBasicBlock>();
+        for (NBasicBlock calleeBlock : callee.basicBlocks) {
+            NBasicBlock copy = new NBasicBlock(this, blockId++);
+            copy.locals = block.locals;
+            copy.isLoopHead = calleeBlock.isLoopHead;
+            copy.isLoopTail = calleeBlock.isLoopTail;
+            blocks.put(calleeBlock, copy);
+            copies.add(copy);
+        }
+        for (NBasicBlock calleeBlock : callee.basicBlocks) {
+            NBasicBlock copy = blocks.get(calleeBlock);
+            for (NBasicBlock pred : calleeBlock.predecessors) {
+                copy.predecessors.add(blocks.get(pred));
+            }
+            for (NBasicBlock succ : calleeBlock.successors) {
+                copy.successors.add(blocks.get(succ));
+            }
+        }
+        block.successors.add(copies.get(0));
+        copies.get(0).predecessors.add(block);
+        basicBlocks.addAll(basicBlocks.indexOf(block) + 1, copies);
+        basicBlocks.add(basicBlocks.indexOf(block) + copies.size() + 1, rest);
+
+        // Give the callee's instructions new ids, in block order so that
+        // their LIR comes out in the same order; a parameter is the
+        // argument passed for it.
+        HashMap<Integer, Integer> ids = new HashMap<Integer, Integer>();
+        for (NBasicBlock calleeBlock : callee.basicBlocks) {
+            for (int id : calleeBlock.hir) {
+                NHIRInstruction ins = callee.hirMap.get(id);
+                if (ins.id == id && !(ins instanceof NHIRLoadLocal)) {
+                    ids.put(id, hirId++);
+                }
+            }
+        }
+        for (int id : callee.hirMap.keySet()) {
+            NHIRInstruction ins = callee.hirMap.get(id);
+            if (ins.id != id || ids.containsKey(id)) {
+                continue;
+            }
+            if (ins instanceof NHIRLoadLocal) {
+                ids.put(id, call.arguments.get(((NHIRLoadLocal) ins).local));
+            } else {
+                NHIRInstruction local = new NHIRLocal(block, hirId++,
+                        ((NHIRLocal) ins).local, ins.sType, ins.lType);
+                hirMap.put(local.id, local);
+                ids.put(id, local.id);
+            }
+        }
+        for (int id : callee.hirMap.keySet()) {
+            if (!ids.containsKey(id)) {
+                ids.put(id, ids.get(callee.hirMap.get(id).id));
+            }
+        }
+
+        // Copy the instructions; a return becomes an edge to the second
+        // half of the split block.
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (NBasicBlock calleeBlock : callee.basicBlocks) {
+            NBasicBlock copy = blocks.get(calleeBlock);
+            for (int id : calleeBlock.hir) {
+                NHIRInstruction ins = callee.hirMap.get(id);
+                if (ins.id != id || ins instanceof NHIRLoadLocal) {
+                    continue;
+                }
+                if (ins instanceof NHIRReturn) {
+                    int value = ((NHIRReturn) ins).value;
+                    values.add(value == -1 ? -1 : ids.get(value));
+                    copy.successors.add(rest);
+                    rest.predecessors.add(copy);
+                    break;
+                }
+                NHIRInstruction insCopy = ins.copy(copy, ids.get(id), ids,
+                        blocks);
+                hirMap.put(insCopy.id, insCopy);
+                copy.hir.add(insCopy.id);
+            }
+        }
+
+        // The value returned stands for the value of the call.
+        if (call.sType.equals("V")) {
+            hirMap.remove(call.id);
+        } else if (values.size() == 1) {
+            replace(call, hirMap.get(values.get(0)));
+        } else {
+            NHIRPhiFunction phi = new NHIRPhiFunction(rest, hirId++, values,
+                    -1);
+            hirMap.put(phi.id, phi);
+            rest.hir.add(0, phi.id);
+            phi.inferType();
+            replace(call, phi);
+        }
+    }
+
+    /**
+     * Set the block and HIR instruction identifiers to follow the ones in
+     * this cfg; they are shared by all cfgs, and another cfg may have been
+     * built since this one.
+     */
+
+    private void resumeIds() {
+        blockId = 0;
+        for (NBasicBlock block : basicBlocks) {
+            blockId = Math.max(blockId, block.id + 1);
+        }
+        hirId = hirMap.isEmpty() ? 0 : hirMap.lastKey() + 1;
+    }
+
+    /**
+     * Carry out optimizations on the high-level instructions. The passes named
+     * in the specified list are run; sparse conditional constant propagation
+     * ("sccp"), constant folding ("fold"), copy propagation ("copy") and
+     * common subexpression elimination ("cse") are repeated until none of them
+     * changes anything, as each can expose work
+     * for the others. Loop-invariant code motion ("licm") is then run, and the
+     * others repeated on what it leaves; dead code elimination ("dce") is run
+     * last.
+     * 
+     * @param passes
+     *            names of the passes to run.
+     */
+
+    public void optimize(ArrayList<String> passes) {
+        resumeIds();
+        boolean changed = true;
+        boolean hoisted = !passes.contains("licm");
+        while (changed) {
+            changed = false;
+            if (passes.contains("sccp")) {
+                changed |= propagateConstants();
+            }
+            if (passes.contains("fold")) {
+                changed |= foldConstants();
+            }
+            if (passes.contains("copy")) {
+                changed |= propagateCopies();
+            }
+            if (passes.contains("cse")) {
+                changed |= eliminateCommonSubexpressions(basicBlocks.get(0),
+                        new HashMap<String, NHIRInstruction>());
+            }
+            if (!changed && !hoisted) {
+                changed = hoistLoopInvariants();
+                hoisted = true;
+            }
+        }
+        if (passes.contains("dce")) {
+            eliminateDeadCode();
+        }
+    }
+
+    /**
+     * Sparse conditional constant propagation, after Wegman and Zadeck. Every
+     * instruction is taken to be undefined, and every block but the entry
+     * block to be unreachable, until shown otherwise: instructions are
+     * evaluated over the lattice undefined > constant > varying as the blocks
+     * holding them are reached and as their operands change, a phi function
+     * only meets the arguments coming along edges found to be executable, and
+     * a conditional jump on constants only makes the edge it takes
+     * executable. So a constant guard is seen through even when the code it
+     * guards would, if run, make a value vary.
+     * 
+     * The instructions found to be constant are then replaced with the
+     * constants, the conditional jumps found to be constant with gotos, and
+     * the blocks never reached are removed.
+     * 
+     * @return true if an instruction or a block was replaced or removed, false
+     *         otherwise.
+     */
+
+    private boolean propagateConstants() {
+        // The users of each instruction, for passing changes on to.
+        HashMap<Integer, ArrayList<NHIRInstruction>> users = new HashMap<Integer, ArrayList<NHIRInstruction>>();
+        for (NBasicBlock block : basicBlocks) {
+            for (int id : block.hir) {
+                NHIRInstruction ins = hirMap.get(id);
+                if (ins.id != id) {
+                    continue;
+                }
+                for (int operand : ins.operands()) {
+                    int def = hirMap.get(operand).id;
+                    if (!users.containsKey(def)) {
+                        users.put(def, new ArrayList<NHIRInstruction>());
+                    }
+                    users.get(def).add(ins);
+                }
+            }
+        }
+
+        // An instruction is undefined until it has an entry in constants,
+        // and varying once it is in varying. Each reached block maps to the
+        // indices of the predecessors it has been found to be reachable from.
+        HashMap<Integer, Integer> constants = new HashMap<Integer, Integer>();
+        BitSet varying = new BitSet();
+        HashMap<NBasicBlock, BitSet> reached = new HashMap<NBasicBlock, BitSet>();
+        Stack<NBasicBlock[]> edges = new Stack<NBasicBlock[]>();
+        Stack<NHIRInstruction> work = new Stack<NHIRInstruction>();
+        edges.push(new NBasicBlock[] { null, basicBlocks.get(0) });
+        while (!edges.isEmpty() || !work.isEmpty()) {
+            if (!edges.isEmpty()) {
+                NBasicBlock from = edges.peek()[0];
+                NBasicBlock to = edges.pop()[1];
+                BitSet executable = reached.get(to);
+                boolean first = executable == null;
+                if (first) {
+                    executable = new BitSet();
+                    reached.put(to, executable);
+                }
+                boolean added = false;
+                for (int i = 0; i < to.predecessors.size(); i++) {
+                    if (to.predecessors.get(i) == from && !executable.get(i)) {
+                        executable.set(i);
+                        added = true;
+                    }
+                }
+                if (!first && !added) {
+                    continue;
+                }
+
+                // Evaluate the whole block the first time it is reached, and
+                // its phi functions each time it is reached another way.
+                NHIRInstruction last = null;
+                for (int id : to.hir) {
+                    NHIRInstruction ins = hirMap.get(id);
+                    if (ins.id == id
+                            && (first || ins instanceof NHIRPhiFunction)) {
+                        work.push(ins);
+                    }
+                    last = ins;
+                }
+                if (first && !(last instanceof NHIRConditionalJump)) {
+                    for (NBasicBlock successor : to.successors) {
+                        edges.push(new NBasicBlock[] { to, successor });
+                    }
+                }
+                continue;
+            }
+            NHIRInstruction ins = work.pop();
+            if (ins instanceof NHIRConditionalJump) {
+                NHIRConditionalJump jump = (NHIRConditionalJump) ins;
+                int lhs = hirMap.get(jump.lhs).id;
+                int rhs = hirMap.get(jump.rhs).id;
+                if (varying.get(lhs) || varying.get(rhs)) {
+                    edges.push(new NBasicBlock[] { jump.block,
+                            jump.onTrueDestination });
+                    edges.push(new NBasicBlock[] { jump.block,
+                            jump.onFalseDestination });
+                } else if (constants.containsKey(lhs)
+                        && constants.containsKey(rhs)) {
+                    edges.push(new NBasicBlock[] {
+                            jump.block,
+                            isTaken(jump, constants.get(lhs), constants
+                                    .get(rhs)) ? jump.onTrueDestination
+                                    : jump.onFalseDestination });
+                }
+                continue;
+            }
+            Integer value = null;
+            boolean varies = false;
+            if (ins instanceof NHIRIntConstant) {
+                value = ((NHIRIntConstant) ins).value;
+            } else if (ins instanceof NHIRPhiFunction) {
+                NHIRPhiFunction phi = (NHIRPhiFunction) ins;
+                BitSet executable = reached.get(phi.block);
+                for (int i = 0; i < phi.arguments.size(); i++) {
+                    int arg = hirMap.get(phi.arguments.get(i)).id;
+                    if (!executable.get(i)) {
+                        continue;
+                    } else if (varying.get(arg)) {
+                        varies = true;
+                    } else if (constants.containsKey(arg)) {
+                        varies |= value != null
+                                && !value.equals(constants.get(arg));
+                        value = constants.get(arg);
+                    }
+                }
+            } else if (ins instanceof NHIRArithmetic) {
+                NHIRArithmetic arithmetic = (NHIRArithmetic) ins;
+                int lhs = hirMap.get(arithmetic.lhs).id;
+                int rhs = hirMap.get(arithmetic.rhs).id;
+                if (varying.get(lhs) || varying.get(rhs)) {
+                    varies = true;
+                } else if (constants.containsKey(lhs)
+                        && constants.containsKey(rhs)) {
+                    int x = constants.get(lhs);
+                    int y = constants.get(rhs);
+                    int opcode = arithmetic.opcode;
+                    value = opcode == IADD ? x + y : opcode == ISUB ? x - y
+                            : x * y;
+                }
+            } else {
+                varies = true;
+            }
+            if (varies ? !varying.get(ins.id) : value != null
+                    && !constants.containsKey(ins.id)) {
+                if (varies) {
+                    varying.set(ins.id);
+                    constants.remove(ins.id);
+                } else {
+                    constants.put(ins.id, value);
+                }
+                if (users.containsKey(ins.id)) {
+                    for (NHIRInstruction user : users.get(ins.id)) {
+                        if (reached.containsKey(user.block)) {
+                            work.push(user);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Replace the constant instructions and jumps in the reached blocks.
+        boolean changed = false;
+        for (NBasicBlock block : basicBlocks) {
+            if (!reached.containsKey(block)) {
+                continue;
+            }
+            for (int id : new ArrayList<Integer>(block.hir)) {
+                NHIRInstruction ins = hirMap.get(id);
+                if (ins.id != id) {
+                    continue;
+                }
+                if (ins instanceof NHIRConditionalJump) {
+                    NHIRConditionalJump jump = (NHIRConditionalJump) ins;
+                    int lhs = hirMap.get(jump.lhs).id;
+                    int rhs = hirMap.get(jump.rhs).id;
+                    if (!constants.containsKey(lhs)
+                            || !constants.containsKey(rhs)) {
+                        continue;
+                    }
+                    NBasicBlock target = jump.onTrueDestination;
+                    NBasicBlock other = jump.onFalseDestination;
+                    if (!isTaken(jump, constants.get(lhs), constants.get(rhs))) {
+                        target = jump.onFalseDestination;
+                        other = jump.onTrueDestination;
+                    }
+                    hirMap.put(id, new NHIRGoto(block, id, target));
+                    if (other != target) {
+                        block.successors.remove(other);
+                        removePredecessor(other, other.predecessors
+                                .indexOf(block));
+                    }
+                    changed = true;
+                } else if (constants.containsKey(id)
+                        && !(ins instanceof NHIRIntConstant)) {
+                    replace(ins, new NHIRIntConstant(block, id, constants
+                            .get(id)));
+                    changed = true;
+                }
+            }
+        }
+
+        // Remove the blocks never reached; the dominators may then change.
+        for (NBasicBlock block : basicBlocks) {
+            block.visited = reached.containsKey(block);
+            changed |= !block.visited;
+        }
+        if (changed) {
+            removeUnreachableBlocks();
+            computeDominators();
+        }
+        return changed;
+    }
+
+    /**
+     * Return true if the specified conditional jump, comparing the specified
+     * values, jumps to its "true" destination, and false otherwise.
+     * 
+     * @param jump
+     *            the conditional jump.
+     * @param lhs
+     *            value of its lhs.
+     * @param rhs
+     *            value of its rhs.
+     * @return true or false.
+     */
+
+    private boolean isTaken(NHIRConditionalJump jump, int lhs, int rhs) {
+        switch (jump.opcode) {
+        case IF_ICMPEQ:
+            return lhs == rhs;
+        case IF_ICMPNE:
+            return lhs != rhs;
+        case IF_ICMPGT:
+            return lhs > rhs;
+        default:
+            return lhs <= rhs;
+        }
+    }
+
+    /**
+     * Replace each arithmetic instruction whose operands are constants with
+     * the constant it computes, and simplify the ones with an identity operand
+     * (x + 0, x - 0, x * 1, x * 0 and x - x).
+     * 
+     * @return true if an instruction was replaced, false otherwise.
+     */
+
+    private boolean foldConstants() {
+        boolean changed = false;
+        for (int id : new ArrayList<Integer>(hirMap.keySet())) {
+            NHIRInstruction ins = hirMap.get(id);
+            if (ins.id != id || !(ins instanceof NHIRArithmetic)) {
+                continue;
+            }
+            NHIRArithmetic arithmetic = (NHIRArithmetic) ins;
+            NHIRInstruction lhs = hirMap.get(arithmetic.lhs);
+            NHIRInstruction rhs = hirMap.get(arithmetic.rhs);
+            int opcode = arithmetic.opcode;
+            NHIRInstruction folded = null;
+            if (lhs instanceof NHIRIntConstant
+                    && rhs instanceof NHIRIntConstant) {
+                int x = ((NHIRIntConstant) lhs).value;
+                int y = ((NHIRIntConstant) rhs).value;
+                int value = opcode == IADD ? x + y : opcode == ISUB ? x - y
+                        : x * y;
+                folded = new NHIRIntConstant(ins.block, ins.id, value);
+            } else if (opcode == IMUL
+                    && (isIntConstant(lhs, 0) || isIntConstant(rhs, 0))
+                    || opcode == ISUB && lhs == rhs) {
+                folded = new NHIRIntConstant(ins.block, ins.id, 0);
+            } else if ((opcode == IADD || opcode == ISUB)
+                    && isIntConstant(rhs, 0) || opcode == IMUL
+                    && isIntConstant(rhs, 1)) {
+                folded = lhs;
+            } else if (opcode == IADD && isIntConstant(lhs, 0)
+                    || opcode == IMUL && isIntConstant(lhs, 1)) {
+                folded = rhs;
+            }
+            if (folded != null) {
+                replace(ins, folded);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replace each phi function whose arguments, other than the phi function
+     * itself, are all the same instruction with that instruction.
+     * 
+     * @return true if a phi function was replaced, false otherwise.
+     */
+
+    private boolean propagateCopies() {
+        boolean changed = false;
+        for (int id : new ArrayList<Integer>(hirMap.keySet())) {
+            NHIRInstruction ins = hirMap.get(id);
+            if (ins.id != id || !(ins instanceof NHIRPhiFunction)) {
+                continue;
+            }
+            NHIRInstruction value = null;
+            for (int arg : ((NHIRPhiFunction) ins).arguments) {
+                NHIRInstruction other = hirMap.get(arg);
+                if (other == ins || other == value) {
                     continue;
                 }
-                for (int i = 1; i < phi.arguments.size(); i++) {
-                    if (phi.arguments.get(i) != block.predecessors.get(i).locals[phi.local]) {
-                        match = false;
-                        phi.arguments.set(i,
-                                block.predecessors.get(i).locals[phi.local]);
+                if (value != null) {
+                    value = null;
+                    break;
+                }
+                value = other;
+            }
+            if (value != null && value.id < ins.id) {
+                replace(ins, value);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replace each integer constant and arithmetic instruction that repeats
+     * one in a dominating position with the earlier instruction. The dominator
+     * tree is walked from the specified block, with the expressions available
+     * on entry to the block in the specified map.
+     * 
+     * @param block
+     *            block to start from.
+     * @param available
+     *            maps expressions to the instructions computing them.
+     * @return true if an instruction was replaced, false otherwise.
+     */
+
+    private boolean eliminateCommonSubexpressions(NBasicBlock block,
+            HashMap<String, NHIRInstruction> available) {
+        boolean changed = false;
+        ArrayList<String> added = new ArrayList<String>();
+        for (int id : new ArrayList<Integer>(block.hir)) {
+            NHIRInstruction ins = hirMap.get(id);
+            String expression = null;
+            if (ins.id != id) {
+                continue;
+            } else if (ins instanceof NHIRIntConstant) {
+                expression = "" + ((NHIRIntConstant) ins).value;
+            } else if (ins instanceof NHIRArithmetic) {
+                NHIRArithmetic arithmetic = (NHIRArithmetic) ins;
+                int lhs = hirMap.get(arithmetic.lhs).id;
+                int rhs = hirMap.get(arithmetic.rhs).id;
+                if (arithmetic.opcode != ISUB && lhs > rhs) {
+                    int t = lhs;
+                    lhs = rhs;
+                    rhs = t;
+                }
+                expression = lhs + " "
+                        + NHIRInstruction.hirMnemonic[arithmetic.opcode] + " "
+                        + rhs;
+            } else {
+                continue;
+            }
+            NHIRInstruction other = available.get(expression);
+            if (other == null) {
+                available.put(expression, ins);
+                added.add(expression);
+            } else if (other.id < ins.id) {
+                replace(ins, other);
+                changed = true;
+            }
+        }
+        for (NBasicBlock child : basicBlocks) {
+            if (child.dom == block && child != block) {
+                changed |= eliminateCommonSubexpressions(child, available);
+            }
+        }
+        for (String expression : added) {
+            available.remove(expression);
+        }
+        return changed;
+    }
+
+    /**
+     * Move the instructions in each loop that compute the same value on every
+     * iteration (arithmetic on constants and values from outside the loop, and
+     * reads of static fields the loop neither writes nor may write through a
+     * call) into the loop's preheader, so that they are computed once. Inner
+     * loops are done first, so what they hoist may be hoisted again out of the
+     * loops around them.
+     * 
+     * @return true if an instruction was moved, false otherwise.
+     */
+
+    private boolean hoistLoopInvariants() {
+        boolean changed = false;
+        final HashMap<NBasicBlock, Integer> sizes = new HashMap<NBasicBlock, Integer>();
+        ArrayList<NBasicBlock> heads = new ArrayList<NBasicBlock>();
+        for (NBasicBlock block : basicBlocks) {
+            ArrayList<NBasicBlock> body = loopBody(block);
+            if (body != null) {
+                sizes.put(block, body.size());
+                heads.add(block);
+            }
+        }
+        Collections.sort(heads, new Comparator<NBasicBlock>() {
+            public int compare(NBasicBlock a, NBasicBlock b) {
+                return sizes.get(a) - sizes.get(b);
+            }
+        });
+        for (NBasicBlock head : heads) {
+            ArrayList<NBasicBlock> body = loopBody(head);
+            NBasicBlock preheader = preheader(head, body);
+            if (preheader == null) {
+                continue;
+            }
+            boolean hoisted = true;
+            while (hoisted) {
+                hoisted = false;
+                for (NBasicBlock block : body) {
+                    for (int id : new ArrayList<Integer>(block.hir)) {
+                        NHIRInstruction ins = hirMap.get(id);
+                        if (ins.id != id || !isInvariant(ins, body)) {
+                            continue;
+                        }
+                        for (int operand : ins.operands()) {
+                            if (hirMap.get(operand).block != preheader
+                                    && body.contains(hirMap.get(operand).block)) {
+                                hoist(hirMap.get(operand), preheader);
+                            }
+                        }
+                        hoist(ins, preheader);
+                        hoisted = changed = true;
                     }
                 }
-                if (match && firstArg != phi.id) {
-                    hirMap.put(phi.id, hirMap.get(firstArg));
-                    phi.block.hir.remove((Integer) phi.id);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Move the specified instruction to the end of the specified preheader,
+     * ahead of the jump (if any) that ends it.
+     * 
+     * @param ins
+     *            the instruction.
+     * @param preheader
+     *            the preheader.
+     */
+
+    private void hoist(NHIRInstruction ins, NBasicBlock preheader) {
+        ins.block.hir.remove((Integer) ins.id);
+        ins.block = preheader;
+        int last = preheader.hir.size() - 1;
+        if (last >= 0
+                && (hirMap.get(preheader.hir.get(last)) instanceof NHIRGoto || hirMap
+                        .get(preheader.hir.get(last)) instanceof NHIRConditionalJump)) {
+            preheader.hir.add(last, ins.id);
+        } else {
+            preheader.hir.add(ins.id);
+        }
+    }
+
+    /**
+     * Return the blocks of the loop headed by the specified block, i.e., the
+     * block and those from which a back edge to it can be reached without
+     * passing through it, or null if the block heads no loop.
+     * 
+     * @param head
+     *            the block.
+     * @return the blocks of the loop, head first, or null.
+     */
+
+    private ArrayList<NBasicBlock> loopBody(NBasicBlock head) {
+        ArrayList<NBasicBlock> body = new ArrayList<NBasicBlock>();
+        Stack<NBasicBlock> work = new Stack<NBasicBlock>();
+        body.add(head);
+        for (NBasicBlock pred : head.predecessors) {
+            if (dominates(head, pred) && !body.contains(pred)) {
+                body.add(pred);
+                work.push(pred);
+            }
+        }
+        if (body.size() == 1 && !head.predecessors.contains(head)) {
+            return null;
+        }
+        while (!work.isEmpty()) {
+            for (NBasicBlock pred : work.pop().predecessors) {
+                if (!body.contains(pred)) {
+                    body.add(pred);
+                    work.push(pred);
+                }
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Return the preheader of the loop headed by the specified block: the block
+     * through which the loop is entered, and which leads nowhere else. If the
+     * block the loop is entered from ends with a branch, or leads elsewhere
+     * too, a preheader is made and placed between the two. Return null if the
+     * loop is entered from more than one block, or if the block it would be
+     * entered from ends with a jump elsewhere.
+     * 
+     * @param head
+     *            the loop head.
+     * @param body
+     *            blocks of the loop.
+     * @return the preheader, or null.
+     */
+
+    private NBasicBlock preheader(NBasicBlock head, ArrayList<NBasicBlock> body) {
+        NBasicBlock entry = null;
+        for (NBasicBlock pred : head.predecessors) {
+            if (!body.contains(pred)) {
+                if (entry != null) {
+                    return null;
+                }
+                entry = pred;
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        NHIRInstruction last = entry.hir.isEmpty() ? null : hirMap
+                .get(entry.hir.get(entry.hir.size() - 1));
+        boolean branches = last instanceof NHIRGoto
+                || last instanceof NHIRConditionalJump;
+        if (entry.successors.size() == 1 && !branches) {
+            return entry;
+        }
+        if (last instanceof NHIRGoto
+                && ((NHIRGoto) last).destination != head) {
+            // The loop is not really entered from here: the goto skips it.
+            return null;
+        }
+
+        // The entry block ends with a branch, so nothing falls through from
+        // it into the block after it, where the preheader is placed; the
+        // preheader ends with a jump to the loop head.
+        NBasicBlock preheader = new NBasicBlock(this, blockId++);
+        preheader.locals = entry.locals.clone();
+        preheader.dom = entry;
+        head.dom = preheader;
+        preheader.predecessors.add(entry);
+        preheader.successors.add(head);
+        entry.successors.set(entry.successors.indexOf(head), preheader);
+        head.predecessors.set(head.predecessors.indexOf(entry), preheader);
+        if (last instanceof NHIRGoto) {
+            ((NHIRGoto) last).destination = preheader;
+        } else if (last instanceof NHIRConditionalJump) {
+            NHIRConditionalJump jump = (NHIRConditionalJump) last;
+            if (jump.onTrueDestination == head) {
+                jump.onTrueDestination = preheader;
+            }
+            if (jump.onFalseDestination == head) {
+                jump.onFalseDestination = preheader;
+            }
+        }
+        NHIRInstruction jump = new NHIRGoto(preheader, hirId++, head);
+        hirMap.put(jump.id, jump);
+        preheader.hir.add(jump.id);
+        basicBlocks.add(basicBlocks.indexOf(entry) + 1, preheader);
+        return preheader;
+    }
+
+    /**
+     * Return true if the specified instruction, in the specified loop, may be
+     * moved out of it, and false otherwise.
+     * 
+     * @param ins
+     *            the instruction.
+     * @param body
+     *            blocks of the loop.
+     * @return true or false.
+     */
+
+    private boolean isInvariant(NHIRInstruction ins, ArrayList<NBasicBlock> body) {
+        if (ins instanceof NHIRGetField) {
+            NHIRGetField field = (NHIRGetField) ins;
+            for (NBasicBlock block : body) {
+                for (int id : block.hir) {
+                    NHIRInstruction other = hirMap.get(id);
+                    if (other instanceof NHIRInvoke
+                            || other instanceof NHIRPutField
+                            && ((NHIRPutField) other).target
+                                    .equals(field.target)
+                            && ((NHIRPutField) other).name.equals(field.name)) {
+                        return false;
+                    }
+                }
+            }
+        } else if (!(ins instanceof NHIRArithmetic)) {
+            return false;
+        }
+
+        // A constant is as cheap to load inside the loop as its register
+        // would be to keep, so it is only moved along with a user.
+        for (int operand : ins.operands()) {
+            if (body.contains(hirMap.get(operand).block)
+                    && !(hirMap.get(operand) instanceof NHIRIntConstant)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if block a dominates block b, i.e., every path from the
+     * begin block to b passes through a, and false otherwise.
+     * 
+     * @param a
+     *            a block.
+     * @param b
+     *            another block.
+     * @return true or false.
+     */
+
+    private boolean dominates(NBasicBlock a, NBasicBlock b) {
+        for (NBasicBlock block = b; block != null; block = block.dom) {
+            if (block == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove the pure instructions (see NHIRInstruction.isPure()) whose values
+     * are not used, directly or through other instructions, by an instruction
+     * that is not pure.
+     */
+
+    private void eliminateDeadCode() {
+        BitSet live = new BitSet();
+        Stack<NHIRInstruction> work = new Stack<NHIRInstruction>();
+        for (NBasicBlock block : basicBlocks) {
+            for (int id : block.hir) {
+                NHIRInstruction ins = hirMap.get(id);
+                if (ins.id == id && !ins.isPure() && !live.get(id)) {
+                    live.set(id);
+                    work.push(ins);
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            for (int operand : work.pop().operands()) {
+                NHIRInstruction ins = hirMap.get(operand);
+                if (!live.get(ins.id)) {
+                    live.set(ins.id);
+                    work.push(ins);
+                }
+            }
+        }
+        for (int id : new ArrayList<Integer>(hirMap.keySet())) {
+            NHIRInstruction ins = hirMap.get(id);
+            if (!live.get(ins.id)) {
+                hirMap.remove(id);
+                if (ins.id == id) {
+                    ins.block.hir.remove((Integer) id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if the specified instruction is an integer constant with the
+     * specified value, and false otherwise.
+     * 
+     * @param ins
+     *            the instruction.
+     * @param value
+     *            the value.
+     * @return true or false.
+     */
+
+    private boolean isIntConstant(NHIRInstruction ins, int value) {
+        return ins instanceof NHIRIntConstant
+                && ((NHIRIntConstant) ins).value == value;
+    }
+
+    /**
+     * Make every HIR id that refers to the specified instruction refer instead
+     * to its replacement. Unless the replacement takes over the instruction's
+     * id, the instruction is also removed from its block.
+     * 
+     * @param ins
+     *            the instruction to replace.
+     * @param with
+     *            its replacement.
+     */
+
+    private void replace(NHIRInstruction ins, NHIRInstruction with) {
+        for (Map.Entry<Integer, NHIRInstruction> entry : hirMap.entrySet()) {
+            if (entry.getValue() == ins) {
+                entry.setValue(with);
+            }
+        }
+        if (with.id != ins.id) {
+            ins.block.hir.remove((Integer) ins.id);
+        }
+    }
+
+    /**
+     * Eliminate redundant phi functions, of the form x = (y, x, x, ..., x) or
+     * x = (y, y, ..., y), replacing them with y. Eliminating one can make
+     * others redundant, so this is repeated until there are none.
+     */
+
+    public void eliminateRedundantPhiFunctions() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (NBasicBlock block : basicBlocks) {
+                for (int ins : new ArrayList<Integer>(block.hir)) {
+                    NHIRInstruction hir = hirMap.get(ins);
+                    if (!(hir instanceof NHIRPhiFunction) || hir.id != ins) {
+                        continue;
+                    }
+                    NHIRPhiFunction phi = (NHIRPhiFunction) hir;
+                    int value = -1;
+                    boolean match = true;
+                    for (int arg : phi.arguments) {
+                        arg = hirMap.get(arg).id;
+                        if (arg != phi.id) {
+                            match &= value == -1 || value == arg;
+                            value = arg;
+                        }
+                    }
+                    if (match && value != -1) {
+                        hirMap.put(phi.id, hirMap.get(value));
+                        block.hir.remove((Integer) phi.id);
+                        changed = true;
+                    }
                 }
             }
         }
@@ -1212,13 +2478,17 @@ class NControlFlowGraph {
      * Resolve the phi functions in this cfg, i.e., for each x = phi(x1, x2,
      * ..., xn) generate an (LIR) move xi, x instruction at the end of the
      * predecessor i of thte block defining the phi function; if the instruction
-     * there is a branch, add the instruction prior to the branch.
+     * there is a branch, add the instruction prior to the branch. The moves
+     * into a block's phi functions happen all at once, so those added to each
+     * predecessor are ordered such that none overwrites a register another
+     * has yet to read; see sequentialize().
      */
 
     public void resolvePhiFunctions() {
+        HashMap<NBasicBlock, ArrayList<NRegister[]>> copies = new HashMap<NBasicBlock, ArrayList<NRegister[]>>();
         for (int ins1 : hirMap.keySet()) {
             NHIRInstruction hir = hirMap.get(ins1);
-            if (hir instanceof NHIRPhiFunction) {
+            if (hir instanceof NHIRPhiFunction && hir.id == ins1) {
                 NHIRPhiFunction phi = (NHIRPhiFunction) hir;
                 NBasicBlock block = phi.block;
                 for (int i = 0; i < phi.arguments.size(); i++) {
@@ -1227,26 +2497,162 @@ class NControlFlowGraph {
                         continue;
                     }
                     NBasicBlock targetBlock = block.predecessors.get(i);
-                    NLIRMove move = new NLIRMove(arg.block, lirId++, arg.lir,
-                            phi.lir);
-                    int len = targetBlock.hir.size();
-                    if (hirMap.get(targetBlock.hir.get(len - 1)) instanceof NHIRGoto
-                            || hirMap.get(targetBlock.hir.get(len - 1)) instanceof NHIRConditionalJump) {
-                        targetBlock.lir.add(len - 1, move);
-                    } else {
-                        targetBlock.lir.add(move);
+                    if (!copies.containsKey(targetBlock)) {
+                        copies.put(targetBlock, new ArrayList<NRegister[]>());
                     }
+                    NRegister[] copy = { arg.lir.write, phi.lir.write };
+                    copies.get(targetBlock).add(copy);
                 }
             }
         }
+        for (NBasicBlock targetBlock : basicBlocks) {
+            if (!copies.containsKey(targetBlock)) {
+                continue;
+            }
+            int at = targetBlock.lir.size();
+            NLIRInstruction last = at == 0 ? null : targetBlock.lir
+                    .get(at - 1);
+            if (last instanceof NLIRGoto || last instanceof NLIRConditionalJump) {
+                at--;
+            }
+            for (NLIRMove move : sequentialize(targetBlock, copies
+                    .get(targetBlock))) {
+                targetBlock.lir.add(at++, move);
+            }
+        }
     }
 
     /**
-     * Compute optimal ordering of the basic blocks in this cfg.
+     * Return moves that carry out the specified copies, which are to happen
+     * all at once, one after another: a copy is made only once no other copy
+     * left reads its destination. If every copy left does, the copies form
+     * cycles, and one is broken by first saving a source in a new register.
+     * Copies of a register to itself are dropped.
+     * 
+     * @param block
+     *            the block the moves are for.
+     * @param copies
+     *            the source and destination registers of each copy.
+     * @return the moves.
+     */
+
+    private ArrayList<NLIRMove> sequentialize(NBasicBlock block,
+            ArrayList<NRegister[]> copies) {
+        ArrayList<NLIRMove> moves = new ArrayList<NLIRMove>();
+        ArrayList<NRegister[]> pending = new ArrayList<NRegister[]>(copies);
+        while (!pending.isEmpty()) {
+            NRegister[] next = null;
+            for (NRegister[] copy : pending) {
+                boolean isRead = false;
+                for (NRegister[] other : pending) {
+                    if (other != copy
+                            && other[0].number() == copy[1].number()) {
+                        isRead = true;
+                    }
+                }
+                if (!isRead) {
+                    next = copy;
+                    break;
+                }
+            }
+            if (next == null) {
+                NRegister[] copy = pending.get(0);
+                NVirtualRegister to = (NVirtualRegister) copy[1];
+                NVirtualRegister temp = new NVirtualRegister(regId++, to
+                        .sType(), to.lType());
+                registers.add(temp);
+                moves.add(new NLIRMove(block, lirId++, copy[0], temp));
+                for (NRegister[] other : pending) {
+                    if (other[0].number() == copy[0].number()) {
+                        other[0] = temp;
+                    }
+                }
+                continue;
+            }
+            pending.remove(next);
+            if (next[0].number() != next[1].number()) {
+                moves.add(new NLIRMove(block, lirId++, next[0], next[1]));
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Compute optimal ordering of the basic blocks in this cfg, so that control
+     * falls through, rather than jumps, along as many edges as possible,
+     * favoring the ones taken most often. Each edge is weighed by ten to the
+     * power of the loop depth it is at; heaviest first (and among equals, back
+     * edges first, which puts the test of a loop at its bottom), the blocks at
+     * either end of an edge are chained together if the one ends a chain and
+     * the other begins one. The chains are laid out in the order of their
+     * earliest blocks, and the jumps made to suit: a goto to the block that
+     * follows is dropped, a conditional jump is inverted if its true
+     * destination follows, and a goto is added where control would fall
+     * through to a block that no longer follows.
      */
 
     public void orderBlocks() {
-        // TBD
+        computeLoopDepths();
+        final HashMap<NBasicBlock[], Double> weights = new HashMap<NBasicBlock[], Double>();
+        ArrayList<NBasicBlock[]> edges = new ArrayList<NBasicBlock[]>();
+        HashMap<NBasicBlock, ArrayList<NBasicBlock>> chains = new HashMap<NBasicBlock, ArrayList<NBasicBlock>>();
+        for (NBasicBlock block : basicBlocks) {
+            ArrayList<NBasicBlock> chain = new ArrayList<NBasicBlock>();
+            chain.add(block);
+            chains.put(block, chain);
+            for (NBasicBlock succ : block.successors) {
+                NBasicBlock[] edge = { block, succ };
+                edges.add(edge);
+                weights.put(edge, Math.pow(10, Math.min(block.loopDepth,
+                        succ.loopDepth))
+                        * (dominates(succ, block) ? 2 : 1));
+            }
+        }
+        Collections.sort(edges, new Comparator<NBasicBlock[]>() {
+            public int compare(NBasicBlock[] a, NBasicBlock[] b) {
+                return weights.get(b).compareTo(weights.get(a));
+            }
+        });
+        for (NBasicBlock[] edge : edges) {
+            ArrayList<NBasicBlock> from = chains.get(edge[0]);
+            ArrayList<NBasicBlock> to = chains.get(edge[1]);
+            if (from != to && from.get(from.size() - 1) == edge[0]
+                    && to.get(0) == edge[1] && edge[1] != basicBlocks.get(0)) {
+                from.addAll(to);
+                for (NBasicBlock block : to) {
+                    chains.put(block, from);
+                }
+            }
+        }
+        ArrayList<NBasicBlock> order = new ArrayList<NBasicBlock>();
+        for (NBasicBlock block : basicBlocks) {
+            if (!order.contains(block)) {
+                order.addAll(chains.get(block));
+            }
+        }
+        basicBlocks = order;
+
+        for (int i = 0; i < basicBlocks.size(); i++) {
+            NBasicBlock block = basicBlocks.get(i);
+            NBasicBlock next = i + 1 < basicBlocks.size() ? basicBlocks
+                    .get(i + 1) : null;
+            NLIRInstruction last = block.lir.isEmpty() ? null : block.lir
+                    .get(block.lir.size() - 1);
+            if (last instanceof NLIRGoto) {
+                if (((NLIRGoto) last).destination == next) {
+                    block.lir.remove(last);
+                }
+            } else if (last instanceof NLIRConditionalJump) {
+                if (((NLIRConditionalJump) last).onTrueDestination == next) {
+                    ((NLIRConditionalJump) last).invert();
+                }
+            } else if (block.successors.size() == 1
+                    && !(last instanceof NLIRReturn)
+                    && block.successors.get(0) != next) {
+                block.lir.add(new NLIRGoto(block, lirId++, block.successors
+                        .get(0)));
+            }
+        }
     }
 
     /**
@@ -1376,73 +2782,6 @@ class NControlFlowGraph {
         }
     }
 
-    /**
-     * Given a basic block and its predecessor, return their common dominator.
-     * 
-     * @param b
-     *            a basic block.
-     * @param pred
-     *            predecessor of b.
-     * 
-     * @return common dominator of the given block and its predecessor.
-     */
-
-    private NBasicBlock commonDom(NBasicBlock b, NBasicBlock pred) {
-        NBasicBlock dom = b;
-        clearBlockVisitations();
-        while (dom != null) {
-            dom.visited = true;
-            dom = dom.dom;
-        }
-        dom = pred;
-        while (!dom.visited) {
-            dom = dom.dom;
-        }
-        return dom;
-    }
-
-    /**
-     * Merge the locals from each of the predecessors of the specified block
-     * with the locals in the block.
-     * 
-     * @param block
-     *            block to merge into.
-     */
-
-    private void mergeLocals(NBasicBlock block) {
-        for (NBasicBlock other : block.predecessors) {
-            mergeLocals(block, other);
-        }
-    }
-
-    /**
-     * Merge the locals in block b with the locals in block a.
-     * 
-     * @param a
-     *            block to merge into.
-     * @param b
-     *            block to merge from.
-     */
-
-    private void mergeLocals(NBasicBlock a, NBasicBlock b) {
-        for (int i = 0; i < a.locals.length; i++) {
-            if (a.cfg.hirMap.get(a.locals[i]).equals(
-                    b.cfg.hirMap.get(b.locals[i]))) {
-                continue;
-            } else {
-                ArrayList<Integer> args = new ArrayList<Integer>();
-                args.add(a.locals[i]);
-                args.add(b.locals[i]);
-                NHIRInstruction ins = new NHIRPhiFunction(a,
-                        NControlFlowGraph.hirId++, args, i);
-                a.locals[i] = ins.id;
-                a.hir.add(ins.id);
-                a.cfg.hirMap.put(ins.id, ins);
-                ((NHIRPhiFunction) ins).inferType();
-            }
-        }
-    }
-
     /**
      * Convert the bytecode in the specified list to their tuple
      * representations.
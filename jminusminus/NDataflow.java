@@ -0,0 +1,255 @@
+// Copyright 2013 Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A solver for bit vector dataflow problems over the basic blocks of a control
+ * flow graph, such as liveness, reaching definitions and available
+ * expressions. A problem is defined by its direction, its meet operator (union
+ * or intersection), and the gen and kill sets of each block; the solution is
+ * the set of facts holding at the entry and at the exit of each block, where
+ *
+ * output = gen(block) | (input - kill(block))
+ *
+ * for a block, input being the meet of the neighbouring blocks' outputs
+ * (predecessors for a forward problem, successors for a backward one), and
+ * empty for a block with no such neighbours.
+ *
+ * Rather than sweep over all the blocks until nothing changes, the solver
+ * keeps a worklist of the blocks whose inputs may have changed, and visits
+ * them in postorder for a backward problem, or reverse postorder for a forward
+ * one, so that (loops aside) a block is visited after the blocks that feed it.
+ * The sets are updated in place; nothing is allocated once the solver is set
+ * up.
+ */
+
+public abstract class NDataflow {
+
+    /** The control flow graph. */
+    protected NControlFlowGraph cfg;
+
+    /** Whether facts flow from predecessors to successors. */
+    private boolean forward;
+
+    /** Whether the meet operator is union (else intersection). */
+    private boolean union;
+
+    /** Number of facts, ie, bits in each set. */
+    private int size;
+
+    /** The blocks, in the order in which they are visited. */
+    private NBasicBlock[] blocks;
+
+    /** Maps each block to its index in blocks. */
+    private HashMap<NBasicBlock, Integer> index;
+
+    /**
+     * For each block (by its index in blocks), the indices of the blocks it
+     * takes its input from.
+     */
+    private int[][] sources;
+
+    /**
+     * For each block (by its index in blocks), the indices of the blocks that
+     * take their input from it.
+     */
+    private int[][] sinks;
+
+    /** The inputs and outputs of the blocks, by index in blocks. */
+    private BitSet[] inputs, outputs;
+
+    /**
+     * Construct a dataflow problem over the blocks of the given cfg.
+     *
+     * @param cfg
+     *            the control flow graph.
+     * @param forward
+     *            true for a forward problem, false for a backward one.
+     * @param union
+     *            true if the meet operator is union, false if it is
+     *            intersection.
+     * @param size
+     *            the number of facts.
+     */
+
+    protected NDataflow(NControlFlowGraph cfg, boolean forward, boolean union,
+            int size) {
+        this.cfg = cfg;
+        this.forward = forward;
+        this.union = union;
+        this.size = size;
+    }
+
+    /**
+     * The facts generated by the given block.
+     *
+     * @param block
+     *            the block.
+     * @return the facts generated by the block.
+     */
+
+    protected abstract BitSet gen(NBasicBlock block);
+
+    /**
+     * The facts killed by the given block.
+     *
+     * @param block
+     *            the block.
+     * @return the facts killed by the block.
+     */
+
+    protected abstract BitSet kill(NBasicBlock block);
+
+    /**
+     * Solve this dataflow problem.
+     */
+
+    public void solve() {
+        order();
+        int n = blocks.length;
+        inputs = new BitSet[n];
+        outputs = new BitSet[n];
+        BitSet worklist = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            inputs[i] = new BitSet(size);
+            outputs[i] = new BitSet(size);
+            if (!union && sources[i].length > 0) {
+                // Start from everything, and remove what does not hold.
+                outputs[i].set(0, size);
+            }
+        }
+        worklist.set(0, n);
+
+        // Visit the blocks on the worklist in order, going round again
+        // for those put back on it by the ones after them.
+        BitSet output = new BitSet(size);
+        int i = 0;
+        while (!worklist.isEmpty()) {
+            i = worklist.nextSetBit(i);
+            if (i < 0) {
+                i = worklist.nextSetBit(0);
+            }
+            worklist.clear(i);
+            BitSet input = inputs[i];
+            int[] from = sources[i];
+            if (from.length > 0) {
+                input.clear();
+                input.or(outputs[from[0]]);
+                for (int j = 1; j < from.length; j++) {
+                    if (union) {
+                        input.or(outputs[from[j]]);
+                    } else {
+                        input.and(outputs[from[j]]);
+                    }
+                }
+            }
+            output.clear();
+            output.or(input);
+            output.andNot(kill(blocks[i]));
+            output.or(gen(blocks[i]));
+            if (!output.equals(outputs[i])) {
+                BitSet old = outputs[i];
+                outputs[i] = output;
+                output = old;
+                for (int j : sinks[i]) {
+                    worklist.set(j);
+                }
+            }
+        }
+    }
+
+    /**
+     * The facts holding at the entry to the given block.
+     *
+     * @param block
+     *            the block.
+     * @return the facts at its entry.
+     */
+
+    public BitSet in(NBasicBlock block) {
+        int i = index.get(block);
+        return forward ? inputs[i] : outputs[i];
+    }
+
+    /**
+     * The facts holding at the exit from the given block.
+     *
+     * @param block
+     *            the block.
+     * @return the facts at its exit.
+     */
+
+    public BitSet out(NBasicBlock block) {
+        int i = index.get(block);
+        return forward ? outputs[i] : inputs[i];
+    }
+
+    /**
+     * Put the blocks of the cfg in postorder (for a backward problem) or
+     * reverse postorder (for a forward one) of a depth first search from the
+     * entry block, with any it does not reach after (or before) them, and
+     * work out which depend on which.
+     */
+
+    private void order() {
+        ArrayList<NBasicBlock> order = cfg.reversePostorder();
+        HashSet<NBasicBlock> reached = new HashSet<NBasicBlock>(order);
+        for (NBasicBlock block : cfg.basicBlocks) {
+            if (!reached.contains(block)) {
+                order.add(block);
+            }
+        }
+        if (!forward) {
+            Collections.reverse(order);
+        }
+        int n = order.size();
+        blocks = order.toArray(new NBasicBlock[n]);
+        index = new HashMap<NBasicBlock, Integer>();
+        for (int i = 0; i < n; i++) {
+            index.put(blocks[i], i);
+        }
+
+        // Work out where each block takes its input from, and which
+        // blocks take their input from it.
+        sources = new int[n][];
+        sinks = new int[n][];
+        for (int i = 0; i < n; i++) {
+            sources[i] = indices(forward ? blocks[i].predecessors
+                    : blocks[i].successors);
+            sinks[i] = indices(forward ? blocks[i].successors
+                    : blocks[i].predecessors);
+        }
+    }
+
+    /**
+     * The indices in blocks of the given blocks.
+     *
+     * @param list
+     *            the blocks.
+     * @return their indices.
+     */
+
+    private int[] indices(ArrayList<NBasicBlock> list) {
+        int count = 0;
+        for (NBasicBlock block : list) {
+            if (index.containsKey(block)) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        count = 0;
+        for (NBasicBlock block : list) {
+            if (index.containsKey(block)) {
+                indices[count++] = index.get(block);
+            }
+        }
+        return indices;
+    }
+
+}
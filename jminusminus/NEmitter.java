@@ -31,6 +31,15 @@ public class NEmitter {
     /** Destination directory for the native SPIM code. */
     private String destDir;
 
+    /** Names of the peephole rules (see NPeephole) to apply to SPIM code. */
+    private ArrayList<String> rules;
+
+    /**
+     * Whether the number of times the peephole rules fired is to be reported
+     * for each method, to STDERR.
+     */
+    private boolean stats;
+
     /**
      * Whether an error occurred while creating/writing SPIM code.
      */
@@ -86,11 +95,12 @@ public class NEmitter {
     }
 
     /**
-     * Emits SPIM code to pop the stack frame that was setup for the procedure
-     * denoted by cfg. This involves restoring the return address (ra), the
-     * frame pointer (fp), any physical registers (t0, ..., t9, s0, ..., s7)
-     * used by the procedure, setting fp to the restored value (i.e. popping the
-     * stack frame), and finally jumping to ra (the caller).
+     * Emits SPIM code (following the label cfg.labelPrefix + ".restore") to
+     * pop the stack frame that was setup for the procedure denoted by cfg.
+     * This involves restoring the return address (ra), the frame pointer (fp),
+     * any physical registers (t0, ..., t9, s0, ..., s7) used by the procedure,
+     * setting fp to the restored value (i.e. popping the stack frame), and
+     * finally jumping to ra (the caller).
      * 
      * @param cfg
      *            the control flow graph instance.
@@ -100,7 +110,6 @@ public class NEmitter {
 
     private void popStackFrame(NControlFlowGraph cfg, PrintWriter out) {
         int frameSize = cfg.pRegisters.size() * 4 + cfg.offset * 4 + 8;
-        out.printf("%s.restore:\n", cfg.labelPrefix);
         out.printf("    lw      $ra,%d($sp) \t # Restore return address\n",
                 frameSize - 4);
         out.printf("    lw      $fp,%d($sp) \t # Restore frame pointer\n",
@@ -125,14 +134,31 @@ public class NEmitter {
      *            list of CLFile objects.
      * @param ra
      *            register allocation scheme (naive, linear, or graph).
+     * @param passes
+     *            names of the HIR optimization passes to run (see
+     *            NControlFlowGraph.optimize()).
+     * @param rules
+     *            names of the peephole rules to apply to the SPIM code (see
+     *            NPeephole).
+     * @param stats
+     *            whether the time taken by register allocation, the number of
+     *            spill slots it needed, and the number of times the peephole
+     *            rules fired, are to be reported for each method, to STDERR.
      */
 
-    public NEmitter(String sourceFile, ArrayList<CLFile> clFiles, String ra) {
+    public NEmitter(String sourceFile, ArrayList<CLFile> clFiles, String ra,
+            ArrayList<String> passes, ArrayList<String> rules, boolean stats) {
+        this.rules = rules;
+        this.stats = stats;
         this.sourceFile = sourceFile.substring(sourceFile
                 .lastIndexOf(File.separator) + 1);
         classes = new HashMap<CLFile, HashMap<CLMethodInfo, NControlFlowGraph>>();
         for (CLFile clFile : clFiles) {
             CLConstantPool cp = clFile.constantPool;
+            int nameIndex = ((CLConstantClassInfo) cp
+                    .cpItem(clFile.thisClass)).nameIndex;
+            String className = new String(((CLConstantUtf8Info) cp
+                    .cpItem(nameIndex)).b);
             HashMap<CLMethodInfo, NControlFlowGraph> methods = new HashMap<CLMethodInfo, NControlFlowGraph>();
             for (int i = 0; i < clFile.methodsCount; i++) {
                 CLMethodInfo m = clFile.methods.get(i);
@@ -156,11 +182,12 @@ public class NEmitter {
                 // Remove unreachable blocks from cfg.
                 cfg.removeUnreachableBlocks();
 
-                // Compute the dominator of each block in the cfg.
-                cfg.computeDominators(cfg.basicBlocks.get(0), null);
+                // Compute the dominator of each block in the cfg,
+                // and its dominance frontier.
+                cfg.computeDominators();
 
                 // Convert the tuples in each block in the cfg to
-                // high-level (HIR) instructions.
+                // high-level (HIR) instructions, in SSA form.
                 cfg.tuplesToHir();
 
                 // Eliminate redundant phi functions, i.e., replace
@@ -168,9 +195,28 @@ public class NEmitter {
                 // with y.
                 cfg.eliminateRedundantPhiFunctions();
 
+                // Save the cfg for the method in a map keyed in by
+                // the CLMethodInfo object for the method.
+                methods.put(m, cfg);
+            }
+
+            // The HIR of every method in the class is now at hand, to
+            // be inlined into the others.
+            for (int i = 0; i < clFile.methodsCount; i++) {
+                CLMethodInfo m = clFile.methods.get(i);
+                NControlFlowGraph cfg = methods.get(m);
+                PrettyPrinter p = new PrettyPrinter();
+                p.printf("%s %s\n", cfg.name, cfg.desc);
+
+                // Replace calls to small static methods in the class
+                // with their bodies.
+                if (passes.contains("inline")) {
+                    cfg.inlineCalls(className, methods.values());
+                }
+
                 // Perform optimizations on the high-level
                 // instructions.
-                cfg.optimize();
+                cfg.optimize(passes);
 
                 // Write the HIR instructions in cfg to STDOUT.
                 cfg.writeHirToStdOut(p);
@@ -191,10 +237,6 @@ public class NEmitter {
                 // Write the LIR instructions in cfg to STDOUT.
                 cfg.writeLirToStdOut(p);
 
-                // Save the cfg for the method in a map keyed in by
-                // the CLMethodInfo object for the method.
-                methods.put(m, cfg);
-
                 // Perform register allocation.
                 NRegisterAllocator regAllocator;
                 if (ra.equals("naive")) {
@@ -204,7 +246,17 @@ public class NEmitter {
                 } else {
                     regAllocator = new NGraphRegisterAllocator(cfg);
                 }
+                int vregs = cfg.registers.size() - 32;
+                int offset = cfg.offset;
+                long start = System.nanoTime();
                 regAllocator.allocation();
+                if (stats) {
+                    System.err.printf(
+                            "%s.%s%s: %d vregs, %.3f ms, %d spills\n",
+                            className, cfg.name, cfg.desc, vregs,
+                            (System.nanoTime() - start) / 1e6, cfg.offset
+                                    - offset);
+                }
 
                 // Write the intervals in cfg to STDOUT.
                 cfg.writeIntervalsToStdOut(p);
@@ -289,12 +341,29 @@ public class NEmitter {
                     // Setup stack frame for this method
                     pushStackFrame(cfg, out);
 
+                    // The code for the blocks goes through the peephole
+                    // optimizer on its way out.
+                    ArrayList<NSpimInstruction> code = new ArrayList<NSpimInstruction>();
                     for (NBasicBlock block : cfg.basicBlocks) {
-                        out.printf("%s.%d:\n", cfg.labelPrefix, block.id);
+                        code.add(NSpimInstruction.label(cfg.labelPrefix + "."
+                                + block.id));
                         for (NLIRInstruction lir : block.lir) {
-                            lir.toSpim(out);
+                            lir.toSpim(code);
+                        }
+                    }
+                    code.add(NSpimInstruction.label(cfg.labelPrefix
+                            + ".restore"));
+                    NPeephole peephole = new NPeephole(rules, code);
+                    peephole.optimize();
+                    peephole.write(out);
+                    if (stats && !rules.isEmpty()) {
+                        String fired = "";
+                        for (String rule : rules) {
+                            fired += (fired.equals("") ? "" : ", ") + rule
+                                    + " " + peephole.fired(rule);
                         }
-                        out.printf("\n");
+                        System.err.printf("%s.%s%s: peephole %s\n",
+                                className, methodName, methodDesc, fired);
                     }
 
                     // Pop the stack frame for this method.
@@ -3,13 +3,41 @@
 package jminusminus;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Stack;
+
+import static jminusminus.NPhysicalRegister.*;
 
 /**
- * Implements register allocation using graph coloring algorithm.
+ * Implements register allocation using graph coloring algorithm (Chaitin and
+ * Briggs). An interference graph is built from the live variable information
+ * over the LIR code; registers related by moves are coalesced where that
+ * cannot make the graph harder to color; the graph is simplified
+ * (optimistically) and colored with the physical registers available; and the
+ * registers left uncolored are spilled to the stack, the code rewritten to
+ * load and store them, and the whole repeated.
  */
 
 public class NGraphRegisterAllocator extends NRegisterAllocator {
 
+    /** Number of colors, i.e., of physical registers available. */
+    private int colors;
+
+    /** Neighbors of each register in the interference graph. */
+    private ArrayList<BitSet> neighbors;
+
+    /** Registers (not coalesced into others) in the interference graph. */
+    private BitSet nodes;
+
+    /** The register each register has been coalesced into, or itself. */
+    private int[] alias;
+
+    /** Estimated cost of spilling each register. */
+    private double[] costs;
+
+    /** Register to register moves; candidates for coalescing. */
+    private ArrayList<NLIRInstruction> moves;
+
     /**
      * Construct a NGraphRegisterAllocator.
      * 
@@ -26,7 +54,326 @@ public class NGraphRegisterAllocator extends NRegisterAllocator {
      */
 
     public void allocation() {
-        buildIntervals();
+        // An instruction may need both of its operands in registers
+        // at once.
+        colors = Math.max(2, NPhysicalRegister.MAX_COUNT);
+        cfg.computeLoopDepths();
+
+        // Formal parameters fifth and above are passed on the stack,
+        // so are spilled to begin with.
+        findFormals();
+        if (!formals.isEmpty()) {
+            rewrite(formals);
+        }
+
+        int[] color;
+        BitSet spilled;
+        do {
+            buildIntervals();
+            buildInterferenceGraph();
+            coalesce();
+            color = select(simplify());
+            spilled = new BitSet();
+            for (int i = 32; i < cfg.registers.size(); i++) {
+                if (nodes.get(find(i)) && color[find(i)] < 0) {
+                    spilled.set(i);
+                }
+            }
+            if (!spilled.isEmpty()) {
+                spill(spilled);
+            }
+        } while (!spilled.isEmpty());
+
+        // Allocate any fixed registers (a0, ..., a3 and v0) that were
+        // assigned during generation phase to the appropriate
+        // interval.
+        for (int i = 0; i < 32; i++) {
+            if (cfg.registers.get(i) != null) {
+                cfg.intervals.get(i).pRegister = (NPhysicalRegister) cfg.registers
+                        .get(i);
+            }
+        }
+
+        // Map the colors to physical registers.
+        boolean[] used = new boolean[colors];
+        for (int i = 32; i < cfg.registers.size(); i++) {
+            NInterval interval = cfg.intervals.get(i);
+            if (offsets.containsKey(i)) {
+                interval.spill = true;
+                interval.offset = offsets.get(i);
+                interval.offsetFrom = formals.get(i) ? OffsetFrom.FP
+                        : OffsetFrom.SP;
+            } else if (nodes.get(find(i))) {
+                interval.pRegister = NPhysicalRegister.regInfo[T0
+                        + color[find(i)]];
+                used[color[find(i)]] = true;
+            }
+        }
+        for (int c = 0; c < colors; c++) {
+            if (used[c]) {
+                cfg.pRegisters.add(NPhysicalRegister.regInfo[T0 + c]);
+            }
+        }
+
+        // The moves between registers given the same color (those
+        // coalesced, in particular) are no longer needed.
+        for (NBasicBlock block : cfg.basicBlocks) {
+            ArrayList<NLIRInstruction> newLir = new ArrayList<NLIRInstruction>();
+            for (NLIRInstruction lir : block.lir) {
+                if (!(lir instanceof NLIRMove)
+                        || cfg.intervals.get(lir.write.number()).pRegister != cfg.intervals
+                                .get(lir.reads.get(0).number()).pRegister) {
+                    newLir.add(lir);
+                }
+            }
+            block.lir = newLir;
+        }
+    }
+
+    /**
+     * Build the interference graph from the live variable information computed
+     * by buildIntervals(): a register written by an instruction interferes with
+     * every register live after it, except that the destination of a move does
+     * not interfere with its source. Also gather the moves, and weigh the
+     * uses and definitions of each register into the cost of spilling it, by
+     * ten to the power of the loop depth of the block each is in.
+     */
+
+    private void buildInterferenceGraph() {
+        neighbors = new ArrayList<BitSet>();
+        for (int i = 0; i < cfg.registers.size(); i++) {
+            neighbors.add(new BitSet());
+        }
+        nodes = new BitSet();
+        costs = new double[cfg.registers.size()];
+        moves = new ArrayList<NLIRInstruction>();
+        resetAliases();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            double weight = Math.pow(10, block.loopDepth);
+            BitSet live = (BitSet) block.liveOut.clone();
+            for (int j = block.lir.size() - 1; j >= 0; j--) {
+                NLIRInstruction lir = block.lir.get(j);
+                if (lir instanceof NLIRMove && lir.write.number() >= 32
+                        && lir.reads.get(0).number() >= 32) {
+                    live.clear(lir.reads.get(0).number());
+                    moves.add(lir);
+                }
+                if (lir.write != null && lir.write.number() >= 32) {
+                    int def = lir.write.number();
+                    for (int reg = live.nextSetBit(32); reg >= 0; reg = live
+                            .nextSetBit(reg + 1)) {
+                        if (reg != def) {
+                            neighbors.get(def).set(reg);
+                            neighbors.get(reg).set(def);
+                        }
+                    }
+                    live.clear(def);
+                    nodes.set(def);
+                    costs[def] += weight;
+                }
+                for (NRegister reg : lir.reads) {
+                    if (reg.number() >= 32) {
+                        live.set(reg.number());
+                        nodes.set(reg.number());
+                        costs[reg.number()] += weight;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Coalesce the source and destination of each move that do not interfere,
+     * as long as the combined register has fewer than as many neighbors of
+     * significant degree (colors or more) as there are colors (Briggs's
+     * conservative test), so that it is sure to be colored if they were.
+     */
+
+    private void coalesce() {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (NLIRInstruction move : moves) {
+                int a = find(move.reads.get(0).number());
+                int b = find(move.write.number());
+                if (a == b || neighbors.get(a).get(b) || unspillable.get(a)
+                        || unspillable.get(b)) {
+                    continue;
+                }
+                BitSet union = (BitSet) neighbors.get(a).clone();
+                union.or(neighbors.get(b));
+                int significant = 0;
+                for (int reg = union.nextSetBit(0); reg >= 0; reg = union
+                        .nextSetBit(reg + 1)) {
+                    if (neighbors.get(reg).cardinality() >= colors) {
+                        significant++;
+                    }
+                }
+                if (significant < colors) {
+                    alias[b] = a;
+                    BitSet others = neighbors.get(b);
+                    for (int reg = others.nextSetBit(0); reg >= 0; reg = others
+                            .nextSetBit(reg + 1)) {
+                        neighbors.get(reg).clear(b);
+                        neighbors.get(reg).set(a);
+                        neighbors.get(a).set(reg);
+                    }
+                    others.clear();
+                    nodes.clear(b);
+                    costs[a] += costs[b];
+                    merged = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Simplify the interference graph, removing registers one at a time and
+     * pushing them onto a stack. A register with fewer neighbors left than
+     * there are colors is sure to get a color, so is removed first; when there
+     * is none, the register cheapest to spill for its degree is removed
+     * instead, optimistically, as its neighbors may yet not use all colors.
+     * 
+     * @return the stack of registers, the first removed at the bottom.
+     */
+
+    private Stack<Integer> simplify() {
+        Stack<Integer> stack = new Stack<Integer>();
+        BitSet remaining = (BitSet) nodes.clone();
+        int[] degree = new int[neighbors.size()];
+        for (int reg = nodes.nextSetBit(0); reg >= 0; reg = nodes
+                .nextSetBit(reg + 1)) {
+            degree[reg] = neighbors.get(reg).cardinality();
+        }
+        while (!remaining.isEmpty()) {
+            int next = -1;
+            for (int reg = remaining.nextSetBit(0); reg >= 0 && next < 0; reg = remaining
+                    .nextSetBit(reg + 1)) {
+                if (degree[reg] < colors) {
+                    next = reg;
+                }
+            }
+            if (next < 0) {
+                double best = Double.MAX_VALUE;
+                for (int reg = remaining.nextSetBit(0); reg >= 0; reg = remaining
+                        .nextSetBit(reg + 1)) {
+                    double cost = unspillable.get(reg) ? Double.MAX_VALUE
+                            : costs[reg] / degree[reg];
+                    if (next < 0 || cost < best) {
+                        next = reg;
+                        best = cost;
+                    }
+                }
+            }
+            stack.push(next);
+            remaining.clear(next);
+            BitSet others = neighbors.get(next);
+            for (int reg = others.nextSetBit(0); reg >= 0; reg = others
+                    .nextSetBit(reg + 1)) {
+                degree[reg]--;
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * Color the registers in the order they are popped off the specified
+     * stack, each with the lowest color none of its (colored) neighbors has.
+     * A register for which there is none is left uncolored, to be spilled;
+     * unless it is one that may not be spilled, in which case it takes the
+     * color whose registers among its neighbors are cheapest to spill, and
+     * those are spilled instead.
+     * 
+     * @param stack
+     *            the registers, as left by simplify().
+     * @return the color of each register, or -1.
+     */
+
+    private int[] select(Stack<Integer> stack) {
+        int[] color = new int[neighbors.size()];
+        for (int i = 0; i < color.length; i++) {
+            color[i] = -1;
+        }
+        while (!stack.isEmpty()) {
+            int next = stack.pop();
+            double[] cost = new double[colors];
+            BitSet others = neighbors.get(next);
+            for (int reg = others.nextSetBit(0); reg >= 0; reg = others
+                    .nextSetBit(reg + 1)) {
+                if (color[reg] >= 0) {
+                    cost[color[reg]] += unspillable.get(reg) ? Double.POSITIVE_INFINITY
+                            : costs[reg];
+                }
+            }
+            for (int c = 0; c < colors && color[next] < 0; c++) {
+                if (cost[c] == 0) {
+                    color[next] = c;
+                }
+            }
+            if (color[next] < 0 && unspillable.get(next)) {
+                int cheapest = 0;
+                for (int c = 1; c < colors; c++) {
+                    if (cost[c] < cost[cheapest]) {
+                        cheapest = c;
+                    }
+                }
+                for (int reg = others.nextSetBit(0); reg >= 0; reg = others
+                        .nextSetBit(reg + 1)) {
+                    if (color[reg] == cheapest) {
+                        color[reg] = -1;
+                    }
+                }
+                color[next] = cheapest;
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Spill the specified registers: each (with the registers coalesced with
+     * it) is given a slot on the stack, and the code is rewritten to load and
+     * store it there; see NRegisterAllocator.rewrite().
+     * 
+     * @param spilled
+     *            the registers to spill.
+     */
+
+    private void spill(BitSet spilled) {
+        for (int reg = spilled.nextSetBit(0); reg >= 0; reg = spilled
+                .nextSetBit(reg + 1)) {
+            if (!offsets.containsKey(find(reg))) {
+                offsets.put(find(reg), cfg.offset++);
+            }
+            offsets.put(reg, offsets.get(find(reg)));
+        }
+        rewrite(spilled);
+    }
+
+    /**
+     * Make each register its own alias.
+     */
+
+    private void resetAliases() {
+        alias = new int[cfg.registers.size()];
+        for (int i = 0; i < alias.length; i++) {
+            alias[i] = i;
+        }
+    }
+
+    /**
+     * Return the register the specified register has been coalesced into, or
+     * the register itself.
+     * 
+     * @param reg
+     *            the register number.
+     * @return the register number it is known by in the interference graph.
+     */
+
+    private int find(int reg) {
+        while (alias[reg] != reg) {
+            reg = alias[reg];
+        }
+        return reg;
     }
 
 }
@@ -5,6 +5,7 @@ package jminusminus;
 import static jminusminus.CLConstants.*;
 import static jminusminus.NPhysicalRegister.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * High-level intermediate representation (HIR) of a JVM instruction.
@@ -26,6 +27,7 @@ abstract class NHIRInstruction {
         hirMnemonic[AALOAD] = "aaload";
         hirMnemonic[IALOAD] = "iaload";
         hirMnemonic[IASTORE] = "iastore";
+        hirMnemonic[IF_ICMPEQ] = "==";
         hirMnemonic[IF_ICMPNE] = "!=";
         hirMnemonic[IF_ICMPGT] = ">";
         hirMnemonic[IF_ICMPLE] = "<=";
@@ -113,6 +115,50 @@ abstract class NHIRInstruction {
         return null;
     }
 
+    /**
+     * Return the HIR ids of the instructions whose values this instruction
+     * uses.
+     * 
+     * @return list of HIR ids of the operands of this instruction.
+     */
+
+    public ArrayList<Integer> operands() {
+        return new ArrayList<Integer>();
+    }
+
+    /**
+     * Return true if this instruction does nothing but compute its value, so
+     * that it may be removed when the value is not used, and false otherwise.
+     * 
+     * @return true or false.
+     */
+
+    public boolean isPure() {
+        return false;
+    }
+
+    /**
+     * Return a copy of this instruction for the specified block, with the
+     * specified identifier; the HIR ids the instruction refers to are mapped
+     * through ids, and the blocks it refers to through blocks. This is how the
+     * body of a method is inlined into another (see
+     * NControlFlowGraph.inlineCalls()).
+     * 
+     * @param block
+     *            enclosing block of the copy.
+     * @param id
+     *            identifier of the copy.
+     * @param ids
+     *            maps HIR ids to the HIR ids of their copies.
+     * @param blocks
+     *            maps blocks to their copies.
+     * @return a copy of this instruction.
+     */
+
+    public abstract NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks);
+
     /**
      * Return the identifier of this instruction with the short type name
      * prefixed.
@@ -191,6 +237,36 @@ class NHIRArithmetic extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(lhs);
+        operands.add(rhs);
+        return operands;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRArithmetic(block, id, opcode, ids.get(lhs), ids
+                .get(rhs));
+    }
+
     /**
      * @inheritDoc
      */
@@ -241,6 +317,24 @@ class NHIRIntConstant extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRIntConstant(block, id, value);
+    }
+
     /**
      * @inheritDoc
      */
@@ -290,6 +384,24 @@ class NHIRStringConstant extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRStringConstant(block, id, value);
+    }
+
     /**
      * @inheritDoc
      */
@@ -367,6 +479,29 @@ class NHIRConditionalJump extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(lhs);
+        operands.add(rhs);
+        return operands;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRConditionalJump(block, id, ids.get(lhs), ids.get(rhs),
+                opcode, blocks.get(onTrueDestination), blocks
+                        .get(onFalseDestination));
+    }
+
     /**
      * @inheritDoc
      */
@@ -418,6 +553,16 @@ class NHIRGoto extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRGoto(block, id, blocks.get(destination));
+    }
+
     /**
      * @inheritDoc
      */
@@ -443,6 +588,9 @@ class NHIRInvoke extends NHIRInstruction {
     /** Name of the method being invoked. */
     public String name;
 
+    /** Descriptor of the method being invoked. */
+    public String desc;
+
     /** List of HIR ids of arguments for the method. */
     public ArrayList<Integer> arguments;
 
@@ -459,6 +607,8 @@ class NHIRInvoke extends NHIRInstruction {
      *            target of the method.
      * @param name
      *            name of the method.
+     * @param desc
+     *            descriptor of the method.
      * @param arguments
      *            list of HIR ids of arguments for the method.
      * @param sType
@@ -468,12 +618,13 @@ class NHIRInvoke extends NHIRInstruction {
      */
 
     public NHIRInvoke(NBasicBlock block, int id, int opcode, String target,
-            String name, ArrayList<Integer> arguments, String sType,
-            String lType) {
+            String name, String desc, ArrayList<Integer> arguments,
+            String sType, String lType) {
         super(block, id, sType, lType);
         this.opcode = opcode;
         this.target = target;
         this.name = name;
+        this.desc = desc;
         this.arguments = arguments;
     }
 
@@ -563,6 +714,29 @@ class NHIRInvoke extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        return new ArrayList<Integer>(arguments);
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        ArrayList<Integer> arguments = new ArrayList<Integer>();
+        for (int arg : this.arguments) {
+            arguments.add(ids.get(arg));
+        }
+        return new NHIRInvoke(block, id, opcode, target, name, desc,
+                arguments, sType, lType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -634,6 +808,32 @@ class NHIRReturn extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        if (value != -1) {
+            operands.add(value);
+        }
+        return operands;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        NHIRReturn ret = new NHIRReturn(block, id, opcode, -1);
+        ret.value = value == -1 ? -1 : ids.get(value);
+        ret.sType = sType;
+        ret.lType = lType;
+        return ret;
+    }
+
     /**
      * @inheritDoc
      */
@@ -711,6 +911,27 @@ class NHIRPutField extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(value);
+        return operands;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRPutField(block, id, opcode, target, name, sType,
+                lType, ids.get(value));
+    }
+
     /**
      * @inheritDoc
      */
@@ -778,6 +999,25 @@ class NHIRGetField extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRGetField(block, id, opcode, target, name, sType,
+                lType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -838,6 +1078,17 @@ class NHIRNewArray extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        // The constructor takes the type names the other way round.
+        return new NHIRNewArray(block, id, opcode, dim, lType, sType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -907,6 +1158,28 @@ class NHIRALoad extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(arrayRef);
+        operands.add(index);
+        return operands;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRALoad(block, id, opcode, ids.get(arrayRef), ids
+                .get(index), sType, lType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -984,6 +1257,29 @@ class NHIRAStore extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(arrayRef);
+        operands.add(index);
+        operands.add(value);
+        return operands;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRAStore(block, id, opcode, ids.get(arrayRef), ids
+                .get(index), ids.get(value), sType, lType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -1036,9 +1332,9 @@ class NHIRPhiFunction extends NHIRInstruction {
 
     public void inferType() {
         for (int arg : arguments) {
-            if (!block.cfg.hirMap.get(arguments.get(0)).sType.equals("")) {
-                sType = block.cfg.hirMap.get(arguments.get(0)).sType;
-                lType = block.cfg.hirMap.get(arguments.get(0)).lType;
+            if (!block.cfg.hirMap.get(arg).sType.equals("")) {
+                sType = block.cfg.hirMap.get(arg).sType;
+                lType = block.cfg.hirMap.get(arg).lType;
                 break;
             }
         }
@@ -1057,6 +1353,40 @@ class NHIRPhiFunction extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public ArrayList<Integer> operands() {
+        return new ArrayList<Integer>(arguments);
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        ArrayList<Integer> arguments = new ArrayList<Integer>();
+        for (int arg : this.arguments) {
+            arguments.add(ids.get(arg));
+        }
+        NHIRPhiFunction phi = new NHIRPhiFunction(block, id, arguments,
+                local);
+        phi.sType = sType;
+        phi.lType = lType;
+        return phi;
+    }
+
     /**
      * @inheritDoc
      */
@@ -1117,6 +1447,16 @@ class NHIRLoadLocal extends NHIRInstruction {
         return lir;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRLoadLocal(block, id, local, sType, lType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -1157,6 +1497,24 @@ class NHIRLocal extends NHIRInstruction {
         this.local = local;
     }
 
+    /**
+     * @inheritDoc
+     */
+
+    public boolean isPure() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public NHIRInstruction copy(NBasicBlock block, int id,
+            HashMap<Integer, Integer> ids,
+            HashMap<NBasicBlock, NBasicBlock> blocks) {
+        return new NHIRLocal(block, id, local, sType, lType);
+    }
+
     /**
      * @inheritDoc
      */
@@ -24,8 +24,18 @@ class NInterval implements Comparable<NInterval> {
      */
     public int vRegId;
 
-    /** All live ranges for this virtual register */
-    public ArrayList<NRange> ranges;
+    /**
+     * Start and stop positions of the live ranges for this virtual register,
+     * sorted and disjoint; the ranges are at indices first to last - 1, with
+     * room left before them, as buildIntervals() adds them last to first.
+     */
+    private int[] starts, stops;
+
+    /** Index of the first range. */
+    private int first;
+
+    /** Index one past the last range. */
+    private int last;
 
     /**
      * All use positions (in LIR) and their types for this virtual register
@@ -50,7 +60,7 @@ class NInterval implements Comparable<NInterval> {
     /** Parent of this interval. */
     public NInterval parent;
 
-    /** Children of this interval. */
+    /** Children of this interval, in the order of their first ranges. */
     public ArrayList<NInterval> children;
 
     /**
@@ -65,7 +75,8 @@ class NInterval implements Comparable<NInterval> {
 
     public NInterval(int virtualRegID, NControlFlowGraph cfg) {
         this.cfg = cfg;
-        this.ranges = new ArrayList<NRange>();
+        this.starts = new int[0];
+        this.stops = new int[0];
         this.usePositions = new TreeMap<Integer, InstructionType>();
         this.vRegId = virtualRegID;
         this.children = new ArrayList<NInterval>();
@@ -82,16 +93,14 @@ class NInterval implements Comparable<NInterval> {
      *            program counter.
      * @param cfg
      *            The control flow graph.
-     * @param childRanges
-     *            The instruction ranges for this child.
      * @param parent
      *            The parent interval.
      */
 
-    public NInterval(int virtualRegID, NControlFlowGraph cfg,
-            ArrayList<NRange> childRanges, NInterval parent) {
+    public NInterval(int virtualRegID, NControlFlowGraph cfg, NInterval parent) {
         this.cfg = cfg;
-        this.ranges = childRanges;
+        this.starts = new int[0];
+        this.stops = new int[0];
         this.usePositions = new TreeMap<Integer, InstructionType>();
         this.vRegId = virtualRegID;
         this.parent = parent;
@@ -101,23 +110,86 @@ class NInterval implements Comparable<NInterval> {
     }
 
     /**
-     * Add a new range to the existing ranges.
+     * Add a new range, ahead of the existing ranges, to this interval; if it
+     * overlaps or abuts the first range, that is extended to start where it
+     * does instead.
      * 
-     * @param newNRange
-     *            - the NRange to add
+     * @param start
+     *            start position of the range.
+     * @param stop
+     *            stop position of the range.
      */
 
-    public void addOrExtendNRange(NRange newNRange) {
-        if (!ranges.isEmpty()) {
-            if (newNRange.stop + 5 == ranges.get(0).start
-                    || newNRange.rangeOverlaps(ranges.get(0))) {
-                ranges.get(0).start = newNRange.start;
-            } else {
-                ranges.add(0, newNRange);
-            }
+    public void addOrExtendNRange(int start, int stop) {
+        if (first < last
+                && (stop + 5 == starts[first] || (start < starts[first] ? stop > starts[first]
+                        : start < stops[first]))) {
+            starts[first] = start;
         } else {
-            ranges.add(newNRange);
+            addFirstRange(start, stop);
+        }
+    }
+
+    /**
+     * Add a range ahead of the existing ranges, making room for it if need be.
+     * 
+     * @param start
+     *            start position of the range.
+     * @param stop
+     *            stop position of the range.
+     */
+
+    private void addFirstRange(int start, int stop) {
+        if (first == 0) {
+            int grow = Math.max(4, starts.length);
+            int[] newStarts = new int[starts.length + grow];
+            int[] newStops = new int[stops.length + grow];
+            System.arraycopy(starts, first, newStarts, first + grow, last
+                    - first);
+            System.arraycopy(stops, first, newStops, first + grow, last
+                    - first);
+            starts = newStarts;
+            stops = newStops;
+            first += grow;
+            last += grow;
         }
+        first--;
+        starts[first] = start;
+        stops[first] = stop;
+    }
+
+    /**
+     * The number of ranges in this interval.
+     * 
+     * @return the number of ranges.
+     */
+
+    public int rangeCount() {
+        return last - first;
+    }
+
+    /**
+     * The start position of a range in this interval.
+     * 
+     * @param i
+     *            index of the range, from 0.
+     * @return the start position.
+     */
+
+    public int rangeStart(int i) {
+        return starts[first + i];
+    }
+
+    /**
+     * The stop position of a range in this interval.
+     * 
+     * @param i
+     *            index of the range, from 0.
+     * @return the stop position.
+     */
+
+    public int rangeStop(int i) {
+        return stops[first + i];
     }
 
     /**
@@ -132,24 +204,18 @@ class NInterval implements Comparable<NInterval> {
      */
 
     public int nextIntersection(NInterval otherInterval) {
-        int a = -1, b = -2;
-        for (NRange r : this.ranges) {
-            if (otherInterval.isLiveAt(r.start)) {
-                a = r.start;
-                break;
-            }
-        }
-        for (NRange r : otherInterval.ranges) {
-            if (this.isLiveAt(r.start)) {
-                b = r.start;
-                break;
+        // Both range lists are sorted, so a single pass over them will do.
+        int i = this.first, j = otherInterval.first;
+        while (i < this.last && j < otherInterval.last) {
+            if (this.stops[i] < otherInterval.starts[j]) {
+                i++;
+            } else if (otherInterval.stops[j] < this.starts[i]) {
+                j++;
+            } else {
+                return Math.max(this.starts[i], otherInterval.starts[j]);
             }
         }
-        if (a >= 0 && b >= 0) {
-            return a <= b ? a : b;
-        } else {
-            return a > b ? a : b;
-        }
+        return -1;
     }
 
     /**
@@ -196,8 +262,8 @@ class NInterval implements Comparable<NInterval> {
      */
     public void newFirstRangeStart(int newStart) {
         // Check
-        if (!ranges.isEmpty()) {
-            ranges.get(0).start = newStart;
+        if (first < last) {
+            starts[first] = newStart;
         }
     }
 
@@ -222,31 +288,46 @@ class NInterval implements Comparable<NInterval> {
      */
 
     public boolean isLiveAt(int atIndex) {
-        for (NRange r : ranges) {
-            if (atIndex >= r.start && atIndex <= r.stop) {
-                return true;
-            }
-        }
-        return false;
+        return liveRangeAt(atIndex) >= 0;
     }
 
     /**
-     * The range in this interval in which the LIR instruction with the given id
-     * is live, or null. This will never return null if called for an interval
-     * from the active list after it has been set up by the allocate method.
+     * The index (into starts and stops) of the range in this interval in which
+     * the LIR instruction with the given id is live, or -1. This will never
+     * return -1 if called for an interval from the active list after it has
+     * been set up by the allocate method.
      * 
      * @param id
      *            LIR instruction id.
-     * @return range in which LIR instruction with given id is live, or null.
+     * @return index of the range in which LIR instruction with given id is
+     *         live, or -1.
      */
 
-    private NRange liveRangeAt(int id) {
-        for (NRange r : ranges) {
-            if (id >= r.start && id <= r.stop) {
-                return r;
+    private int liveRangeAt(int id) {
+        int i = rangeAfter(id) - 1;
+        return i >= first && id <= stops[i] ? i : -1;
+    }
+
+    /**
+     * The index (into starts and stops) of the first range in this interval
+     * that starts after the given position, or last if there is none.
+     * 
+     * @param id
+     *            LIR instruction id.
+     * @return index of the range.
+     */
+
+    private int rangeAfter(int id) {
+        int lo = first, hi = last;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
-        return null;
+        return lo;
     }
 
     /**
@@ -259,8 +340,8 @@ class NInterval implements Comparable<NInterval> {
     public void writeToStdOut(PrettyPrinter p) {
         if (cfg.registers.get(vRegId) != null) {
             String s = cfg.registers.get(vRegId).name() + ": ";
-            for (NRange r : ranges) {
-                s += r.toString() + " ";
+            for (int i = first; i < last; i++) {
+                s += "[" + starts[i] + ", " + stops[i] + "] ";
             }
             if (pRegister != null) {
                 s += "-> " + pRegister.name();
@@ -280,8 +361,8 @@ class NInterval implements Comparable<NInterval> {
             }
         } else if (this.isChild()) {
             String s = "\tv" + this.vRegId + ": ";
-            for (NRange r : ranges) {
-                s += r.toString() + " ";
+            for (int i = first; i < last; i++) {
+                s += "[" + starts[i] + ", " + stops[i] + "] ";
             }
             if (pRegister != null) {
                 s += "-> " + pRegister.name();
@@ -307,10 +388,10 @@ class NInterval implements Comparable<NInterval> {
      */
 
     public int firstRangeStart() {
-        if (ranges.isEmpty())
+        if (first == last)
             return -1;
         else
-            return ranges.get(0).start;
+            return starts[first];
     }
 
     /**
@@ -320,10 +401,10 @@ class NInterval implements Comparable<NInterval> {
      */
 
     public int lastNRangeStop() {
-        if (ranges.isEmpty())
+        if (first == last)
             return -1;
         else
-            return ranges.get(ranges.size() - 1).stop;
+            return stops[last - 1];
     }
 
     /**
@@ -351,71 +432,6 @@ class NInterval implements Comparable<NInterval> {
         return (this.vRegId == other.vRegId);
     }
 
-    /**
-     * Split the current interval at the given index. Responsible for splitting
-     * a range if the index falls on one, moving remaining ranges over to child,
-     * and moving appropriate usePositions over to the child.
-     * 
-     * @param idx
-     *            the index at which this interval is to be split
-     * 
-     * @return the child interval which is to be sorted onto unhandled. If there
-     *         was no child created in the case of a pruning this interval is
-     *         returned.
-     */
-
-    public NInterval splitAt(int idx) {
-
-        ArrayList<NRange> childsRanges = new ArrayList<NRange>();
-        if (this.isLiveAt(idx)) { // means split falls on a range
-            // Assumptions: if a range is LIVE on an index, then there
-            // exist usePositions at or before the index
-            // within this same range.
-            NRange liveRange = this.liveRangeAt(idx);
-            int splitTo = idx;
-            splitTo = usePositions.ceilingKey(idx);
-            childsRanges.add((liveRange.splitRange(splitTo, idx - 5)));
-        }
-
-        // The following two for loops take care of any untouched ranges
-        // which start after the split position and must be moved to the
-        // child interval.
-        for (NRange r : ranges) {
-            if (r.start > idx) {
-                childsRanges.add(r);
-            }
-        }
-        for (NRange r : childsRanges) {
-            ranges.remove(r);
-        }
-
-        NInterval child = new NInterval(cfg.maxIntervals++, cfg, childsRanges,
-                this.getParent());
-        cfg.registers.add(null); // expand size of cfg.registers to
-        // avoid null pointer exception when printing.
-
-        // transfer remaining use positions
-        while (this.usePositions.ceilingKey(idx) != null)
-            child.usePositions
-                    .put(this.usePositions.ceilingKey(idx), this.usePositions
-                            .remove(this.usePositions.ceilingKey(idx)));
-        this.getParent().children.add(child);
-        return child;
-    }
-
-    /**
-     * The parent interval.
-     * 
-     * @return the parent interval.
-     */
-
-    private NInterval getParent() {
-        if (parent != null)
-            return parent;
-        else
-            return this;
-    }
-
     /**
      * The child interval at a given instruction index.
      * 
@@ -425,124 +441,23 @@ class NInterval implements Comparable<NInterval> {
      */
 
     public NInterval childAt(int idx) {
-        for (NInterval child : children) {
-            if (child.isLiveAt(idx)) {
-                return child;
-            }
-        }
-        return this;
-    }
-
-    /**
-     * A child of this interval which is live or ends before the given basic
-     * block's end.
-     * 
-     * @param b
-     *            the basic block.
-     * @return the child of this interval which ends at or nearest (before) this
-     *         basic block's end (last lir instruction index).
-     */
-
-    public NInterval childAtOrEndingBefore(NBasicBlock b) {
-        int idx = b.getLastLIRInstId();
-        for (NInterval child : children) {
-            if (child.isLiveAt(idx))
-                return child;
-        }
-        NInterval tmp = this;
-        int highestEndingAllowed = b.getFirstLIRInstId();
-        for (NInterval child : children) {
-            // get the child which ends before idx but also ends closest to idx
-            if (child.lastNRangeStop() < idx
-                    && child.lastNRangeStop() > highestEndingAllowed) {
-                tmp = child;
-                highestEndingAllowed = tmp.lastNRangeStop();
-            }
-        }
-        return tmp;
-    }
-
-    /**
-     * The child of this interval which is live or starts after the given basic
-     * block's start
-     * 
-     * @param b
-     *            the basic block
-     * @return the child of this interval which starts at or nearest (after)
-     *         this basic block's start (fist lir instruction index).
-     */
-
-    public NInterval childAtOrStartingAfter(NBasicBlock b) {
-        int idx = b.getFirstLIRInstId();
-        for (NInterval child : children) {
-            if (child.isLiveAt(idx))
-                return child;
-        }
-        NInterval tmp = this;
-        int lowestStartAllowed = b.getLastLIRInstId();// block's end
-        for (NInterval child : children) {
-            if (child.firstRangeStart() > idx
-                    && child.firstRangeStart() < lowestStartAllowed) {
-                tmp = child;
-                lowestStartAllowed = tmp.firstRangeStart();
-            }
-        }
-        return tmp;
-    }
-
-    /**
-     * Returns the basic block in which this interval's start position falls.
-     * 
-     * @return basic block in which this interval's start position falls.
-     */
-
-    public int startsAtBlock() {
-        for (NBasicBlock b : this.cfg.basicBlocks) {
-            if (this.firstRangeStart() >= b.getFirstLIRInstId()
-                    && this.firstRangeStart() <= b.getLastLIRInstId())
-                return b.id;
-        }
-        return -1; // this will never happen
-    }
-
-    /**
-     * The basic block in which this interval's end position falls.
-     * 
-     * @return the basic block number.
-     */
-
-    public int endsAtBlock() {
-        for (NBasicBlock b : this.cfg.basicBlocks) {
-            if (this.lastNRangeStop() >= b.getFirstLIRInstId()
-                    && this.lastNRangeStop() <= b.getLastLIRInstId()) {
-                return b.id;
+        // The children cover disjoint stretches of code, in order, so only
+        // the last one starting at or before idx may be live there.
+        int lo = 0, hi = children.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (children.get(mid).firstRangeStart() <= idx) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
-        return -1; // this will never happen
-    }
-
-    /**
-     * Assigns an offset to this interval (if one hasn't been already assigned).
-     * Assigns that same offset to any (newly created) children.
-     */
-
-    public void spill() {
-        this.spill = true;
-        if (this.offset == -1) {
-            this.offset = cfg.offset++;
-            this.offsetFrom = OffsetFrom.SP;
-        }
-        for (NInterval child : children) {
-            if (child.offset == -1) {
-                child.offset = this.offset;
-                child.offsetFrom = this.offsetFrom;
-            }
+        if (lo > 0 && children.get(lo - 1).isLiveAt(idx)) {
+            return children.get(lo - 1);
         }
+        return this;
     }
 
-    // The following two methods are used for insertion of move instructions
-    // for spills.
-
     /**
      * Is this interval a child interval?
      * 
@@ -557,16 +472,6 @@ class NInterval implements Comparable<NInterval> {
         }
     }
 
-    /**
-     * Is this interval a parent interval? (Ie, does it have children?)
-     * 
-     * @return true or false.
-     */
-
-    public boolean isParent() {
-        return !this.children.isEmpty();
-    }
-
 }
 
 /** The types of stack pointers. **/
@@ -578,97 +483,3 @@ enum OffsetFrom {
 enum InstructionType {
     read, write
 };
-
-/**
- * A liveness range (for an interval).
- */
-
-class NRange implements Comparable<NRange> {
-
-    /** The range's start position. */
-    public int start;
-
-    /** The range's stop position. */
-    public int stop;
-
-    /**
-     * Construct a liveness range extending from start to stop (positions in the
-     * code).
-     * 
-     * @param start
-     *            start position.
-     * @param stop
-     *            stop position.
-     */
-    public NRange(int start, int stop) {
-        this.start = start;
-        this.stop = stop;
-
-    }
-
-    /**
-     * Mutates current range to be only as long as the split point and returns
-     * the remainder as a new range.
-     * 
-     * @param newStart
-     *            the split location
-     * @param oldStop
-     *            the split location
-     * @return the new NRange which begins at the split position and runs to the
-     *         end of this previously whole range.
-     */
-
-    public NRange splitRange(int newStart, int oldStop) {
-        NRange newRange = new NRange(newStart, stop);
-        this.stop = oldStop;
-
-        return newRange;
-    }
-
-    /**
-     * Does this liveness range overlap with another?
-     * 
-     * @param a
-     *            The other range.
-     * @return true or false.
-     */
-
-    public boolean rangeOverlaps(NRange a) {
-        if (a.start < this.start) {
-            if (a.stop <= this.start) {
-                return false;
-            } else {
-                return true;
-            }
-        } else if (a.start < this.stop) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /**
-     * One liveness range comes before another if its start position comes
-     * before the other's start position.
-     * 
-     * @param other
-     *            the other range.
-     * 
-     * @return comparison.
-     */
-
-    public int compareTo(NRange other) {
-        return this.start - other.start;
-    }
-
-    /**
-     * The string representation of the range.
-     * 
-     * @return "[start,stop]"
-     */
-
-    public String toString() {
-        return "[" + start + ", " + stop + "]";
-    }
-
-}
@@ -4,7 +4,6 @@ package jminusminus;
 
 import static jminusminus.CLConstants.*;
 import static jminusminus.NPhysicalRegister.*;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 
 /**
@@ -27,6 +26,7 @@ abstract class NLIRInstruction {
         lirMnemonic[AALOAD] = "AALOAD";
         lirMnemonic[IALOAD] = "IALOAD";
         lirMnemonic[IASTORE] = "IASTORE";
+        lirMnemonic[IF_ICMPEQ] = "EQ";
         lirMnemonic[IF_ICMPNE] = "NE";
         lirMnemonic[IF_ICMPGT] = "GT";
         lirMnemonic[IF_ICMPLE] = "LE";
@@ -75,14 +75,14 @@ abstract class NLIRInstruction {
     }
 
     /**
-     * Translate this LIR instruction into SPIM and write it out to the
-     * specified output stream.
+     * Translate this LIR instruction into SPIM and add the SPIM instructions
+     * to the specified list.
      * 
      * @param out
-     *            output stream for SPIM code.
+     *            list of SPIM instructions.
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         // nothing here.
     }
 
@@ -151,16 +151,19 @@ class NLIRArithmetic extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         switch (opcode) {
         case IADD:
-            out.printf("    add %s,%s,%s\n", write, reads.get(0), reads.get(1));
+            out.add(new NSpimInstruction("add", write, reads.get(0),
+                    reads.get(1)));
             break;
         case ISUB:
-            out.printf("    sub %s,%s,%s\n", write, reads.get(0), reads.get(1));
+            out.add(new NSpimInstruction("sub", write, reads.get(0),
+                    reads.get(1)));
             break;
         case IMUL:
-            out.printf("    mul %s,%s,%s\n", write, reads.get(0), reads.get(1));
+            out.add(new NSpimInstruction("mul", write, reads.get(0),
+                    reads.get(1)));
             break;
         }
     }
@@ -217,8 +220,8 @@ class NLIRIntConstant extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    li %s,%d\n", write, value);
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction("li", write, value));
     }
 
     /**
@@ -287,7 +290,7 @@ class NLIRStringConstant extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         String label = createLabel();
         String s = label + ":\n";
         int size = 12 + value.length() + 1;
@@ -300,7 +303,7 @@ class NLIRStringConstant extends NLIRInstruction {
                 + "\" # String terminated by null character 0\n";
         s += "    .align " + align + " # Next object is on a word boundary\n";
         block.cfg.data.add(s);
-        out.printf("    la %s,%s+12\n", write, label);
+        out.add(new NSpimInstruction("la", write, label + "+12"));
     }
 
     /**
@@ -375,23 +378,57 @@ class NLIRConditionalJump extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         switch (opcode) {
+        case IF_ICMPEQ:
+            out.add(new NSpimInstruction("beq", reads.get(0), reads.get(1),
+                    block.cfg.labelPrefix + "." + onTrueDestination.id));
+            break;
         case IF_ICMPNE:
-            out.printf("    bne %s,%s,%s\n", reads.get(0), reads.get(1),
-                    block.cfg.labelPrefix + "." + onTrueDestination.id);
+            out.add(new NSpimInstruction("bne", reads.get(0), reads.get(1),
+                    block.cfg.labelPrefix + "." + onTrueDestination.id));
             break;
         case IF_ICMPGT:
-            out.printf("    bgt %s,%s,%s\n", reads.get(0), reads.get(1),
-                    block.cfg.labelPrefix + "." + onTrueDestination.id);
+            out.add(new NSpimInstruction("bgt", reads.get(0), reads.get(1),
+                    block.cfg.labelPrefix + "." + onTrueDestination.id));
             break;
         case IF_ICMPLE:
-            out.printf("    ble %s,%s,%s\n", reads.get(0), reads.get(1),
-                    block.cfg.labelPrefix + "." + onTrueDestination.id);
+            out.add(new NSpimInstruction("ble", reads.get(0), reads.get(1),
+                    block.cfg.labelPrefix + "." + onTrueDestination.id));
             break;
         }
-        out.printf("    j %s\n", block.cfg.labelPrefix + "."
-                + onFalseDestination.id);
+        // No jump is needed to the block laid out next (see
+        // NControlFlowGraph.orderBlocks()).
+        int next = block.cfg.basicBlocks.indexOf(block) + 1;
+        if (next == block.cfg.basicBlocks.size()
+                || block.cfg.basicBlocks.get(next) != onFalseDestination) {
+            out.add(new NSpimInstruction("j", block.cfg.labelPrefix + "."
+                    + onFalseDestination.id));
+        }
+    }
+
+    /**
+     * Invert the test of this jump, swapping its destinations.
+     */
+
+    public void invert() {
+        switch (opcode) {
+        case IF_ICMPEQ:
+            opcode = IF_ICMPNE;
+            break;
+        case IF_ICMPNE:
+            opcode = IF_ICMPEQ;
+            break;
+        case IF_ICMPGT:
+            opcode = IF_ICMPLE;
+            break;
+        case IF_ICMPLE:
+            opcode = IF_ICMPGT;
+            break;
+        }
+        NBasicBlock destination = onTrueDestination;
+        onTrueDestination = onFalseDestination;
+        onFalseDestination = destination;
     }
 
     /**
@@ -412,7 +449,7 @@ class NLIRConditionalJump extends NLIRInstruction {
 class NLIRGoto extends NLIRInstruction {
 
     /** The destination block to unconditionally jump to. */
-    private NBasicBlock destination;
+    public NBasicBlock destination;
 
     /**
      * Construct an NLIRGoto instruction.
@@ -434,9 +471,9 @@ class NLIRGoto extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         String label = block.cfg.labelPrefix + "." + destination.id;
-        out.printf("    j %s\n", label);
+        out.add(new NSpimInstruction("j", label));
     }
 
     /**
@@ -517,9 +554,9 @@ class NLIRInvoke extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    jal %s.%s\n", target.replace("/", "."), name
-                .equals("<init>") ? "__init__" : name);
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction("jal", target.replace("/", ".") + "."
+                + (name.equals("<init>") ? "__init__" : name)));
     }
 
     /**
@@ -574,8 +611,8 @@ class NLIRReturn extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    j %s\n", block.cfg.labelPrefix + ".restore");
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction("j", block.cfg.labelPrefix + ".restore"));
     }
 
     /**
@@ -640,8 +677,9 @@ class NLIRPutField extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    NLIRPutField.toSpim() not yet implemented!\n");
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction(
+                "NLIRPutField.toSpim() not yet implemented!"));
     }
 
     /**
@@ -703,8 +741,9 @@ class NLIRGetField extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    NLIRGetField.toSpim() not yet implemented!\n");
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction(
+                "NLIRGetField.toSpim() not yet implemented!"));
     }
 
     /**
@@ -760,8 +799,9 @@ class NLIRNewArray extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    NLIRNewArray.toSpim() not yet implemented!\n");
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction(
+                "NLIRNewArray.toSpim() not yet implemented!"));
     }
 
     /**
@@ -817,8 +857,9 @@ class NLIRALoad extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    NLIRALoad.toSpim() not yet implemented!\n");
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction(
+                "NLIRALoad.toSpim() not yet implemented!"));
     }
 
     /**
@@ -876,8 +917,9 @@ class NLIRAStore extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    NLIRAStore.toSpim() not yet implemented!\n");
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction(
+                "NLIRAStore.toSpim() not yet implemented!"));
     }
 
     /**
@@ -988,8 +1030,8 @@ class NLIRMove extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
-        out.printf("    move %s,%s\n", write, reads.get(0));
+    public void toSpim(ArrayList<NSpimInstruction> out) {
+        out.add(new NSpimInstruction("move", write, reads.get(0)));
     }
 
     /**
@@ -1090,17 +1132,29 @@ class NLIRLoad extends NLIRInstruction {
         this.offset = offset;
         this.offsetFrom = offsetFrom;
         this.register = register;
+        write = register;
+    }
+
+    /**
+     * @inheritDoc
+     */
+
+    public void allocatePhysicalRegisters() {
+        NInterval output = block.cfg.intervals.get(write.number()).childAt(id);
+        if (output.vRegId >= 32) {
+            register = write = output.pRegister;
+        }
     }
 
     /**
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         if (offsetFrom == OffsetFrom.FP) {
-            out.printf("    lw %s,%d($fp)\n", register, offset * 4);
+            out.add(new NSpimInstruction("lw", register, offset * 4 + "($fp)"));
         } else {
-            out.printf("    lw %s,%d($sp)\n", register, offset * 4);
+            out.add(new NSpimInstruction("lw", register, offset * 4 + "($sp)"));
         }
     }
 
@@ -1174,11 +1228,13 @@ class NLIRStore extends NLIRInstruction {
      * @inheritDoc
      */
 
-    public void toSpim(PrintWriter out) {
+    public void toSpim(ArrayList<NSpimInstruction> out) {
         if (offsetFrom == OffsetFrom.FP) {
-            out.printf("    sw %s,%d($fp)\n", reads.get(0), offset * 4);
+            out.add(new NSpimInstruction("sw", reads.get(0), offset * 4
+                    + "($fp)"));
         } else {
-            out.printf("    sw %s,%d($sp)\n", reads.get(0), offset * 4);
+            out.add(new NSpimInstruction("sw", reads.get(0), offset * 4
+                    + "($sp)"));
         }
     }
 
@@ -3,25 +3,39 @@
 package jminusminus;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 /**
- * Implements the Linear Scan register allocation algorithm.
+ * Implements the Linear Scan register allocation algorithm. The intervals are
+ * visited in the order of their starts, each given a register that is free for
+ * the whole of it if there is one. If there is none, either the interval or
+ * those it is in the way of are spilled, whichever are used later; the code is
+ * rewritten to load and store the spilled registers on the stack, and the
+ * whole repeated, as in NGraphRegisterAllocator.
  */
 
 public class NLinearRegisterAllocator extends NRegisterAllocator {
+
     /**
-     * Interval queues for tracking the allocation process.
+     * Number of physical registers available. An instruction may need both of
+     * its operands and its result in registers at once, and the three of its
+     * intervals overlap where it is.
      */
-    private ArrayList<NInterval> unhandled;
-    private ArrayList<NInterval> active;
-    private ArrayList<NInterval> inactive;
+    private int colors;
 
     /**
-     * Used to keep track of which intervals get assigned to what physical
-     * register. Needed only in allocateBlockedRegFor.
+     * Interval queues for tracking the allocation process. The unhandled
+     * intervals are ordered on their first range start, and then on their
+     * vreg ids, which is the order in which they were added.
      */
-    private ArrayList<ArrayList<NInterval>> regIntervals;
-    private int[] freePos, usePos, blockPos;
+    private PriorityQueue<NInterval> unhandled;
+    private ArrayList<NInterval> active;
+    private ArrayList<NInterval> inactive;
+
+    /** Positions up to which each physical register is free, or next used. */
+    private int[] freePos, usePos;
 
     /**
      * Construct a linear register allocator for the given control flow graph.
@@ -32,19 +46,25 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
 
     public NLinearRegisterAllocator(NControlFlowGraph cfg) {
         super(cfg);
-        unhandled = new ArrayList<NInterval>();
+        unhandled = new PriorityQueue<NInterval>(11,
+                new Comparator<NInterval>() {
+                    public int compare(NInterval a, NInterval b) {
+                        if (a.firstRangeStart() != b.firstRangeStart()) {
+                            return a.firstRangeStart() < b
+                                    .firstRangeStart() ? -1 : 1;
+                        }
+                        return a.vRegId < b.vRegId ? -1
+                                : a.vRegId == b.vRegId ? 0 : 1;
+                    }
+                });
         active = new ArrayList<NInterval>();
         inactive = new ArrayList<NInterval>();
 
         // Instantiate usePositions and freePos to be the size of
         // the physical registers used.
-        freePos = new int[NPhysicalRegister.MAX_COUNT];
-        usePos = new int[NPhysicalRegister.MAX_COUNT];
-        blockPos = new int[NPhysicalRegister.MAX_COUNT];
-        regIntervals = new ArrayList<ArrayList<NInterval>>();
-        for (int i = 0; i < NPhysicalRegister.MAX_COUNT; i++) {
-            regIntervals.add(new ArrayList<NInterval>());
-        }
+        colors = Math.max(3, NPhysicalRegister.MAX_COUNT);
+        freePos = new int[colors];
+        usePos = new int[colors];
     }
 
     /**
@@ -53,14 +73,27 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
      */
 
     public void allocation() {
-        // Build the intervals for the control flow graph.
-        this.buildIntervals(); // The correct intervals are now in intervals
-
-        // Add all intervals corresponding to vregs to unhandled list
-        for (int i = 32; i < cfg.intervals.size(); i++) {
-            this.addSortedToUnhandled(cfg.intervals.get(i));
+        // Formal parameters fifth and above are passed on the stack,
+        // so are spilled to begin with.
+        findFormals();
+        if (!formals.isEmpty()) {
+            rewrite(formals);
         }
 
+        // Scan the intervals until no more registers need be spilled.
+        BitSet spilled;
+        do {
+            this.buildIntervals(); // The correct intervals are now in intervals
+            spilled = scan();
+            for (int reg = spilled.nextSetBit(0); reg >= 0; reg = spilled
+                    .nextSetBit(reg + 1)) {
+                offsets.put(reg, cfg.offset++);
+            }
+            if (!spilled.isEmpty()) {
+                rewrite(spilled);
+            }
+        } while (!spilled.isEmpty());
+
         // Allocate any fixed registers (a0, ..., a3 and v0) that were
         // assigned during generation phase to the appropriate
         // interval.
@@ -71,64 +104,100 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
             }
         }
 
-        // Assign stack offset (relative to fp) for formal parameters
-        // fourth and above, and stack offset (relative to sp) for
-        // arguments fourth or above.
-        for (NBasicBlock block : cfg.basicBlocks) {
-            for (NLIRInstruction lir : block.lir) {
-                if (lir instanceof NLIRLoadLocal) {
-                    NLIRLoadLocal loadLocal = (NLIRLoadLocal) lir;
-                    if (loadLocal.local >= 4) {
-                        NInterval interval = cfg.intervals
-                                .get(((NVirtualRegister) loadLocal.write)
-                                        .number());
-                        interval.spill = true;
-                        interval.offset = loadLocal.local - 3;
-                        interval.offsetFrom = OffsetFrom.FP;
-                    }
-                }
+        // Record the stack offsets of the spilled registers, and the
+        // physical registers used.
+        boolean[] used = new boolean[colors];
+        for (int i = 32; i < cfg.registers.size(); i++) {
+            NInterval interval = cfg.intervals.get(i);
+            if (offsets.containsKey(i)) {
+                interval.spill = true;
+                interval.offset = offsets.get(i);
+                interval.offsetFrom = formals.get(i) ? OffsetFrom.FP
+                        : OffsetFrom.SP;
+            } else if (interval.pRegister != null) {
+                used[interval.pRegister.number - NPhysicalRegister.T0] = true;
+            }
+        }
+        for (int c = 0; c < colors; c++) {
+            if (used[c]) {
+                cfg.pRegisters.add(NPhysicalRegister.regInfo[c
+                        + NPhysicalRegister.T0]);
+            }
+        }
+    }
+
+    /**
+     * Scan the intervals of the virtual registers, assigning each a physical
+     * register, and return the registers that must be spilled for that. The
+     * assignment holds only if none must be.
+     * 
+     * @return the registers to spill.
+     */
+
+    private BitSet scan() {
+        BitSet spilled = new BitSet();
+        unhandled.clear();
+        active.clear();
+        inactive.clear();
+
+        // Add all intervals corresponding to vregs to unhandled list
+        for (int i = 32; i < cfg.intervals.size(); i++) {
+            if (cfg.intervals.get(i).rangeCount() > 0) {
+                this.addSortedToUnhandled(cfg.intervals.get(i));
             }
         }
 
         NInterval currInterval; // the current interval
         int psi; // the current interval's first start position
-        ArrayList<NInterval> tmp;
 
         // Linear allocation begins; repeat so long as there are
         // additional virtual registers to map to physical registers.
         while (!unhandled.isEmpty()) {
-            currInterval = unhandled.remove(0);
+            currInterval = unhandled.poll();
             psi = currInterval.firstRangeStart();
-            tmp = new ArrayList<NInterval>();
-            for (int i = 0; i < active.size(); i++) {
-                if (active.get(i).lastNRangeStop() < psi) {
-                    tmp.add(active.get(i));
-                } else if (!active.get(i).isLiveAt(psi)) {
-                    inactive.add(active.get(i));
-                    tmp.add(active.get(i));
+
+            // Both lists are compacted in place: intervals that are
+            // kept slide down to index k, and the rest are dropped
+            // from the tail. Intervals that go from active to inactive
+            // need not be looked at again in the inactive pass, and
+            // vice versa, so they are held back until after it.
+            int activeCount = active.size(), k = 0;
+            int inactiveCount = inactive.size();
+            for (int i = 0; i < activeCount; i++) {
+                NInterval interval = active.get(i);
+                if (interval.lastNRangeStop() < psi) {
+                    continue;
+                } else if (!interval.isLiveAt(psi)) {
+                    inactive.add(interval);
+                } else {
+                    active.set(k++, interval);
                 }
             }
-            for (NInterval nonActive : tmp) {
-                active.remove(nonActive);
-            }
-            tmp = new ArrayList<NInterval>();
-            for (int i = 0; i < inactive.size(); i++) {
-                if (inactive.get(i).lastNRangeStop() < psi) {
-                    tmp.add(inactive.get(i));
-                } else if (inactive.get(i).isLiveAt(psi)) {
-                    active.add(inactive.get(i));
-                    tmp.add(inactive.get(i));
+            truncate(active, k);
+            activeCount = k;
+            k = 0;
+            for (int i = 0; i < inactiveCount; i++) {
+                NInterval interval = inactive.get(i);
+                if (interval.lastNRangeStop() < psi) {
+                    continue;
+                } else if (interval.isLiveAt(psi)) {
+                    active.add(interval);
+                } else {
+                    inactive.set(k++, interval);
                 }
             }
-            for (NInterval nonInActive : tmp) {
-                inactive.remove(nonInActive);
+            for (int i = inactiveCount; i < inactive.size(); i++) {
+                inactive.set(k++, inactive.get(i));
             }
-            if (!this.foundFreeRegFor(currInterval)) {// check
-                this.allocateBlockedRegFor(currInterval); // never fails
+            truncate(inactive, k);
+            if (this.foundFreeRegFor(currInterval)
+                    || this.foundBlockedRegFor(currInterval, spilled)) {
+                active.add(currInterval);
+            } else {
+                spilled.set(currInterval.vRegId);
             }
-            active.add(currInterval);
         }
-        this.resolveDataFlow();
+        return spilled;
     }
 
     /**
@@ -140,65 +209,58 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
      */
 
     private void addSortedToUnhandled(NInterval newInterval) {
-        if (unhandled.isEmpty()) {
-            unhandled.add(newInterval);
-        } else {
-            int i = 0;
-            while (i < unhandled.size()
-                    && unhandled.get(i).firstRangeStart() <= newInterval
-                            .firstRangeStart()) {
-                i++;
-            }
-            unhandled.add(i, newInterval);
+        unhandled.add(newInterval);
+    }
+
+    /**
+     * Drop the intervals from the given index on from a list, last first so
+     * that nothing is shifted.
+     * 
+     * @param list
+     *            the list of intervals.
+     * @param size
+     *            the new size of the list.
+     */
+
+    private static void truncate(ArrayList<NInterval> list, int size) {
+        for (int i = list.size() - 1; i >= size; i--) {
+            list.remove(i);
         }
     }
 
     /**
      * Allocates a free physical register for the current interval. Inspects
-     * active and inactive sets. Cannot split or alter the assigned physical
-     * register of any other interval but current.
+     * active and inactive sets. Cannot alter the assigned physical register of
+     * any other interval.
      * 
      * @param currInterval
      *            the current interval for which a physical register is sought.
-     * @return true if a free physical register was found and allocated for
-     *         currInterval, false otherwise.
+     * @return true if a physical register free for the whole of currInterval
+     *         was found and allocated for it, false otherwise.
      */
 
     private boolean foundFreeRegFor(NInterval currInterval) {
         this.initFreePositions(); // must be reset every iteration
         for (NInterval activeInterval : active) {
-            if (activeInterval.pRegister != null)
-                freePos[activeInterval.pRegister.number - NPhysicalRegister.T0] = 0;
+            freePos[activeInterval.pRegister.number - NPhysicalRegister.T0] = 0;
         }
         for (NInterval inactiveInterval : inactive) {
-            if (inactiveInterval.nextIntersection(currInterval) >= 0)
+            int intersection = inactiveInterval.nextIntersection(currInterval);
+            if (intersection >= 0)
                 freePos[inactiveInterval.pRegister.number
                         - NPhysicalRegister.T0] = Math.min(
                         freePos[inactiveInterval.pRegister.number
-                                - NPhysicalRegister.T0], inactiveInterval
-                                .nextIntersection(currInterval));
+                                - NPhysicalRegister.T0], intersection);
         }
 
         // The physical registers available are in NPhysicalRegister.getInfo
-        // static array. This is indexed from 0 to NPhysicalRegister.MAX_COUNT
+        // static array. This is indexed from 0 to colors
         int reg = this.getBestFreeReg();
-        if (freePos[reg] == 0)
-            return false;
-        else if (freePos[reg] > currInterval.lastNRangeStop()) {
-            currInterval.pRegister = NPhysicalRegister.regInfo[reg
-                    + NPhysicalRegister.T0];
-            cfg.pRegisters.add(NPhysicalRegister.regInfo[reg
-                    + NPhysicalRegister.T0]);
-            regIntervals.get(reg).add(currInterval);
-            return true;
-        } else {
-            this.addSortedToUnhandled(currInterval.splitAt(freePos[reg]));
-            currInterval.spill();
-            currInterval.pRegister = NPhysicalRegister.regInfo[reg
-                    + NPhysicalRegister.T0];
-            regIntervals.get(reg).add(currInterval);
+        if (freePos[reg] > currInterval.lastNRangeStop()) {
+            assign(currInterval, reg);
             return true;
         }
+        return false;
     }
 
     /**
@@ -207,7 +269,7 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
      */
 
     private void initFreePositions() {
-        for (int i = 0; i < NPhysicalRegister.MAX_COUNT; i++) {
+        for (int i = 0; i < colors; i++) {
             freePos[i] = Integer.MAX_VALUE;
         }
     }
@@ -220,7 +282,7 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
 
     private int getBestFreeReg() {
         int freeRegNumber = 0;
-        for (int i = 0; i < NPhysicalRegister.MAX_COUNT; i++) {
+        for (int i = 0; i < colors; i++) {
             if (freePos[i] > freePos[freeRegNumber])
                 freeRegNumber = i;
         }
@@ -228,201 +290,122 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
     }
 
     /**
-     * Allocates a register based on spilling an interval.
+     * Allocates a register for the current interval by spilling the intervals
+     * assigned it that are in the way, unless the current interval is used
+     * later than they are, in which case it is left to be spilled itself.
+     * Registers holding an interval that may not be spilled are never chosen;
+     * there are always enough others, as at most two such intervals overlap
+     * any other interval.
      * 
      * @param currInterval
      *            the current interval.
+     * @param spilled
+     *            the registers spilled so far, to which those of any intervals
+     *            spilled are added.
+     * @return true if a register was allocated for currInterval, false if it
+     *         is to be spilled.
      */
 
-    private void allocateBlockedRegFor(NInterval currInterval) {
-        this.initUseAndBlockPositions(); // must be reset every iteration
+    private boolean foundBlockedRegFor(NInterval currInterval, BitSet spilled) {
+        this.initUsePositions(); // must be reset every iteration
         for (NInterval activeInterval : active) {
-            usePos[activeInterval.pRegister.number - NPhysicalRegister.T0] = Math
-                    .min(usePos[activeInterval.pRegister.number
-                            - NPhysicalRegister.T0], activeInterval
-                            .nextUsageOverlapping(currInterval));
+            blockUsePosition(activeInterval, currInterval);
         }
         for (NInterval inactiveInterval : inactive) {
             if (inactiveInterval.nextIntersection(currInterval) >= 0)
-                usePos[inactiveInterval.pRegister.number - NPhysicalRegister.T0] = Math
-                        .min(usePos[inactiveInterval.pRegister.number
-                                - NPhysicalRegister.T0], inactiveInterval
-                                .nextUsageOverlapping(currInterval));
+                blockUsePosition(inactiveInterval, currInterval);
         }
         int reg = this.getBestBlockedReg(); // this is just an index in the
         // usePos array
-        if (usePos[reg] < currInterval.firstUsage()) {
+        if (!unspillable.get(currInterval.vRegId)
+                && usePos[reg] < currInterval.firstUsage()) {
             // best to spill current - no reg assignment.
-            this.addSortedToUnhandled(currInterval.splitAt(currInterval
-                    .firstUsage() - 5));
-            currInterval.spill();
-            NInterval splitChild = currInterval.splitAt(currInterval
-                    .firstRangeStart());
-            this.addSortedToUnhandled(splitChild);
-            currInterval.spill();
-        } else {
-            // spilling frees reg for all of current
-            currInterval.pRegister = NPhysicalRegister.regInfo[reg
-                    + NPhysicalRegister.T0];
-            for (NInterval i : regIntervals.get(reg)) {
-                if (currInterval.nextIntersection(i) >= 0) {
-                    NInterval splitChild = i.splitAt(currInterval
-                            .firstRangeStart());
-                    this.addSortedToUnhandled(splitChild);
-                    i.spill();
-                }
-            }
-            regIntervals.get(reg).add(currInterval);
+            return false;
         }
-    }
-
-    /**
-     * Initialize use and block positions before processing each virtual
-     * rgister.
-     */
 
-    private void initUseAndBlockPositions() {
-        for (int i = 0; i < NPhysicalRegister.MAX_COUNT; i++) {
-            usePos[i] = Integer.MAX_VALUE;
-            blockPos[i] = Integer.MAX_VALUE;
+        // spilling frees reg for all of current
+        int k = 0;
+        for (NInterval interval : active) {
+            if (interval.pRegister.number - NPhysicalRegister.T0 == reg) {
+                spilled.set(interval.vRegId);
+            } else {
+                active.set(k++, interval);
+            }
         }
-    }
-
-    /**
-     * Get the best blocked physical register.
-     * 
-     * @return the register number.
-     */
-
-    private int getBestBlockedReg() {
-        int usableRegNumber = 0;
-        for (int i = 0; i < NPhysicalRegister.MAX_COUNT; i++) {
-            if (usePos[i] > usePos[usableRegNumber])
-                usableRegNumber = i;
+        truncate(active, k);
+        k = 0;
+        for (NInterval interval : inactive) {
+            if (interval.pRegister.number - NPhysicalRegister.T0 == reg
+                    && interval.nextIntersection(currInterval) >= 0) {
+                spilled.set(interval.vRegId);
+            } else {
+                inactive.set(k++, interval);
+            }
         }
-        return usableRegNumber;
+        truncate(inactive, k);
+        assign(currInterval, reg);
+        return true;
     }
 
     /**
-     * Resolve the data flow after allocating registers, inserting additional
-     * saves and restores for registers to maintain consistency.
+     * Lower the use position of the physical register assigned to the
+     * specified interval, which overlaps the current one, to the interval's
+     * next use; or, if the interval may not be spilled, mark the register as
+     * not to be taken from it.
+     * 
+     * @param interval
+     *            the interval in the way.
+     * @param currInterval
+     *            the current interval.
      */
 
-    private void resolveDataFlow() {
-        // local data flow construction
-        // Devised an alternate way of doing this, perhaps with more
-        // clarity, will implement later, but has same effect.
-        for (NInterval i : cfg.intervals) {
-            if (cfg.registers.get(i.vRegId) != null) {
-                if (i.spill) {
-                    for (int c = 0; c < i.children.size(); c++) {
-                        if (i.endsAtBlock() == i.children.get(c)
-                                .startsAtBlock()) {
-                            if (c == 0) {
-                                addStoreInstruction(i, i.lastNRangeStop());
-                                addLoadInstruction(i.children.get(c),
-                                        i.children.get(c).firstRangeStart());
-                            } else {
-                                addStoreInstruction(i.children.get(c - 1),
-                                        i.children.get(c - 1).lastNRangeStop());
-                                addLoadInstruction(i.children.get(c),
-                                        i.children.get(c).firstRangeStart());
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        // resolution of global data flow
-        for (NBasicBlock b : cfg.basicBlocks) {
-            for (NBasicBlock s : b.successors) {
-                for (int i = s.liveIn.nextSetBit(0); i >= 0; i = s.liveIn
-                        .nextSetBit(i + 1)) {
-                    NInterval parent = cfg.intervals.get(i);
-                    NInterval from = parent.childAtOrEndingBefore(b);
-                    NInterval to = parent.childAtOrStartingAfter(s);
-                    if (!from.equals(to)) {
-                        addStoreInstruction(from, from.usePositions.floorKey(b
-                                .getLastLIRInstId()));
-                        to = getSegmentWithNearestUse(to, s.getFirstLIRInstId());
-                        if (to.usePositions.ceilingEntry(s.getFirstLIRInstId())
-                                .getValue() == InstructionType.read)
-                            // no use loading prior to a write.
-                            addLoadInstruction(to, to.usePositions.ceilingKey(s
-                                    .getFirstLIRInstId()));
-                    }
-                }
-            }
+    private void blockUsePosition(NInterval interval, NInterval currInterval) {
+        int reg = interval.pRegister.number - NPhysicalRegister.T0;
+        if (unspillable.get(interval.vRegId)) {
+            usePos[reg] = -1;
+        } else if (usePos[reg] >= 0) {
+            usePos[reg] = Math.min(usePos[reg], interval
+                    .nextUsageOverlapping(currInterval));
         }
     }
 
     /**
-     * Get the the interval segment that contains the nearest first use.
+     * Assign the specified physical register to an interval.
      * 
-     * @param i
-     *            the interval segment (could be a parent or child).
-     * @param id
-     *            the lir id after which a use is sought.
-     * @return the interval segment that that contains the first use at or after
-     *         the id position and is associated with the interval i through a
-     *         sibling or child relationship. Returns i if there is a use after
-     *         id within i. Null if no interval exists that is related to i and
-     *         contains a use position at or after id.
+     * @param interval
+     *            the interval.
+     * @param reg
+     *            index of the register, from T0.
      */
 
-    private NInterval getSegmentWithNearestUse(NInterval i, int id) {
-        if (i.usePositions.ceilingEntry(id) != null)
-            return i;
-        else {
-            NInterval parent = i;
-            int idx = 0;
-            if (i.isChild()) {
-                parent = i.parent;
-                idx = parent.children.indexOf(i) + 1;
-            }
-            for (; idx < parent.children.size(); idx++) {
-                if (parent.children.get(idx).usePositions.ceilingEntry(id) != null)
-                    return parent.children.get(idx);
-            }
-            return null;
-        }
+    private void assign(NInterval interval, int reg) {
+        interval.pRegister = NPhysicalRegister.regInfo[reg
+                + NPhysicalRegister.T0];
     }
 
     /**
-     * Adds a store instruction right after a use position specified by id.
-     * 
-     * @param from
-     *            the interval which this use position is a part of.
-     * @param id
-     *            the id of the use position.
+     * Initialize use positions before processing each virtual register.
      */
 
-    private void addStoreInstruction(NInterval from, int id) {
-        NBasicBlock b = cfg.blockAt(id);
-        id++;
-        if (b.idIsFree(id)) { // assumes always same instr
-            b.insertLIRInst(new NLIRStore(b, id, from.offset, from.offsetFrom,
-                    from.pRegister));
+    private void initUsePositions() {
+        for (int i = 0; i < colors; i++) {
+            usePos[i] = Integer.MAX_VALUE;
         }
     }
 
     /**
-     * Adds a store instruction right before a use position specified by id.
+     * Get the best blocked physical register.
      * 
-     * @param to
-     *            the interval which this use position is a part of.
-     * @param id
-     *            the id of the use position.
+     * @return the register number.
      */
 
-    private void addLoadInstruction(NInterval to, int id) {
-        NBasicBlock s = cfg.blockAt(id);
-        id--;
-        if (s.idIsFree(id)) { // assumes always same instr
-            s.insertLIRInst(new NLIRLoad(s, id, to.offset, to.offsetFrom,
-                    to.pRegister));
+    private int getBestBlockedReg() {
+        int usableRegNumber = 0;
+        for (int i = 0; i < colors; i++) {
+            if (usePos[i] > usePos[usableRegNumber])
+                usableRegNumber = i;
         }
+        return usableRegNumber;
     }
 
-}
\ No newline at end of file
+}
@@ -39,7 +39,7 @@ public class NNaiveRegisterAllocator extends NRegisterAllocator {
                     .get(cfg.basicBlocks.size() - 1);
             NLIRInstruction lastLir = lastBlock.lir
                     .get(lastBlock.lir.size() - 1);
-            interval.ranges.add(new NRange(0, lastLir.id));
+            interval.addOrExtendNRange(0, lastLir.id);
         }
 
         // Allocate any fixed registers (a0, ..., a3 and v0) that were
@@ -126,7 +126,8 @@ public class NNaiveRegisterAllocator extends NRegisterAllocator {
                             lir.reads.get(0).number()).childAt(id);
                     NInterval input2 = cfg.intervals.get(
                             lir.reads.get(1).number()).childAt(id);
-                    if (input1.pRegister == input2.pRegister) {
+                    if (input1 != input2
+                            && input1.pRegister == input2.pRegister) {
                         input2.pRegister = NPhysicalRegister.regInfo[T0
                                 + (input2.pRegister.number() + 1)
                                 % NPhysicalRegister.MAX_COUNT];
@@ -0,0 +1,320 @@
+// Copyright 2013 Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A SPIM instruction, or a label, as produced by NLIRInstruction.toSpim() for
+ * the peephole optimizer. The operands are kept apart, so that none is ever
+ * split up or run together with another.
+ */
+
+class NSpimInstruction {
+
+    /** The label, if this is a label; null otherwise. */
+    public String label;
+
+    /** Mnemonic of the instruction. */
+    public String op;
+
+    /** Operands of the instruction. */
+    public String[] operands;
+
+    /**
+     * Construct an NSpimInstruction given its mnemonic and operands.
+     * 
+     * @param op
+     *            mnemonic of the instruction.
+     * @param operands
+     *            operands of the instruction: registers, numbers, labels or
+     *            addresses.
+     */
+
+    public NSpimInstruction(String op, Object... operands) {
+        this.op = op;
+        this.operands = new String[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            this.operands[i] = operands[i].toString();
+        }
+    }
+
+    /**
+     * Return an NSpimInstruction for the specified label.
+     * 
+     * @param label
+     *            the label, without the colon.
+     * @return the label.
+     */
+
+    public static NSpimInstruction label(String label) {
+        NSpimInstruction ins = new NSpimInstruction((String) null);
+        ins.label = label;
+        return ins;
+    }
+
+    /**
+     * Is this a label?
+     * 
+     * @return true or false.
+     */
+
+    public boolean isLabel() {
+        return label != null;
+    }
+
+    /**
+     * Is this an instruction with the specified mnemonic?
+     * 
+     * @param op
+     *            the mnemonic.
+     * @return true or false.
+     */
+
+    public boolean is(String op) {
+        return op.equals(this.op);
+    }
+
+    /**
+     * Return the line of SPIM code for this instruction or label.
+     * 
+     * @return the line of SPIM code.
+     */
+
+    public String toString() {
+        if (isLabel()) {
+            return label + ":";
+        }
+        String s = "    " + op;
+        for (int i = 0; i < operands.length; i++) {
+            s += (i == 0 ? " " : ",") + operands[i];
+        }
+        return s;
+    }
+
+}
+
+/**
+ * A peephole optimizer for the SPIM code of a method. The code is given as
+ * a list of NSpimInstructions, and each of the selected rules (see RULES)
+ * is applied wherever it matches, until none matches anywhere; the number of
+ * times each rule fired is kept count of.
+ */
+
+class NPeephole {
+
+    /**
+     * Names of the rules: a move of a register to itself is removed ("move");
+     * a load from the word just stored to is replaced with a move from the
+     * register stored, or removed ("load"); a jump to a label that follows it
+     * is removed, as is code after a jump that no label leads to ("jump"); and
+     * a conditional branch over a jump is inverted to branch to where the jump
+     * goes instead ("branch").
+     */
+    public static final String[] RULES = { "move", "load", "jump", "branch" };
+
+    /** Branch mnemonics mapped to the mnemonics of the opposite tests. */
+    private static final HashMap<String, String> inverse = new HashMap<String, String>();
+    static {
+        String[] pairs = { "beq", "bne", "bgt", "ble", "blt", "bge" };
+        for (int i = 0; i < pairs.length; i += 2) {
+            inverse.put(pairs[i], pairs[i + 1]);
+            inverse.put(pairs[i + 1], pairs[i]);
+        }
+    }
+
+    /** Names of the rules to apply. */
+    private ArrayList<String> rules;
+
+    /** The code being optimized. */
+    private ArrayList<NSpimInstruction> code;
+
+    /** Maps each rule to the number of times it fired. */
+    private HashMap<String, Integer> fired;
+
+    /**
+     * Construct an NPeephole for the specified SPIM code, which it optimizes
+     * in place.
+     * 
+     * @param rules
+     *            names of the rules to apply.
+     * @param code
+     *            the SPIM code.
+     */
+
+    public NPeephole(ArrayList<String> rules,
+            ArrayList<NSpimInstruction> code) {
+        this.rules = rules;
+        this.code = code;
+        fired = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Apply the rules until none of them matches anywhere.
+     */
+
+    public void optimize() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < code.size(); i++) {
+                if (rules.contains("move") && selfMove(i)) {
+                    changed = fire("move");
+                } else if (rules.contains("load") && loadAfterStore(i)) {
+                    changed = fire("load");
+                } else if (rules.contains("jump") && jumpToNext(i)) {
+                    changed = fire("jump");
+                } else if (rules.contains("branch") && branchOverJump(i)) {
+                    changed = fire("branch");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of times the specified rule fired.
+     * 
+     * @param rule
+     *            name of the rule.
+     * @return the number of times.
+     */
+
+    public int fired(String rule) {
+        return fired.containsKey(rule) ? fired.get(rule) : 0;
+    }
+
+    /**
+     * Write the code out to the specified output stream, with a blank line
+     * ahead of each label but the first.
+     * 
+     * @param out
+     *            output stream for SPIM code.
+     */
+
+    public void write(PrintWriter out) {
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).isLabel() && i > 0) {
+                out.printf("\n");
+            }
+            out.printf("%s\n", code.get(i));
+        }
+    }
+
+    /**
+     * Count a firing of the specified rule.
+     * 
+     * @param rule
+     *            name of the rule.
+     * @return true.
+     */
+
+    private boolean fire(String rule) {
+        fired.put(rule, fired(rule) + 1);
+        return true;
+    }
+
+    /**
+     * Remove the instruction at the specified index if it moves a register to
+     * itself.
+     * 
+     * @param i
+     *            index of the instruction.
+     * @return true if the rule fired, false otherwise.
+     */
+
+    private boolean selfMove(int i) {
+        NSpimInstruction ins = code.get(i);
+        if (ins.is("move") && ins.operands[0].equals(ins.operands[1])) {
+            code.remove(i);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * If the instruction at the specified index stores a register to a word,
+     * and the next one loads the same word, remove the load if it loads the
+     * register stored, or make it a move from that register otherwise.
+     * 
+     * @param i
+     *            index of the instruction.
+     * @return true if the rule fired, false otherwise.
+     */
+
+    private boolean loadAfterStore(int i) {
+        NSpimInstruction store = code.get(i);
+        NSpimInstruction load = i + 1 < code.size() ? code.get(i + 1) : null;
+        if (!store.is("sw") || load == null || !load.is("lw")
+                || !load.operands[1].equals(store.operands[1])) {
+            return false;
+        }
+        if (load.operands[0].equals(store.operands[0])) {
+            code.remove(i + 1);
+        } else {
+            code.set(i + 1, new NSpimInstruction("move", load.operands[0],
+                    store.operands[0]));
+        }
+        return true;
+    }
+
+    /**
+     * If the instruction at the specified index is a jump, remove the
+     * instructions after it that no label leads to; then remove the jump
+     * itself if the labels that follow include its target.
+     * 
+     * @param i
+     *            index of the instruction.
+     * @return true if the rule fired, false otherwise.
+     */
+
+    private boolean jumpToNext(int i) {
+        NSpimInstruction jump = code.get(i);
+        if (!jump.is("j")) {
+            return false;
+        }
+        boolean changed = false;
+        while (i + 1 < code.size() && !code.get(i + 1).isLabel()) {
+            code.remove(i + 1);
+            changed = true;
+        }
+        for (int j = i + 1; j < code.size() && code.get(j).isLabel(); j++) {
+            if (code.get(j).label.equals(jump.operands[0])) {
+                code.remove(i);
+                return true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * If the instruction at the specified index is a conditional branch, the
+     * next one a jump, and the branch's target among the labels after that,
+     * invert the branch to go where the jump goes, and remove the jump.
+     * 
+     * @param i
+     *            index of the instruction.
+     * @return true if the rule fired, false otherwise.
+     */
+
+    private boolean branchOverJump(int i) {
+        NSpimInstruction branch = code.get(i);
+        if (branch.isLabel() || !inverse.containsKey(branch.op)
+                || i + 2 >= code.size() || !code.get(i + 1).is("j")) {
+            return false;
+        }
+        String target = branch.operands[2];
+        for (int j = i + 2; j < code.size() && code.get(j).isLabel(); j++) {
+            if (code.get(j).label.equals(target)) {
+                code.set(i, new NSpimInstruction(inverse.get(branch.op),
+                        branch.operands[0], branch.operands[1],
+                        code.get(i + 1).operands[0]));
+                code.remove(i + 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
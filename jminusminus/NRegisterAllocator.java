@@ -4,6 +4,7 @@ package jminusminus;
 
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
 
 /**
  * A register allocator maps virtual registers (from LIR code) to physical
@@ -16,6 +17,18 @@ public abstract class NRegisterAllocator {
     /** The control flow graph for a method. */
     protected NControlFlowGraph cfg;
 
+    /**
+     * Registers that hold a spilled value just long enough to load or store
+     * it; these are never spilled.
+     */
+    protected BitSet unspillable;
+
+    /** Formal parameters fifth and above, which live in the caller's frame. */
+    protected BitSet formals;
+
+    /** Stack offsets of the spilled registers. */
+    protected HashMap<Integer, Integer> offsets;
+
     /**
      * Construct an NRegisterAllocator object given the control flow graph for
      * method.
@@ -31,6 +44,9 @@ public abstract class NRegisterAllocator {
             this.cfg.intervals.add(new NInterval(i, cfg));
         }
         this.cfg.maxIntervals = this.cfg.intervals.size();
+        unspillable = new BitSet();
+        formals = new BitSet();
+        offsets = new HashMap<Integer, Integer>();
     }
 
     /**
@@ -57,22 +73,29 @@ public abstract class NRegisterAllocator {
             BitSet liveOut = currBlock.liveOut;
             for (int idx = liveOut.nextSetBit(0); idx >= 0; idx = liveOut
                     .nextSetBit(idx + 1)) {
-                cfg.intervals.get(idx).addOrExtendNRange(
-                        new NRange(blockStart, blockEnd));
+                cfg.intervals.get(idx).addOrExtendNRange(blockStart,
+                        blockEnd);
             }
             for (int j = currBlock.lir.size() - 1; j >= 0; j--) {
                 int currLIRid = currBlock.lir.get(j).id;
                 NRegister output = currBlock.lir.get(j).write;
                 if (output != null) {
-                    cfg.intervals.get(output.number).newFirstRangeStart(
-                            currLIRid);
+                    // A value that is never read still occupies its
+                    // register at the point where it is written.
+                    if (cfg.intervals.get(output.number).isLiveAt(currLIRid)) {
+                        cfg.intervals.get(output.number).newFirstRangeStart(
+                                currLIRid);
+                    } else {
+                        cfg.intervals.get(output.number).addOrExtendNRange(
+                                currLIRid, currLIRid);
+                    }
                     cfg.intervals.get(output.number).addUsePosition(currLIRid,
                             InstructionType.write);
                 }
                 ArrayList<NRegister> inputs = currBlock.lir.get(j).reads;
                 for (NRegister reg : inputs) {
                     cfg.intervals.get(reg.number).addOrExtendNRange(
-                            new NRange(blockStart, currLIRid));
+                            blockStart, currLIRid);
                     cfg.intervals.get(reg.number).addUsePosition(currLIRid,
                             InstructionType.read);
                 }
@@ -80,6 +103,120 @@ public abstract class NRegisterAllocator {
         }
     }
 
+    /**
+     * Record the registers that the formal parameters fifth and above are
+     * loaded into, along with their offsets in the caller's frame. These
+     * parameters are passed on the stack, so the registers are spilled to
+     * begin with.
+     */
+
+    protected void findFormals() {
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (NLIRInstruction lir : block.lir) {
+                if (lir instanceof NLIRLoadLocal
+                        && ((NLIRLoadLocal) lir).local >= 4) {
+                    formals.set(lir.write.number());
+                    offsets.put(lir.write.number(),
+                            ((NLIRLoadLocal) lir).local - 3);
+                }
+            }
+        }
+    }
+
+    /**
+     * Spill the specified registers, each of which has been given a slot in
+     * offsets: a load from the slot is inserted before every instruction
+     * reading the register, and a store to it after every instruction writing
+     * it, each through a new register of its own. Then renumber the LIR
+     * instructions and start over with fresh intervals.
+     * 
+     * @param spilled
+     *            the registers to spill.
+     */
+
+    protected void rewrite(BitSet spilled) {
+        for (NBasicBlock block : cfg.basicBlocks) {
+            ArrayList<NLIRInstruction> newLir = new ArrayList<NLIRInstruction>();
+            for (NLIRInstruction lir : block.lir) {
+                if (lir instanceof NLIRLoadLocal
+                        && spilled.get(lir.write.number())) {
+                    // The value is where it is to be loaded from.
+                    continue;
+                }
+                if (lir instanceof NLIRMove
+                        && spilled.get(lir.write.number())
+                        && spilled.get(lir.reads.get(0).number())
+                        && sameSlot(lir.write.number(), lir.reads.get(0)
+                                .number())) {
+                    // Both share the same slot.
+                    continue;
+                }
+                HashMap<Integer, NRegister> loaded = new HashMap<Integer, NRegister>();
+                for (int i = 0; i < lir.reads.size(); i++) {
+                    int reg = lir.reads.get(i).number();
+                    if (spilled.get(reg)) {
+                        if (!loaded.containsKey(reg)) {
+                            NRegister temp = temporary(lir.reads.get(i));
+                            newLir.add(new NLIRLoad(block, lir.id, offsets
+                                    .get(reg), formals.get(reg) ? OffsetFrom.FP
+                                    : OffsetFrom.SP, temp));
+                            loaded.put(reg, temp);
+                        }
+                        lir.reads.set(i, loaded.get(reg));
+                    }
+                }
+                newLir.add(lir);
+                if (lir.write != null && spilled.get(lir.write.number())) {
+                    int reg = lir.write.number();
+                    lir.write = temporary(lir.write);
+                    newLir.add(new NLIRStore(block, lir.id, offsets.get(reg),
+                            formals.get(reg) ? OffsetFrom.FP : OffsetFrom.SP,
+                            lir.write));
+                }
+            }
+            block.lir = newLir;
+        }
+        cfg.renumberLirInstructions();
+        cfg.intervals = new ArrayList<NInterval>();
+        for (int i = 0; i < cfg.registers.size(); i++) {
+            cfg.intervals.add(new NInterval(i, cfg));
+        }
+        cfg.maxIntervals = cfg.intervals.size();
+    }
+
+    /**
+     * Are the specified (spilled) registers kept in the same slot?
+     * 
+     * @param a
+     *            a register number.
+     * @param b
+     *            another register number.
+     * @return true or false.
+     */
+
+    private boolean sameSlot(int a, int b) {
+        return offsets.get(a).equals(offsets.get(b))
+                && formals.get(a) == formals.get(b);
+    }
+
+    /**
+     * Return a new register, of the same type as the specified (spilled) one,
+     * to load it into or store it from.
+     * 
+     * @param reg
+     *            the spilled register.
+     * @return the new register.
+     */
+
+    private NRegister temporary(NRegister reg) {
+        NVirtualRegister temp = new NVirtualRegister(
+                NControlFlowGraph.regId++, ((NVirtualRegister) reg).sType(),
+                ((NVirtualRegister) reg).lType());
+        cfg.registers.add(temp);
+        unspillable.set(temp.number());
+        return temp;
+    }
+
     /**
      * Iterate through a list of basic blocks in order, and sets their liveUse
      * and liveDef BitSet fields to represent the appropriate virtual registers
@@ -105,35 +242,28 @@ public abstract class NRegisterAllocator {
     }
 
     /**
-     * Iterate through a list of basic blocks in reverse order, and sets their
-     * lliveIn and liveOut bit sets to reflect global use-def information. It
-     * works internally with the cfg's basicBlock structure.
+     * Set the liveIn and liveOut bit sets of each block to reflect global
+     * use-def information, by solving the (backward) liveness dataflow
+     * problem whose gen and kill sets are the liveUse and liveDef sets
+     * computed by computeLocalLiveSets().
      */
 
     private void computeGlobalLiveSets() {
-        boolean changed = false;
-        for (NBasicBlock b : cfg.basicBlocks) {
-            b.liveOut = new BitSet(cfg.registers.size());
-        }
+        NDataflow liveness = new NDataflow(cfg, false, true, cfg.registers
+                .size()) {
+            protected BitSet gen(NBasicBlock block) {
+                return block.liveUse;
+            }
 
-        // note: we only check for changes in liveOut.
-        do {
-            changed = false;
-            for (int i = cfg.basicBlocks.size() - 1; i >= 0; i--) {
-                NBasicBlock currBlock = cfg.basicBlocks.get(i);
-                BitSet newLiveOut = new BitSet(cfg.registers.size());
-                for (NBasicBlock successor : currBlock.successors) {
-                    newLiveOut.or(successor.liveIn);
-                }
-                if (!currBlock.liveOut.equals(newLiveOut)) {
-                    currBlock.liveOut = newLiveOut;
-                    changed = true;
-                }
-                currBlock.liveIn = (BitSet) currBlock.liveOut.clone();
-                currBlock.liveIn.andNot(currBlock.liveDef);
-                currBlock.liveIn.or(currBlock.liveUse);
+            protected BitSet kill(NBasicBlock block) {
+                return block.liveDef;
             }
-        } while (changed);
+        };
+        liveness.solve();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            block.liveIn = liveness.in(block);
+            block.liveOut = liveness.out(block);
+        }
     }
 
 }
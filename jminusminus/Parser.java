@@ -23,6 +23,15 @@ public class Parser {
     /** Wheter we have recovered from a parser error. */
     private boolean isRecovered;
 
+    /** Methods kept from an earlier parse; null if none are kept. */
+    private MemberCache memberCache;
+
+    /**
+     * Outline of the compilation unit (see MemberCache), built up only if
+     * methods are kept; null otherwise.
+     */
+    private StringBuilder outline;
+
     /**
      * Construct a parser from the given lexical analyzer.
      * 
@@ -31,7 +40,25 @@ public class Parser {
      */
 
     public Parser(LookaheadScanner scanner) {
+        this(scanner, null);
+    }
+
+    /**
+     * Construct a parser from the given lexical analyzer, for an incremental
+     * re-parse: methods that are unchanged since the last parse are taken
+     * from the specified cache rather than parsed again, and those that have
+     * changed are added to it.
+     * 
+     * @param scanner
+     *            the lexical analyzer with which tokens are scanned.
+     * @param memberCache
+     *            methods kept from the last parse of the same source.
+     */
+
+    public Parser(LookaheadScanner scanner, MemberCache memberCache) {
         this.scanner = scanner;
+        this.memberCache = memberCache;
+        outline = memberCache == null ? null : new StringBuilder();
         isInError = false;
         isRecovered = true;
         scanner.next(); // Prime the pump
@@ -51,6 +78,39 @@ public class Parser {
     // Parsing Support ///////////////////////////////
     // ////////////////////////////////////////////////
 
+    /**
+     * Add the specified parts of a declaration to the outline of the
+     * compilation unit, if it is being built.
+     * 
+     * @param parts
+     *            the parts.
+     */
+
+    private void addToOutline(Object... parts) {
+        if (outline != null) {
+            for (Object part : parts) {
+                outline.append(part).append(' ');
+            }
+        }
+    }
+
+    /**
+     * Add the images of the specified tokens to the outline of the
+     * compilation unit, if it is being built.
+     * 
+     * @param tokens
+     *            the tokens; null if there are none.
+     * @param count
+     *            the number of tokens, from the first, to add.
+     */
+
+    private void addToOutline(TokenInfo[] tokens, int count) {
+        for (int i = 0; i < count; i++) {
+            addToOutline(tokens[i].image());
+        }
+        addToOutline(SEMI);
+    }
+
     /**
      * Is the current token this one?
      * 
@@ -146,10 +206,8 @@ public class Parser {
     private void reportParserError(String message, Object... args) {
         isInError = true;
         isRecovered = false;
-        System.err
-                .printf("%s:%d: ", scanner.fileName(), scanner.token().line());
-        System.err.printf(message, args);
-        System.err.println();
+        System.err.printf("%s:%d: %s\n", scanner.fileName(), scanner.token()
+                .line(), String.format(message, args));
     }
 
     // ////////////////////////////////////////////////
@@ -356,6 +414,7 @@ public class Parser {
             imports.add(qualifiedIdentifier());
             mustBe(SEMI);
         }
+        addToOutline(packageName, imports);
         ArrayList<JAST> typeDeclarations = new ArrayList<JAST>();
         while (!see(EOF)) {
             JAST typeDeclaration = typeDeclaration();
@@ -364,6 +423,9 @@ public class Parser {
             }
         }
         mustBe(EOF);
+        if (memberCache != null) {
+            memberCache.endParse(outline.toString());
+        }
         return new JCompilationUnit(scanner.fileName(), line, packageName,
                 imports, typeDeclarations);
     }
@@ -502,6 +564,7 @@ public class Parser {
     	    	superInterfaces.add(qualifiedIdentifier());
         	} while(have(COMMA));
         }
+        addToOutline(mods, INTERFACE, name, superInterfaces);
         return new JInterfaceDeclaration(line, mods, name, superInterfaces, interfaceBody());
     }
 
@@ -541,6 +604,7 @@ public class Parser {
     	    	superInterfaces.add(qualifiedIdentifier());
         	} while(have(COMMA));
         }
+        addToOutline(mods, CLASS, name, superClass, superInterfaces);
         return new JClassDeclaration(line, mods, name, superClass, classBody(),
         		superInterfaces);
     }    
@@ -561,6 +625,10 @@ public class Parser {
         ArrayList<JMember> members = new ArrayList<JMember>();
         mustBe(LCURLY);
         while (!see(RCURLY) && !see(EOF)) {
+            if (outline != null) {
+                TokenInfo[] tokens = memberTokens();
+                addToOutline(tokens, tokens == null ? 0 : tokens.length);
+            }
             members.add(intMemberDecl(modifiers()));
         }
         mustBe(RCURLY);
@@ -584,11 +652,99 @@ public class Parser {
         ArrayList<JMember> members = new ArrayList<JMember>();
         mustBe(LCURLY);
         while (!see(RCURLY) && !see(EOF)) {
-            members.add(memberDecl(modifiers()));
+            members.add(member());
         }
         mustBe(RCURLY);
         return members;
     }
+
+    /**
+     * Parse a member declaration, with its modifiers, or take it from the
+     * member cache if it is unchanged since the last parse; a member parsed
+     * without error is offered to the cache.
+     * 
+     * <pre>
+     *   member ::= modifiers memberDecl
+     * </pre>
+     * 
+     * @return an AST for a member.
+     */
+
+    private JMember member() {
+        TokenInfo[] tokens = memberCache == null ? null : memberTokens();
+        if (tokens == null) {
+            return memberDecl(modifiers());
+        }
+        addToOutline(tokens, headerLength(tokens));
+        JMember member = memberCache.reuse(tokens);
+        if (member != null) {
+            for (int i = 0; i < tokens.length; i++) {
+                scanner.next();
+            }
+            return member;
+        }
+        member = memberDecl(modifiers());
+        if (!isInError) {
+            memberCache.add(tokens, member);
+        }
+        return member;
+    }
+
+    /**
+     * Return the number of tokens in the header of the member declaration
+     * made up of the specified tokens: those ahead of the body of a method,
+     * constructor, or block, and all of them for a field.
+     * 
+     * @param tokens
+     *            tokens of the member.
+     * @return the number of tokens in the header.
+     */
+
+    private int headerLength(TokenInfo[] tokens) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].kind() == ASSIGN) {
+                break;
+            } else if (tokens[i].kind() == LCURLY) {
+                return i;
+            }
+        }
+        return tokens.length;
+    }
+
+    /**
+     * Look ahead for the tokens of the member declaration starting at the
+     * current token. The declaration ends with the SEMI or RCURLY that closes
+     * it at the outermost level of braces, save the RCURLY of an array
+     * initializer for a field.
+     * 
+     * @return the tokens, or null if the input ends (or the enclosing class
+     *         body is closed) before the declaration does.
+     */
+
+    private TokenInfo[] memberTokens() {
+        ArrayList<TokenInfo> tokens = new ArrayList<TokenInfo>();
+        boolean isComplete = false;
+        boolean isInitialized = false;
+        int depth = 0;
+        scanner.recordPosition();
+        while (!isComplete && !see(EOF) && !(see(RCURLY) && depth == 0)) {
+            TokenInfo token = scanner.token();
+            tokens.add(token);
+            scanner.next();
+            if (token.kind() == LCURLY) {
+                depth++;
+            } else if (token.kind() == RCURLY) {
+                isComplete = --depth == 0 && !isInitialized;
+            } else if (token.kind() == SEMI) {
+                isComplete = depth == 0;
+            } else if (token.kind() == ASSIGN) {
+                isInitialized |= depth == 0;
+            }
+        }
+        scanner.returnToPosition();
+        return isComplete ? tokens.toArray(new TokenInfo[tokens.size()])
+                : null;
+    }
     
     /**
      * Parse a member declaration.
@@ -2,11 +2,12 @@
 
 package jminusminus;
 
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.util.Hashtable;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import static jminusminus.TokenKind.*;
 
 /**
@@ -22,8 +23,39 @@ class Scanner {
     /** End of file character. */
     public final static char EOFCH = CharReader.EOFCH;
 
-    /** Keywords in j--. */
-    private Hashtable<String, TokenKind> reserved;
+    /** Number of bits in the index of a slot in the keyword table. */
+    private final static int KEYWORD_BITS = 8;
+
+    /**
+     * Keywords in j--, laid out in a perfect hash table: each keyword is in the
+     * slot that keywordSlot() picks for its hash code, and no two keywords
+     * share a slot, so an identifier is looked up with one probe. The table
+     * never changes, so it is built once and shared by all scanners.
+     */
+    private static TokenKind[] keywords;
+
+    /** Multiplier spreading the keywords' hash codes over distinct slots. */
+    private static int keywordMultiplier;
+
+    static {
+        TokenKind[] reserved = {
+            ABSTRACT, BOOLEAN, CHAR, CLASS, ELSE, EXTENDS, FALSE, IF, IMPORT,
+            INSTANCEOF, INT, NEW, NULL, PACKAGE, PRIVATE, PROTECTED, PUBLIC,
+            RETURN, STATIC, SUPER, THIS, TRUE, VOID, WHILE, BREAK, BYTE, CASE,
+            CATCH, CONST, CONTINUE, DEFAULT, DO, DOUBLE, FINAL, FINALLY,
+            FLOAT, FOR, GOTO, IMPLEMENTS, INTERFACE, LONG, NATIVE, SHORT,
+            STRICTFP, SWITCH, SYNCHRONIZED, THROW, THROWS, TRANSIENT, TRY,
+            VOLATILE };
+
+        // Search for a multiplier that gives every keyword a slot of its own
+        keywordMultiplier = 1;
+        while ((keywords = keywordTable(reserved)) == null) {
+            keywordMultiplier += 2;
+        }
+    }
+
+    /** Identifiers scanned so far. */
+    private SymbolTable symbols;
 
     /** Source characters. */
     private CharReader input;
@@ -52,62 +84,9 @@ class Scanner {
     public Scanner(String fileName) throws FileNotFoundException {
         this.input = new CharReader(fileName);
         this.fileName = fileName;
+        symbols = new SymbolTable();
         isInError = false;
 
-        // Keywords in j--
-        reserved = new Hashtable<String, TokenKind>();
-        reserved.put(ABSTRACT.image(), ABSTRACT);
-        reserved.put(BOOLEAN.image(), BOOLEAN);
-        reserved.put(CHAR.image(), CHAR);
-        reserved.put(CLASS.image(), CLASS);
-        reserved.put(ELSE.image(), ELSE);
-        reserved.put(EXTENDS.image(), EXTENDS);
-        reserved.put(FALSE.image(), FALSE);
-        reserved.put(IF.image(), IF);
-        reserved.put(IMPORT.image(), IMPORT);
-        reserved.put(INSTANCEOF.image(), INSTANCEOF);
-        reserved.put(INT.image(), INT);
-        reserved.put(NEW.image(), NEW);
-        reserved.put(NULL.image(), NULL);
-        reserved.put(PACKAGE.image(), PACKAGE);
-        reserved.put(PRIVATE.image(), PRIVATE);
-        reserved.put(PROTECTED.image(), PROTECTED);
-        reserved.put(PUBLIC.image(), PUBLIC);
-        reserved.put(RETURN.image(), RETURN);
-        reserved.put(STATIC.image(), STATIC);
-        reserved.put(SUPER.image(), SUPER);
-        reserved.put(THIS.image(), THIS);
-        reserved.put(TRUE.image(), TRUE);
-        reserved.put(VOID.image(), VOID);
-        reserved.put(WHILE.image(), WHILE);
-        reserved.put(BREAK.image(), BREAK);
-        reserved.put(BYTE.image(), BYTE);
-        reserved.put(CASE.image(), CASE);
-        reserved.put(CATCH.image(), CATCH);
-        reserved.put(CONST.image(), CONST);
-        reserved.put(CONTINUE.image(), CONTINUE);
-        reserved.put(DEFAULT.image(), DEFAULT);
-        reserved.put(DO.image(), DO);
-        reserved.put(DOUBLE.image(), DOUBLE);
-        reserved.put(FINAL.image(), FINAL);
-        reserved.put(FINALLY.image(), FINALLY);
-        reserved.put(FLOAT.image(), FLOAT);
-        reserved.put(FOR.image(), FOR);
-        reserved.put(GOTO.image(), GOTO);
-        reserved.put(IMPLEMENTS.image(), IMPLEMENTS);
-        reserved.put(INTERFACE.image(), INTERFACE);
-        reserved.put(LONG.image(), LONG);
-        reserved.put(NATIVE.image(), NATIVE);
-        reserved.put(SHORT.image(), SHORT);
-        reserved.put(STRICTFP.image(), STRICTFP);
-        reserved.put(SWITCH.image(), SWITCH);
-        reserved.put(SYNCHRONIZED.image(), SYNCHRONIZED);
-        reserved.put(THROW.image(), THROW);
-        reserved.put(THROWS.image(), THROWS);
-        reserved.put(TRANSIENT.image(), TRANSIENT);
-        reserved.put(TRY.image(), TRY);
-        reserved.put(VOLATILE.image(), VOLATILE);
-        
         // Prime the pump.
         nextCh();
     }
@@ -529,21 +508,24 @@ class Scanner {
         case '7':
         case '8':
         case '9':
-            buffer = new StringBuffer();
+            int begin = input.offset();
             while (isDigit(ch)) {
-                buffer.append(ch);
                 nextCh();
             }
+            String digits = input.image(begin, input.offset());
             if(ch=='l' || ch=='L') {
+            	buffer = new StringBuffer(digits);
             	buffer.append('l');
             	nextCh();
             	return new TokenInfo(LONG_LITERAL, buffer.toString(), line);
             } else if (ch=='d' || ch=='D') {
+            	buffer = new StringBuffer(digits);
             	buffer.append('d');
             	nextCh();
             	return new TokenInfo(DOUBLE_LITERAL, buffer.toString(), line);
             } else if (ch=='e' || ch=='E') {
             	//exponential part for double
+            	buffer = new StringBuffer(digits);
             	buffer.append('e');
             	nextCh();
             	//optional sign
@@ -571,6 +553,7 @@ class Scanner {
             		}
             	}
             } else if (ch=='.') {
+            	buffer = new StringBuffer(digits);
             	buffer.append('.');
         		nextCh();
         		
@@ -628,20 +611,26 @@ class Scanner {
             		}
             	}
             } else {
-            	return new TokenInfo(INT_LITERAL, buffer.toString(), line);
+            	return new TokenInfo(INT_LITERAL, digits, line);
             }
         default:
             if (isIdentifierStart(ch)) {
-                buffer = new StringBuffer();
+                int start = input.offset();
+                int hash = 0;
                 while (isIdentifierPart(ch)) {
-                    buffer.append(ch);
+                    hash = 31 * hash + ch;
                     nextCh();
                 }
-                String identifier = buffer.toString();
-                if (reserved.containsKey(identifier)) {
-                    return new TokenInfo(reserved.get(identifier), line);
+                char[] chars = input.chars();
+                int end = input.offset();
+                TokenKind keyword = keywords[keywordSlot(hash)];
+                if (keyword != null
+                        && SymbolTable.matches(keyword.image(), chars, start,
+                                end)) {
+                    return new TokenInfo(keyword, line);
                 } else {
-                    return new TokenInfo(IDENTIFIER, identifier, line);
+                    return new TokenInfo(IDENTIFIER, symbols.intern(chars,
+                            start, end, hash), line);
                 }
             } else {
                 reportScannerError("Unidentified input token: '%c'", ch);
@@ -703,6 +692,40 @@ class Scanner {
         }
     }
 
+    /**
+     * Lay the specified keywords out in a table, each in the slot that
+     * keywordSlot() picks for it.
+     * 
+     * @param reserved
+     *            the keywords.
+     * @return the table, or null if two keywords fall in the same slot.
+     */
+
+    private static TokenKind[] keywordTable(TokenKind[] reserved) {
+        TokenKind[] table = new TokenKind[1 << KEYWORD_BITS];
+        for (TokenKind kind : reserved) {
+            int slot = keywordSlot(kind.image().hashCode());
+            if (table[slot] != null) {
+                return null;
+            }
+            table[slot] = kind;
+        }
+        return table;
+    }
+
+    /**
+     * Return the slot in the keyword table for a name with the specified hash
+     * code (as String.hashCode() computes it).
+     * 
+     * @param hash
+     *            the hash code.
+     * @return the slot.
+     */
+
+    private static int keywordSlot(int hash) {
+        return (hash * keywordMultiplier) >>> (32 - KEYWORD_BITS);
+    }
+
     /**
      * Report a lexcial error and record the fact that an error has occured.
      * This fact can be ascertained from the Scanner by sending it an
@@ -716,9 +739,8 @@ class Scanner {
 
     private void reportScannerError(String message, Object... args) {
         isInError = true;
-        System.err.printf("%s:%d: ", fileName, line);
-        System.err.printf(message, args);
-        System.err.println();
+        System.err.printf("%s:%d: %s\n", fileName, line, String.format(
+                message, args));
     }
 
     /**
@@ -801,9 +823,11 @@ class Scanner {
 }
 
 /**
- * A buffered character reader. Abstracts out differences between platforms,
- * mapping all new lines to '\n'. Also, keeps track of line numbers where the
- * first line is numbered 1.
+ * A buffered character reader. The whole source file is mapped into memory and
+ * decoded into a char array up front, on the first read, so that characters
+ * are scanned straight out of the array, and token images can be sliced from
+ * it. Abstracts out differences between platforms, mapping all new lines to
+ * '\n'. Also, keeps track of line numbers where the first line is numbered 1.
  */
 
 class CharReader {
@@ -811,8 +835,26 @@ class CharReader {
     /** A representation of the end of file as a character. */
     public final static char EOFCH = (char) -1;
 
-    /** The underlying reader records line numbers. */
-    private LineNumberReader lineNumberReader;
+    /** The input file; null once it has been read in. */
+    private FileInputStream file;
+
+    /** The characters of the file. */
+    private char[] buffer;
+
+    /** Number of characters in the buffer. */
+    private int length;
+
+    /** Index in the buffer of the character last scanned. */
+    private int offset;
+
+    /** Index in the buffer of the next character to scan. */
+    private int position;
+
+    /** The current line number. */
+    private int line;
+
+    /** Has the end of the file been scanned? */
+    private boolean ended;
 
     /** Name of the file that is being read. */
     private String fileName;
@@ -827,8 +869,9 @@ class CharReader {
      */
 
     public CharReader(String fileName) throws FileNotFoundException {
-        lineNumberReader = new LineNumberReader(new FileReader(fileName));
+        file = new FileInputStream(fileName);
         this.fileName = fileName;
+        line = 1;
     }
 
     /**
@@ -840,7 +883,68 @@ class CharReader {
      */
 
     public char nextChar() throws IOException {
-        return (char) lineNumberReader.read();
+        if (file != null) {
+            read();
+        }
+        offset = position;
+        if (position >= length) {
+            // A last line with no line terminator ends at the end of the
+            // file, as LineNumberReader counts it.
+            if (!ended && length > 0 && buffer[length - 1] != '\n'
+                    && buffer[length - 1] != '\r') {
+                line++;
+            }
+            ended = true;
+            return EOFCH;
+        }
+        char c = buffer[position++];
+        if (c == '\r') {
+            if (position < length && buffer[position] == '\n') {
+                position++;
+            }
+            c = '\n';
+        }
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    /**
+     * Return the index, in the source, of the character last scanned. The
+     * characters between two such indices make up a token image; see image().
+     * 
+     * @return the index.
+     */
+
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * Return the source characters between the specified indices, as returned
+     * by offset().
+     * 
+     * @param begin
+     *            index of the first character.
+     * @param end
+     *            index just past the last character.
+     * @return the characters, as a string.
+     */
+
+    public String image(int begin, int end) {
+        return new String(buffer, begin, end - begin);
+    }
+
+    /**
+     * Return the characters of the source, which offset() indexes; they are
+     * not to be modified.
+     * 
+     * @return the characters.
+     */
+
+    public char[] chars() {
+        return buffer;
     }
 
     /**
@@ -850,8 +954,7 @@ class CharReader {
      */
 
     public int line() {
-        // LineNumberReader counts lines from 0.
-        return lineNumberReader.getLineNumber() + 1;
+        return line;
     }
 
     /**
@@ -872,7 +975,137 @@ class CharReader {
      */
 
     public void close() throws IOException {
-        lineNumberReader.close();
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * Map the file into memory, and decode it (in the platform's default
+     * charset, as a FileReader would) into the buffer.
+     * 
+     * @exception IOException
+     *                if an I/O error occurs.
+     */
+
+    private void read() throws IOException {
+        try {
+            FileChannel channel = file.getChannel();
+            CharBuffer chars = Charset.defaultCharset().decode(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                            .size()));
+            length = chars.remaining();
+            buffer = new char[length];
+            chars.get(buffer);
+        } finally {
+            close();
+        }
+    }
+
+}
+
+/**
+ * A table of the identifiers in a source file, by which each is represented by
+ * a single String however many times it occurs. Identifiers are looked up by
+ * the slice of the source characters that they were scanned from, so a String
+ * is only made for the first occurrence of each.
+ */
+
+class SymbolTable {
+
+    /** The symbols, in an open-addressing hash table. */
+    private String[] symbols;
+
+    /** Number of symbols in the table. */
+    private int count;
+
+    /**
+     * Construct an empty SymbolTable.
+     */
+
+    public SymbolTable() {
+        symbols = new String[256];
+        count = 0;
+    }
+
+    /**
+     * Return the symbol for the specified slice of characters, adding it to the
+     * table if it is not in it yet.
+     * 
+     * @param chars
+     *            the characters.
+     * @param begin
+     *            index of the first character of the slice.
+     * @param end
+     *            index just past the last character of the slice.
+     * @param hash
+     *            hash code of the slice, as String.hashCode() computes it.
+     * @return the symbol.
+     */
+
+    public String intern(char[] chars, int begin, int end, int hash) {
+        int mask = symbols.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String symbol = symbols[i];
+            if (symbol == null) {
+                symbol = new String(chars, begin, end - begin);
+                symbols[i] = symbol;
+                if (++count * 2 > symbols.length) {
+                    grow();
+                }
+                return symbol;
+            } else if (symbol.hashCode() == hash
+                    && matches(symbol, chars, begin, end)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * Return true if the specified string is made up of the specified slice of
+     * characters; false otherwise.
+     * 
+     * @param s
+     *            the string.
+     * @param chars
+     *            the characters.
+     * @param begin
+     *            index of the first character of the slice.
+     * @param end
+     *            index just past the last character of the slice.
+     * @return true or false.
+     */
+
+    public static boolean matches(String s, char[] chars, int begin, int end) {
+        if (s.length() != end - begin) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != chars[begin + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Double the size of the table.
+     */
+
+    private void grow() {
+        String[] old = symbols;
+        symbols = new String[old.length * 2];
+        int mask = symbols.length - 1;
+        for (String symbol : old) {
+            if (symbol != null) {
+                int i = symbol.hashCode() & mask;
+                while (symbols[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                symbols[i] = symbol;
+            }
+        }
     }
 
 }
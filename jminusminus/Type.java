@@ -6,7 +6,10 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 /**
  * For representing j-- types. All types are represented underneath (in the
@@ -30,6 +33,14 @@ class Type {
     /** Maps type names to their Type representations. */
     private static Hashtable<String, Type> types = new Hashtable<String, Type>();
 
+    /**
+     * Maps type names to the Type representations of the types whose classes
+     * were defined by the compiler itself (ie, partial classes and arrays of
+     * them). These are kept apart for each thread, as units compiled in
+     * parallel may declare types of like names.
+     */
+    private static ThreadLocal<HashMap<String, Type>> partialTypes = new ThreadLocal<HashMap<String, Type>>();
+
     /** The primitive type, int. */
     public final static Type INT = typeFor(int.class);
 
@@ -95,17 +106,62 @@ class Type {
 
     /**
      * Construct a Type representation for a type from its (Java) Class
-     * representation. Make sure there is a unique Type for each unique type.
+     * representation. Make sure there is a unique Type for each unique type,
+     * even when compilation units are analyzed in parallel: a library type is
+     * shared by all threads, and a type declared in a unit by the thread
+     * compiling the unit.
      * 
      * @param classRep
      *            the Java representation.
      */
 
     public static Type typeFor(Class<?> classRep) {
-        if (types.get(descriptorFor(classRep)) == null) {
-            types.put(descriptorFor(classRep), new Type(classRep));
+        String descriptor = descriptorFor(classRep);
+        if (isPartial(classRep)) {
+            HashMap<String, Type> partial = partialTypes.get();
+            if (partial == null) {
+                partial = new HashMap<String, Type>();
+                partialTypes.set(partial);
+            }
+            if (partial.get(descriptor) == null) {
+                partial.put(descriptor, new Type(classRep));
+            }
+            return partial.get(descriptor);
+        }
+        synchronized (types) {
+            if (types.get(descriptor) == null) {
+                types.put(descriptor, new Type(classRep));
+            }
+            return types.get(descriptor);
+        }
+    }
+
+    /**
+     * Was the specified class (or, for an array class, its element class)
+     * defined by the compiler itself, as a partial class?
+     * 
+     * @param cls
+     *            the class.
+     * @return true or false.
+     */
+
+    static boolean isPartial(Class<?> cls) {
+        while (cls != null && cls.isArray()) {
+            cls = cls.getComponentType();
         }
-        return types.get(descriptorFor(classRep));
+        return cls != null && cls.getClassLoader() instanceof ByteClassLoader;
+    }
+
+    /**
+     * Forget the Types whose classes were defined by the compiler itself (ie,
+     * partial classes and arrays of them) on the current thread, keeping those
+     * of library classes. Used once a unit is compiled, so that a class
+     * compiled later under the same name does not pick up its stale partial
+     * class.
+     */
+
+    public static void discardPartialTypes() {
+        partialTypes.remove();
     }
 
     /**
@@ -264,10 +320,8 @@ class Type {
         	for(Type inter : interfacesClass())
         		interfaceMethods.addAll(inter.interfaceMethods());
         }
-        for(java.lang.reflect.Method method : classRep.getDeclaredMethods()) {
-        	Method meths = new Method(method);
-        	interfaceMethods.add(meths.toString());
-        }
+        interfaceMethods.addAll(MemberIndex.forClass(classRep)
+                .declaredSignatures());
         return interfaceMethods;
     }
     
@@ -288,12 +342,8 @@ class Type {
     public String allInstanceMethods() {
     	String methods = "";
     	ArrayList<String> interMethods = upperInterfaceMethods();
-    	ArrayList<String> classMethods = new ArrayList<String>();
-    	
-    	for(java.lang.reflect.Method method : classRep.getDeclaredMethods()) {
-        	Method meths = new Method(method);
-        	classMethods.add(meths.toString());
-        }
+    	LinkedHashSet<String> classMethods = MemberIndex.forClass(classRep)
+                .declaredSignatures();
     	
     	for(String inter_method : interMethods) {
     		if(!classMethods.contains(inter_method)) {
@@ -335,7 +385,8 @@ class Type {
 
     private ArrayList<Method> declaredAbstractMethods() {
         ArrayList<Method> declaredAbstractMethods = new ArrayList<Method>();
-        for (java.lang.reflect.Method method : classRep.getDeclaredMethods()) {
+        for (java.lang.reflect.Method method : MemberIndex.forClass(classRep)
+                .declaredMethods()) {
             if (Modifier.isAbstract(method.getModifiers())) {
                 declaredAbstractMethods.add(new Method(method));
             }
@@ -351,7 +402,8 @@ class Type {
 
     private ArrayList<Method> declaredConcreteMethods() {
         ArrayList<Method> declaredConcreteMethods = new ArrayList<Method>();
-        for (java.lang.reflect.Method method : classRep.getDeclaredMethods()) {
+        for (java.lang.reflect.Method method : MemberIndex.forClass(classRep)
+                .declaredMethods()) {
             if (!Modifier.isAbstract(method.getModifiers())) {
                 declaredConcreteMethods.add(new Method(method));
             }
@@ -377,7 +429,7 @@ class Type {
                 return;
             }
         }
-        JAST.compilationUnit.reportSemanticError(line,
+        JAST.compilationUnit().reportSemanticError(line,
                 "Type %s doesn't match any of the expected types %s", this,
                 Arrays.toString(expectedTypes));
     }
@@ -394,7 +446,7 @@ class Type {
 
     public void mustMatchExpected(int line, Type expectedType) {
         if (!matchesExpected(expectedType)) {
-            JAST.compilationUnit.reportSemanticError(line,
+            JAST.compilationUnit().reportSemanticError(line,
                     "Type %s doesn't match type %s", this, expectedType);
         }
     }
@@ -411,7 +463,7 @@ class Type {
 
     public void mustNotMatchExpected(int line, Type expectedType) {
         if (matchesExpected(expectedType)) {
-            JAST.compilationUnit.reportSemanticError(line,
+            JAST.compilationUnit().reportSemanticError(line,
                     "Type %s match type %s", this, expectedType);
         }
     }
@@ -499,7 +551,7 @@ class Type {
      * @return the JVM descriptor.
      */
 
-    private static String descriptorFor(Class<?> cls) {
+    static String descriptorFor(Class<?> cls) {
         return cls == null ? "V" : cls == void.class ? "V"
                 : cls.isArray() ? "[" + descriptorFor(cls.getComponentType())
                         : cls.isPrimitive() ? (cls == int.class ? "I"
@@ -566,6 +618,9 @@ class Type {
      * restriction that the types of the actual arguments must exactly match the
      * types of the formal parameters. Returns null if it cannot find one.
      * 
+     * This class and all its superclasses are searched, by way of the
+     * MemberIndex for this class.
+     * 
      * @param name
      *            the method name.
      * @param argTypes
@@ -574,25 +629,12 @@ class Type {
      */
 
     public Method methodFor(String name, Type[] argTypes) {
-        Class[] classes = new Class[argTypes.length];
-        for (int i = 0; i < argTypes.length; i++) {
-            classes[i] = argTypes[i].classRep;
-        }
-        Class cls = classRep;
-
-        // Search this class and all superclasses
-        while (cls != null) {
-            java.lang.reflect.Method[] methods = cls.getDeclaredMethods();
-            for (java.lang.reflect.Method method : methods) {
-                if (method.getName().equals(name)
-                        && Type.argTypesMatch(classes, method
-                                .getParameterTypes())) {
-                    return new Method(method);
-                }
-            }
-            cls = cls.getSuperclass();
+        if (classRep == null) {
+            return null;
         }
-        return null;
+        java.lang.reflect.Method method = MemberIndex.forClass(classRep)
+                .method(MemberIndex.signature(name, argTypes));
+        return method == null ? null : new Method(method);
     }
 
     /**
@@ -607,20 +649,14 @@ class Type {
      */
 
     public Constructor constructorFor(Type[] argTypes) {
-        Class[] classes = new Class[argTypes.length];
-        for (int i = 0; i < argTypes.length; i++) {
-            classes[i] = argTypes[i].classRep;
+        if (classRep == null) {
+            return null;
         }
 
         // Search only this class (we don't inherit constructors)
-        java.lang.reflect.Constructor[] constructors = classRep
-                .getDeclaredConstructors();
-        for (java.lang.reflect.Constructor constructor : constructors) {
-            if (argTypesMatch(classes, constructor.getParameterTypes())) {
-                return new Constructor(constructor);
-            }
-        }
-        return null;
+        java.lang.reflect.Constructor<?> constructor = MemberIndex.forClass(
+                classRep).constructor(MemberIndex.signature("<init>", argTypes));
+        return constructor == null ? null : new Constructor(constructor);
     }
 
     /**
@@ -632,17 +668,12 @@ class Type {
      */
 
     public Field fieldFor(String name) {
-        Class<?> cls = classRep;
-        while (cls != null) {
-            java.lang.reflect.Field[] fields = cls.getDeclaredFields();
-            for (java.lang.reflect.Field field : fields) {
-                if (field.getName().equals(name)) {
-                    return new Field(field);
-                }
-            }
-            cls = cls.getSuperclass();
+        if (classRep == null) {
+            return null;
         }
-        return null;
+        java.lang.reflect.Field field = MemberIndex.forClass(classRep).field(
+                name);
+        return field == null ? null : new Field(field);
     }
 
     /**
@@ -700,7 +731,7 @@ class Type {
                             .isJavaAssignableFrom(this)) {
                 return true;
             } else {
-                JAST.compilationUnit.reportSemanticError(line,
+                JAST.compilationUnit().reportSemanticError(line,
                         "The protected member, " + member.name()
                                 + ", is not accessible.");
                 return false;
@@ -711,7 +742,7 @@ class Type {
                     descriptorFor(member.member().getDeclaringClass()))) {
                 return true;
             } else {
-                JAST.compilationUnit.reportSemanticError(line,
+                JAST.compilationUnit().reportSemanticError(line,
                         "The private member, " + member.name()
                                 + ", is not accessible.");
                 return false;
@@ -722,7 +753,7 @@ class Type {
         if (packageName().equals(member.declaringType().packageName())) {
             return true;
         } else {
-            JAST.compilationUnit.reportSemanticError(line, "The member, "
+            JAST.compilationUnit().reportSemanticError(line, "The member, "
                     + member.name()
                     + ", is not accessible because it's in a different "
                     + "package.");
@@ -771,7 +802,7 @@ class Type {
                         : p2.getName()))) {
             return true;
         } else {
-            JAST.compilationUnit.reportSemanticError(line, "The type, "
+            JAST.compilationUnit().reportSemanticError(line, "The type, "
                     + type.getCanonicalName() + ", is not accessible from "
                     + referencingType.getCanonicalName());
             return false;
@@ -918,7 +949,7 @@ class TypeName extends Type {
                 // resolvedType.toString(),
                 // new TypeNameDefn(resolvedType));
             } catch (Exception e) {
-                JAST.compilationUnit.reportSemanticError(line,
+                JAST.compilationUnit().reportSemanticError(line,
                         "Unable to locate a type named %s", name);
                 resolvedType = Type.ANY;
             }
@@ -1004,3 +1035,260 @@ class ArrayTypeName extends Type {
     }
 
 }
+
+/**
+ * An index over the members of a class, built (using reflection) the first
+ * time a member of the class is looked up, and shared by all later lookups.
+ * Methods and constructors are keyed by their signature, ie, their name and
+ * the descriptors of their parameter types, eg, append(Ljava/lang/String;);
+ * fields are keyed by name. The methods and fields indexed for a class include
+ * those it inherits from its superclasses, which are taken from the
+ * superclasses' own indices.
+ */
+
+class MemberIndex {
+
+    /** Indices built so far for library classes, keyed by class. */
+    private static Hashtable<Class<?>, MemberIndex> indices = new Hashtable<Class<?>, MemberIndex>();
+
+    /**
+     * Indices built so far for partial classes, keyed by class; kept apart for
+     * each thread, like the Types of partial classes.
+     */
+    private static ThreadLocal<HashMap<Class<?>, MemberIndex>> partialIndices = new ThreadLocal<HashMap<Class<?>, MemberIndex>>();
+
+    /** Number of lookups that found the index for their class built. */
+    private static int hits;
+
+    /** Number of lookups that had to build the index for their class. */
+    private static int misses;
+
+    /** Methods declared in the class itself. */
+    private java.lang.reflect.Method[] declaredMethods;
+
+    /**
+     * Signatures of the methods declared in the class itself, in the form
+     * given by Method.toString().
+     */
+    private LinkedHashSet<String> declaredSignatures;
+
+    /**
+     * Methods declared in or inherited by the class, keyed by signature. An
+     * overriding method replaces the method it overrides.
+     */
+    private HashMap<String, java.lang.reflect.Method> methods;
+
+    /** Constructors declared in the class, keyed by signature. */
+    private HashMap<String, java.lang.reflect.Constructor<?>> constructors;
+
+    /**
+     * Fields declared in or inherited by the class, keyed by name. A field
+     * replaces the fields it hides.
+     */
+    private HashMap<String, java.lang.reflect.Field> fields;
+
+    /**
+     * Construct the index for the specified class.
+     * 
+     * @param cls
+     *            the class.
+     */
+
+    private MemberIndex(Class<?> cls) {
+        MemberIndex superIndex = cls.getSuperclass() == null ? null
+                : forClass(cls.getSuperclass());
+        methods = superIndex == null ? new HashMap<String, java.lang.reflect.Method>()
+                : new HashMap<String, java.lang.reflect.Method>(
+                        superIndex.methods);
+        fields = superIndex == null ? new HashMap<String, java.lang.reflect.Field>()
+                : new HashMap<String, java.lang.reflect.Field>(
+                        superIndex.fields);
+        constructors = new HashMap<String, java.lang.reflect.Constructor<?>>();
+        declaredSignatures = new LinkedHashSet<String>();
+        declaredMethods = cls.getDeclaredMethods();
+        for (java.lang.reflect.Method method : declaredMethods) {
+            String signature = signature(method.getName(), method
+                    .getParameterTypes());
+
+            // A class may declare bridge methods having the same
+            // signature as a method it declares; prefer the latter
+            java.lang.reflect.Method found = methods.get(signature);
+            if (found == null || found.getDeclaringClass() != cls
+                    || found.isBridge() && !method.isBridge()) {
+                methods.put(signature, method);
+            }
+            declaredSignatures.add(new Method(method).toString());
+        }
+        for (java.lang.reflect.Constructor<?> constructor : cls
+                .getDeclaredConstructors()) {
+            String signature = signature("<init>", constructor
+                    .getParameterTypes());
+            if (!constructors.containsKey(signature)) {
+                constructors.put(signature, constructor);
+            }
+        }
+        for (java.lang.reflect.Field field : cls.getDeclaredFields()) {
+            fields.put(field.getName(), field);
+        }
+    }
+
+    /**
+     * Return the index for the specified class, building it if this is the
+     * first lookup in the class.
+     * 
+     * @param cls
+     *            the class.
+     * @return the index.
+     */
+
+    public static synchronized MemberIndex forClass(Class<?> cls) {
+        Map<Class<?>, MemberIndex> built = indices;
+        if (Type.isPartial(cls)) {
+            HashMap<Class<?>, MemberIndex> partial = partialIndices.get();
+            if (partial == null) {
+                partial = new HashMap<Class<?>, MemberIndex>();
+                partialIndices.set(partial);
+            }
+            built = partial;
+        }
+        MemberIndex index = built.get(cls);
+        if (index == null) {
+            misses++;
+            index = new MemberIndex(cls);
+            built.put(cls, index);
+        } else {
+            hits++;
+        }
+        return index;
+    }
+
+    /**
+     * Forget the indices of classes defined by the compiler itself (ie, partial
+     * classes) on the current thread.
+     */
+
+    public static void discardPartialIndices() {
+        partialIndices.remove();
+    }
+
+    /**
+     * Return the number of lookups that found the index for their class
+     * already built.
+     * 
+     * @return number of hits.
+     */
+
+    public static synchronized int hits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that had to build the index for their
+     * class.
+     * 
+     * @return number of misses.
+     */
+
+    public static synchronized int misses() {
+        return misses;
+    }
+
+    /**
+     * Return the signature (the key into the index) for a member having the
+     * specified name and parameter types.
+     * 
+     * @param name
+     *            the member name.
+     * @param paramTypes
+     *            the parameter types.
+     * @return the signature.
+     */
+
+    public static String signature(String name, Class<?>[] paramTypes) {
+        StringBuilder signature = new StringBuilder(name).append('(');
+        for (Class<?> paramType : paramTypes) {
+            signature.append(Type.descriptorFor(paramType));
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * Return the signature (the key into the index) for a member having the
+     * specified name, which is to be invoked with arguments of the specified
+     * types.
+     * 
+     * @param name
+     *            the member name.
+     * @param argTypes
+     *            the argument types.
+     * @return the signature.
+     */
+
+    public static String signature(String name, Type[] argTypes) {
+        StringBuilder signature = new StringBuilder(name).append('(');
+        for (Type argType : argTypes) {
+            signature.append(Type.descriptorFor(argType.classRep()));
+        }
+        return signature.append(')').toString();
+    }
+
+    /**
+     * Return the method (declared in or inherited by the class) having the
+     * specified signature, or null.
+     * 
+     * @param signature
+     *            the method signature.
+     * @return the method or null.
+     */
+
+    public java.lang.reflect.Method method(String signature) {
+        return methods.get(signature);
+    }
+
+    /**
+     * Return the constructor having the specified signature, or null.
+     * 
+     * @param signature
+     *            the constructor signature.
+     * @return the constructor or null.
+     */
+
+    public java.lang.reflect.Constructor<?> constructor(String signature) {
+        return constructors.get(signature);
+    }
+
+    /**
+     * Return the field (declared in or inherited by the class) having the
+     * specified name, or null.
+     * 
+     * @param name
+     *            the field name.
+     * @return the field or null.
+     */
+
+    public java.lang.reflect.Field field(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * Return the methods declared in the class itself.
+     * 
+     * @return the declared methods.
+     */
+
+    public java.lang.reflect.Method[] declaredMethods() {
+        return declaredMethods;
+    }
+
+    /**
+     * Return the signatures, in the form given by Method.toString(), of the
+     * methods declared in the class itself.
+     * 
+     * @return the declared method signatures.
+     */
+
+    public LinkedHashSet<String> declaredSignatures() {
+        return declaredSignatures;
+    }
+
+}
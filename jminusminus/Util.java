@@ -2,6 +2,14 @@
 
 package jminusminus;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * This class defines helper functions.
  */
@@ -26,6 +34,48 @@ class Util {
         return escapedString;
     }
 
+    /**
+     * Escape the characters in the specified string that must be escaped in a
+     * string literal, and return the escaped string; unescape() undoes this.
+     * 
+     * @param s
+     *            string to escape.
+     * @return the escaped string.
+     */
+
+    public static String escape(String s) {
+        StringBuffer b = new StringBuffer();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '\b':
+                b.append("\\b");
+                break;
+            case '\t':
+                b.append("\\t");
+                break;
+            case '\n':
+                b.append("\\n");
+                break;
+            case '\f':
+                b.append("\\f");
+                break;
+            case '\r':
+                b.append("\\r");
+                break;
+            case '"':
+                b.append("\\\"");
+                break;
+            case '\\':
+                b.append("\\\\");
+                break;
+            default:
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+
     /**
      * Unescape the escaped characters in the specified string and return the
      * unescaped string.
@@ -78,6 +128,93 @@ class Util {
         return b.toString();
     }
 
+    /**
+     * Add the source files named in the specified list file, one per line, to
+     * the given list. Blank lines are ignored.
+     * 
+     * @param listFile
+     *            the file listing the source files.
+     * @param sourceFiles
+     *            list to which the source files are added.
+     * @return true if the list file could be read; false otherwise.
+     */
+
+    public static boolean readSourceList(String listFile,
+            ArrayList<String> sourceFiles) {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(listFile));
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.equals("")) {
+                    sourceFiles.add(line);
+                }
+            }
+            in.close();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error: cannot read source list " + listFile
+                    + ".");
+            return false;
+        }
+    }
+
+    /**
+     * Recursively add the .java files found under the specified directory to
+     * the given list, in name order so that the output is reproducible.
+     * 
+     * @param dir
+     *            the directory to search.
+     * @param sourceFiles
+     *            list to which the source files are added.
+     */
+
+    public static void findSourceFiles(File dir,
+            ArrayList<String> sourceFiles) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findSourceFiles(file, sourceFiles);
+            } else if (file.getName().endsWith(".java")) {
+                sourceFiles.add(file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Select the names (of HIR optimization passes or peephole rules) in the
+     * specified comma-separated list; "all" selects every known name, and
+     * "none" none of them.
+     * 
+     * @param names
+     *            the list of names.
+     * @param known
+     *            the names known.
+     * @param selected
+     *            list the selected names are placed in.
+     * @return true if every name is valid; false otherwise.
+     */
+
+    public static boolean select(String names, String[] known,
+            ArrayList<String> selected) {
+        List<String> all = Arrays.asList(known);
+        selected.clear();
+        for (String name : names.split(",")) {
+            if (name.equals("all")) {
+                selected.addAll(all);
+            } else if (all.contains(name)) {
+                selected.add(name);
+            } else if (!name.equals("none")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
 
 /**
@@ -0,0 +1,65 @@
+#!/bin/bash
+#
+# Checks that a compile server recovers from an input that makes the compiler
+# fail with an exception: the methods of the failed compile must not be reused
+# by the next request, which would otherwise report a bogus "Badly formed
+# suffix" for a method analyzed by the failed compile.
+#
+# Usage: tests/server-recompile.sh <dir holding the compiled jminusminus classes>
+
+classes=$(cd "${1:-.}" && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+# The fixed version of C.java
+cat > "$work/good" <<'EOF'
+import java.lang.System;
+
+public class C {
+    public int k(int n) {
+        System.out.println(n); return n;
+    }
+    public Object g() {
+        return null;
+    }
+}
+EOF
+
+# Before k calls println, so that the second request parses k anew
+sed 's/System.out.println(n); return n;/return n;/' "$work/good" > "$work/v1"
+
+# Analyzes k, then fails with an exception in g
+sed 's/return null;/return unknown.x;/' "$work/good" > "$work/v2"
+
+cp "$work/good" "$work/v3"
+
+cd "$work"
+coproc SERVER { java -cp "$classes" jminusminus.Main -server 2>&1; }
+failed=0
+for i in 1 2 3; do
+    cp v$i C.java
+    echo "-d out C.java" >&"${SERVER[1]}"
+    output=""
+    while read -r line <&"${SERVER[0]}"; do
+        case $line in
+            ok|error) break ;;
+            *) output="$output$line\n" ;;
+        esac
+    done
+    case $i in
+        1|3) expected=ok ;;
+        2) expected=error ;;
+    esac
+    if [ "$line" != "$expected" ]; then
+        echo "request $i: expected $expected, got $line"
+        printf "%b" "$output"
+        failed=1
+    fi
+done
+echo exit >&"${SERVER[1]}"
+wait
+
+if [ $failed = 0 ]; then
+    echo "passed"
+fi
+exit $failed
@@ -0,0 +1,32 @@
+#!/bin/bash
+#
+# Checks that loop-invariant code motion leaves a loop that is never entered
+# alone: tests/spim/DeadLoop.java must print "7 7" when compiled to SPIM with
+# the optimizations that once made its loop reachable.
+#
+# Usage: tests/spim-dead-loop.sh <dir holding the compiled jminusminus classes>
+#
+# The j environment variable must name the j-- root, for SPIM.s; the SPIM
+# environment variable may name the simulator to run (spim by default).
+
+classes=$(cd "${1:-.}" && pwd)
+source=$(cd "$(dirname "$0")" && pwd)/spim/DeadLoop.java
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+failed=0
+for options in "-s linear -O inline,cse,licm" "-s graph -O all"; do
+    rm -f "$work/DeadLoop.s"
+    java -cp "$classes" jminusminus.Main $options -d "$work" "$source" \
+        > /dev/null
+    output=$(timeout 10 ${SPIM:-spim} -file "$work/DeadLoop.s" | tail -1)
+    if [ "$output" != "7 7" ]; then
+        echo "$options: expected 7 7, got $output"
+        failed=1
+    fi
+done
+
+if [ $failed = 0 ]; then
+    echo "passed"
+fi
+exit $failed
@@ -0,0 +1,24 @@
+import spim.SPIM;
+
+// A loop that is never entered: the block before it ends with a goto past it.
+// Once m0 is inlined, loop-invariant code motion must not give the loop a
+// preheader on that goto's path. Prints "7 7".
+
+public class DeadLoop {
+    static int m0() {
+        if (false) {
+            int i = 0;
+            while (2 > i) {
+                SPIM.printInt(i);
+                i = i + 1;
+            }
+        }
+        return 7;
+    }
+    public static void main(String[] args) {
+        SPIM.printInt(m0());
+        SPIM.printChar(' ');
+        SPIM.printInt(m0());
+        SPIM.printChar('\n');
+    }
+}